@@ -0,0 +1,154 @@
+package org.jenkinsci.plugins.environmentdashboard.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardDAO;
+import org.jenkinsci.plugins.environmentdashboard.dao.HistoryPartitions;
+import org.jenkinsci.plugins.environmentdashboard.dao.SchemaMigrator;
+import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Synthetic dashboard database shared by the benchmarks: envs x comps cells
+ * and a history spread over them during the last days. The database is
+ * kept between runs and only generated again if its size differs.
+ */
+@State(Scope.Benchmark)
+public class DashboardData {
+
+    // Generated history columns, created_at is set so that the history is spread in time.
+    private static final String INSERT_HISTORY = " (envComp, jobUrl, buildNum, buildStatus, "
+            + "envName, compName, created_at, buildJobUrl, packageName) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+    private static final String[] STATUSES = {"SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS", "FAILURE", "RUNNING"};
+
+    /* Rows inserted per transaction while generating */
+    private static final int GENERATE_BATCH = 10000;
+
+    /* Milliseconds in a day */
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /* Days the generated history is spread over */
+    private static final int HISTORY_DAYS = 30;
+
+    @Param("50")
+    public int envs;
+
+    @Param("1000")
+    public int comps;
+
+    @Param("2000000")
+    public int history;
+
+    private String[] envNames;
+
+    private String[] compNames;
+
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void generate() throws SQLException {
+        envNames = new String[envs];
+        for (int i = 0; i < envs; i++) {
+            envNames[i] = "ENV-" + i;
+        }
+        compNames = new String[comps];
+        for (int i = 0; i < comps; i++) {
+            compNames[i] = "COMP-" + i;
+        }
+
+        SchemaMigrator.migrate();
+        if (countHistory() == history) {
+            return;
+        }
+        DashboardDAO dao = new DashboardDAO();
+        dao.truncateEnvDashboard();
+        insertHistory(history, System.currentTimeMillis() - HISTORY_DAYS * DAY,
+                System.currentTimeMillis());
+        dao.rebuildLatestTable();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        DBConnection.shutdown();
+    }
+
+    /**
+     * Insert history rows for random cells, created at random times, into
+     * the partition of the month of each time.
+     */
+    public void insertHistory(int rows, long from, long to) throws SQLException {
+        Random random = new Random(rows);
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            Map<Integer, PreparedStatement> inserts = new HashMap<Integer, PreparedStatement>();
+            for (long time = from; HistoryPartitions.month(time) <= HistoryPartitions.month(to); time += DAY) {
+                int month = HistoryPartitions.month(time);
+                if (!inserts.containsKey(month)) {
+                    HistoryPartitions.ensure(conn, month);
+                    inserts.put(month, conn.prepareStatement("INSERT INTO " + HistoryPartitions.historyTable(month)
+                            + INSERT_HISTORY));
+                }
+            }
+            conn.setAutoCommit(false);
+            for (int i = 0; i < rows; i++) {
+                String env = envNames[random.nextInt(envs)];
+                String comp = compNames[random.nextInt(comps)];
+                String url = "job/deploy-" + comp + "/" + i + "/";
+                long created = from + (long) (random.nextDouble() * (to - from));
+                PreparedStatement insert = inserts.get(HistoryPartitions.month(created));
+                DashboardDAO.setValues(insert, env + "=" + comp, url, String.valueOf(i),
+                        STATUSES[random.nextInt(STATUSES.length)], env, comp, new Timestamp(created), url, "");
+                insert.addBatch();
+                if (i % GENERATE_BATCH == GENERATE_BATCH - 1) {
+                    executeBatches(inserts);
+                    conn.commit();
+                }
+            }
+            executeBatches(inserts);
+            conn.commit();
+            for (PreparedStatement insert : inserts.values()) {
+                insert.close();
+            }
+        } finally {
+            conn.setAutoCommit(true);
+            DBConnection.closeConnection(conn);
+        }
+    }
+
+    /**
+     * @return the environment of the next cell, call before nextComp.
+     */
+    public String nextEnv() {
+        next++;
+        return envNames[next % envs];
+    }
+
+    /**
+     * @return the component of the current cell.
+     */
+    public String nextComp() {
+        return compNames[(next / envs) % comps];
+    }
+
+    private static void executeBatches(Map<Integer, PreparedStatement> inserts) throws SQLException {
+        for (PreparedStatement insert : inserts.values()) {
+            insert.executeBatch();
+        }
+    }
+
+    private int countHistory() throws SQLException {
+        return new DashboardDAO().countRows().get("env_dashboard").intValue();
+    }
+}
@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.environmentdashboard.benchmark;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.environmentdashboard.DashboardMatrix;
+import org.jenkinsci.plugins.environmentdashboard.DashboardRenderCache;
+import org.jenkinsci.plugins.environmentdashboard.EnvDashboardView;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardReadModel;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the dashboard reads, from the in-memory read model or from
+ * the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Dorg.jenkinsci.plugins.environmentdashboard.utils.DBConnection.directory=target/benchmark-read",
+        "-Dorg.jenkinsci.plugins.environmentdashboard.dao.DashboardReadModel.historySize=10",
+        "-Dorg.jenkinsci.plugins.environmentdashboard.dao.DashboardReadModel.maxDeployments=1000000"})
+@State(Scope.Benchmark)
+public class DashboardReadBenchmark {
+
+    /* Deployments shown by the history popups */
+    private static final int HISTORY = 10;
+
+    @Param({"false", "true"})
+    public boolean readModel;
+
+    private EnvDashboardView view;
+
+    @Setup(Level.Trial)
+    public void setUp(DashboardData data) throws SQLException {
+        if (readModel && !DashboardReadModel.load()) {
+            throw new IllegalStateException("The read model does not fit its memory budget.");
+        }
+        view = new EnvDashboardView("benchmark", "", "", String.valueOf(HISTORY));
+    }
+
+    @Benchmark
+    public Deployment getCompLastDeployed(DashboardData data) {
+        String env = data.nextEnv();
+        return view.getCompLastDeployed(env, data.nextComp());
+    }
+
+    @Benchmark
+    public List<Deployment> getDeploymentsByComp(DashboardData data) {
+        data.nextEnv();
+        return view.getDeploymentsByComp(data.nextComp(), HISTORY);
+    }
+
+    @Benchmark
+    public List<Deployment> getDeploymentsByEnv(DashboardData data) {
+        return view.getDeploymentsByEnv(data.nextEnv(), HISTORY);
+    }
+
+    /**
+     * Build the whole grid model, as a render after a deployment does.
+     */
+    @Benchmark
+    public DashboardMatrix dashboardMatrix() {
+        DashboardRenderCache.invalidate("");
+        return view.getDashboardMatrix();
+    }
+}
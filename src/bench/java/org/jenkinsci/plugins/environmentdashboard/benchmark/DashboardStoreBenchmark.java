@@ -0,0 +1,120 @@
+package org.jenkinsci.plugins.environmentdashboard.benchmark;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardQuery;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardWriteQueue;
+import org.jenkinsci.plugins.environmentdashboard.dao.HistoryCursor;
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The dashboard store paths the write queue and history popups take,
+ * compared across stores. Each trial starts from an empty store of its own.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.jenkinsci.plugins.environmentdashboard.utils.DBConnection.directory=target/benchmark-store")
+public class DashboardStoreBenchmark {
+
+    /* Deployments per write call, the write queue's default batch size */
+    private static final int BATCH_SIZE = 100;
+
+    /* Deployments per history page */
+    private static final int PAGE_SIZE = 10;
+
+    private static final int ENVS = 20;
+
+    private static final int COMPS = 100;
+
+    @State(Scope.Benchmark)
+    public static class Store {
+
+        @Param({DashboardStore.EMBEDDED, DashboardStore.MEMORY})
+        public String type;
+
+        private DashboardStore store;
+
+        private int buildNum = 0;
+
+        private int pageEnv = 0;
+
+        @Setup(Level.Trial)
+        public void open() throws SQLException {
+            store = DashboardStore.create(type, null);
+            store.open();
+            // A trial starts empty, the embedded database is kept between runs.
+            store.purge(-1, 10000);
+            for (int i = 0; i < 100; i++) {
+                store.write(batch("SUCCESS"));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            store.close();
+        }
+
+        List<DashboardWriteQueue.Event> batch(String status) {
+            List<DashboardWriteQueue.Event> events = new ArrayList<DashboardWriteQueue.Event>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                buildNum++;
+                String env = "ENV-" + buildNum % ENVS;
+                String comp = "COMP-" + buildNum % COMPS;
+                String url = "job/bench-" + comp + "/" + buildNum + "/";
+                events.add(new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.ADD, env + "=" + comp,
+                        new Build(String.valueOf(buildNum), url, status, env, comp, url, "")));
+            }
+            return events;
+        }
+
+        String nextEnv() {
+            return "ENV-" + (++pageEnv % ENVS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void write(Store store) throws SQLException {
+        store.store.write(store.batch("SUCCESS"));
+    }
+
+    @Benchmark
+    public void latest(Store store, Blackhole blackhole) throws SQLException {
+        blackhole.consume(store.store.getLatest());
+    }
+
+    @Benchmark
+    public boolean envHistoryPage(Store store, final Blackhole blackhole) throws SQLException, IOException {
+        return store.store.readHistory(store.nextEnv(), null, HistoryCursor.FIRST, PAGE_SIZE, null,
+                new DashboardQuery.DeploymentVisitor() {
+                    @Override
+                    public boolean visit(Deployment deployment) {
+                        blackhole.consume(deployment);
+                        return true;
+                    }
+                });
+    }
+}
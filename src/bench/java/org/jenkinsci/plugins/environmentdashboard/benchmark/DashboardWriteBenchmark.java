@@ -0,0 +1,146 @@
+package org.jenkinsci.plugins.environmentdashboard.benchmark;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardDAO;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardWriteQueue;
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of recording deployments. Writes grow the history, so these
+ * benchmarks use a database of their own and leave the read benchmarks'
+ * database alone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.jenkinsci.plugins.environmentdashboard.utils.DBConnection.directory=target/benchmark-write")
+public class DashboardWriteBenchmark {
+
+    /* Deployments per writeBatch call, the write queue's default batch size */
+    private static final int BATCH_SIZE = 100;
+
+    /* Days before now the purged deployments were recorded */
+    private static final int PURGED_AGE = 400;
+
+    /* Deployments purged per transaction */
+    private static final int PURGE_CHUNK = 1000;
+
+    private static int buildNum = 0;
+
+    private static Build build(String env, String comp, String status) {
+        String url = "job/bench-" + comp + "/" + (++buildNum) + "/";
+        return new Build(String.valueOf(buildNum), url, status, env, comp, url, "");
+    }
+
+    /**
+     * Deployments recorded once, then updated over and over.
+     */
+    @State(Scope.Benchmark)
+    public static class Recorded {
+
+        private final List<Build> builds = new ArrayList<Build>();
+
+        private int next = 0;
+
+        @Setup(Level.Trial)
+        public void record(DashboardData data) throws SQLException {
+            DashboardDAO dao = new DashboardDAO();
+            for (int i = 0; i < 1000; i++) {
+                String env = data.nextEnv();
+                Build build = build(env, data.nextComp(), "RUNNING");
+                dao.addBuild(env + "=" + build.getComponantName(), build);
+                builds.add(build);
+            }
+        }
+
+        Build next() {
+            return builds.get(next++ % builds.size());
+        }
+    }
+
+    /**
+     * A deployment recorded before each invocation, to be deleted.
+     */
+    @State(Scope.Benchmark)
+    public static class ToDelete {
+
+        private Build build;
+
+        @Setup(Level.Invocation)
+        public void record(DashboardData data) throws SQLException {
+            String env = data.nextEnv();
+            build = build(env, data.nextComp(), "SUCCESS");
+            new DashboardDAO().addBuild(env + "=" + build.getComponantName(), build);
+        }
+    }
+
+    /**
+     * A chunk of deployments older than the retention before each
+     * invocation, to be purged.
+     */
+    @State(Scope.Benchmark)
+    public static class ToPurge {
+
+        @Setup(Level.Invocation)
+        public void record(DashboardData data) throws SQLException {
+            long recorded = System.currentTimeMillis() - PURGED_AGE * 24L * 60 * 60 * 1000;
+            data.insertHistory(PURGE_CHUNK, recorded, recorded + 1000);
+        }
+    }
+
+    @Benchmark
+    public boolean addBuild(DashboardData data) throws SQLException {
+        String env = data.nextEnv();
+        Build build = build(env, data.nextComp(), "SUCCESS");
+        return new DashboardDAO().addBuild(env + "=" + build.getComponantName(), build);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void writeBatch(DashboardData data) throws SQLException {
+        List<DashboardWriteQueue.Event> events = new ArrayList<DashboardWriteQueue.Event>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            String env = data.nextEnv();
+            Build build = build(env, data.nextComp(), "SUCCESS");
+            events.add(new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.ADD,
+                    env + "=" + build.getComponantName(), build));
+        }
+        new DashboardDAO().writeBatch(events);
+    }
+
+    @Benchmark
+    public boolean updateBuild(Recorded recorded) throws SQLException {
+        Build build = recorded.next();
+        build.setResult("SUCCESS".equals(build.getResult()) ? "FAILURE" : "SUCCESS");
+        return new DashboardDAO().updateBuild(build.getEnvironment() + "=" + build.getComponantName(), build);
+    }
+
+    @Benchmark
+    public boolean deleteBuild(ToDelete toDelete) throws SQLException {
+        Build build = toDelete.build;
+        return new DashboardDAO().deleteBuild(build.getEnvironment() + "=" + build.getComponantName(), build);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PURGE_CHUNK)
+    public int purgeBuilds(ToPurge toPurge) throws SQLException {
+        return new DashboardDAO().purgeBuilds(PURGED_AGE - 1, PURGE_CHUNK);
+    }
+}
@@ -0,0 +1,85 @@
+package org.jenkinsci.plugins.environmentdashboard.benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.BuildStatus;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The rows of a render held as deployment records against the field maps
+ * they replaced. Run with -prof gc, gc.alloc.rate.norm is the bytes
+ * allocated per render. The field values are shared by both so only the
+ * row representation is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeploymentRowBenchmark {
+
+    /* Rows per simulated render, a large grid with its history popups */
+    private static final int ROWS = 20000;
+
+    private static final String[] COLUMNS = {"ver", "owner"};
+
+    private String[] buildNums;
+
+    private String[] urls;
+
+    private final String[] values = {"1.0", "ops"};
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        buildNums = new String[ROWS];
+        urls = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            buildNums[i] = String.valueOf(i);
+            urls[i] = "job/deploy/" + i + "/";
+        }
+    }
+
+    @Benchmark
+    public Object[] maps() {
+        Object[] rows = new Object[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            HashMap<String, String> row = new HashMap<String, String>();
+            row.put("id", buildNums[i]);
+            row.put("envName", "DEV");
+            row.put("compName", "WEBAPP");
+            row.put("buildstatus", "SUCCESS");
+            row.put("buildNum", buildNums[i]);
+            row.put("jobUrl", urls[i]);
+            row.put("buildJobUrl", urls[i]);
+            row.put("created_at", "2015-03-01 12:00:00.0");
+            row.put("packageName", "");
+            row.put("ver", values[0]);
+            row.put("owner", values[1]);
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public Object[] records() {
+        Object[] rows = new Object[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new Deployment(i, "DEV", "WEBAPP", BuildStatus.SUCCESS, buildNums[i], urls[i], urls[i],
+                    "2015-03-01 12:00:00.0", "").withCustomValues(COLUMNS, new String[] {values[0], values[1]});
+        }
+        return rows;
+    }
+}
@@ -8,11 +8,9 @@ import hudson.model.AbstractProject;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
@@ -22,9 +20,10 @@ import javax.servlet.ServletException;
 
 import net.sf.json.JSONObject;
 
-import org.jenkinsci.plugins.environmentdashboard.dao.DashboardDAO;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardWriteQueue;
 import org.jenkinsci.plugins.environmentdashboard.entity.Build;
-import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+import org.jenkinsci.plugins.environmentdashboard.utils.DashboardMetrics;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
@@ -86,7 +85,6 @@ public class DashboardBuilder extends BuildWrapper {
     @Override
     public Environment setUp(AbstractBuild build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
         // PreBuild
-        final Integer numberOfDays = ( (getDescriptor().getNumberOfDays() == null) ? 30 : getDescriptor().getNumberOfDays() );
         String passedBuildNumber = build.getEnvironment(listener).expand(buildNumber);
         String passedEnvName = build.getEnvironment(listener).expand(nameOfEnv);
         String passedCompName = build.getEnvironment(listener).expand(componentName);
@@ -110,7 +108,7 @@ public class DashboardBuilder extends BuildWrapper {
         }
 
         if (!(passedBuildNumber.matches("^\\s*$") || passedEnvName.matches("^\\s*$") || passedCompName.matches("^\\s*$"))) {
-            returnComment = writeToDB(build, listener, passedEnvName, passedCompName, passedBuildNumber, "PRE", passedBuildJob, numberOfDays, passedPackageName, passedColumnData);
+            returnComment = writeToDB(build, listener, passedEnvName, passedCompName, passedBuildNumber, "PRE", passedBuildJob, passedPackageName, passedColumnData);
             listener.getLogger().println("Pre-Build Update: " + returnComment);
         } else {
             listener.getLogger().println("Environment dashboard not updated: one or more required values were blank");
@@ -137,12 +135,12 @@ public class DashboardBuilder extends BuildWrapper {
 
                 if (doDeploy.equals("true")){
                     if (!(passedBuildNumber.matches("^\\s*$") || passedEnvName.matches("^\\s*$") || passedCompName.matches("^\\s*$"))) {
-                        returnComment = writeToDB(build, listener, passedEnvName, passedCompName, passedBuildNumber, "POST", passedBuildJob, numberOfDays, passedPackageName, passedColumnData);
+                        returnComment = writeToDB(build, listener, passedEnvName, passedCompName, passedBuildNumber, "POST", passedBuildJob, passedPackageName, passedColumnData);
                         listener.getLogger().println("Post-Build Update: " + returnComment);
                     }
                 }else{
                     if (!(passedBuildNumber.matches("^\\s*$") || passedEnvName.matches("^\\s*$") || passedCompName.matches("^\\s*$"))) {
-                        returnComment = writeToDB(build, listener, passedEnvName, passedCompName, passedBuildNumber, "NODEPLOY", passedBuildJob, numberOfDays, passedPackageName, passedColumnData);
+                        returnComment = writeToDB(build, listener, passedEnvName, passedCompName, passedBuildNumber, "NODEPLOY", passedBuildJob, passedPackageName, passedColumnData);
                         listener.getLogger().println("Post-Build Update: " + returnComment);
                     }
                     
@@ -155,43 +153,13 @@ public class DashboardBuilder extends BuildWrapper {
     }
 
     @SuppressWarnings("rawtypes")
-    private String writeToDB(AbstractBuild build, BuildListener listener, String envName, String compName, String currentBuildNum, String runTime, String buildJob, Integer numberOfDays, String packageName, List<ListItem> passedColumnData) {
+    private String writeToDB(AbstractBuild build, BuildListener listener, String envName, String compName, String currentBuildNum, String runTime, String buildJob, String packageName, List<ListItem> passedColumnData) {
         String returnComment = null;
         if (envName.matches("^\\s*$") || compName.matches("^\\s*$")) {
             returnComment = "WARN: Either Environment name or Component name is empty.";
             return returnComment;
         }
 
-        DashboardDAO dashboardDAO = new DashboardDAO();
-        
-        try {
-            dashboardDAO.createDashboardTable();
-        } catch (SQLException e) {
-            return "WARN: Could not create table env_dashboard.";
-        }
-        
-        try {
-            dashboardDAO.addColumn("packageName VARCHAR(255)");
-        } catch (SQLException e) {
-            return "WARN: Could not alter table env_dashboard." + e.getErrorCode() + " " + e.getMessage();
-        }
-        
-        //Get DB connection
-        Connection conn = DBConnection.getConnection();
-
-        Statement stat = null;
-
-        String columns = "";
-        String contents = "";
-        for (ListItem item : passedColumnData){
-            columns = columns + ", " +  item.columnName;
-            contents = contents + "', '" + item.contents;
-            try {
-                dashboardDAO.addColumn(item.columnName + " VARCHAR");
-            } catch (SQLException e) {
-                return "WARN: Could not alter table env_dashboard to add column " + item.columnName + ".";
-            }
-        }
         String indexValueofTable = envName + '=' + compName;
         String currentBuildResult = "UNKNOWN";
         if (build.getResult() == null && runTime.equals("PRE")) {
@@ -214,28 +182,35 @@ public class DashboardBuilder extends BuildWrapper {
         }
         
         /* Object represents a environment dashboard Jenkins build */
-        Build b = new Build(currentBuildNum,currentBuildUrl,currentBuildResult,envName,compName,buildJobUrl,packageName + contents);
+        Build b = new Build(currentBuildNum,currentBuildUrl,currentBuildResult,envName,compName,buildJobUrl,packageName);
+        for (ListItem item : passedColumnData){
+            b.addCustomColumn(item.columnName, item.contents);
+        }
 
-        try {
-            if (runTime.equals("PRE")) {
-                dashboardDAO.addBuild(indexValueofTable, b);
-            } else if(runTime.equals("POST")) {
-               dashboardDAO.updateBuild(indexValueofTable, b);
-            } else if (runTime.equals("NODEPLOY")){
-                dashboardDAO.deleteBuild(indexValueofTable, b);
-            }
-        } catch (SQLException e) {
-          return "Error running query!" + e.getMessage().toString();
+        DashboardWriteQueue.Event.Type type;
+        if (runTime.equals("PRE")) {
+            type = DashboardWriteQueue.Event.Type.ADD;
+        } else if (runTime.equals("NODEPLOY")){
+            type = DashboardWriteQueue.Event.Type.DELETE;
+        } else {
+            type = DashboardWriteQueue.Event.Type.UPDATE;
         }
-        
 
+        /* The dashboard is written by a background writer, so a slow or
+         * locked database does not hold up the build. */
+        long start = System.nanoTime();
         try {
-            dashboardDAO.deleteBuilds(numberOfDays);
-        } catch (SQLException e) {
-                return "Error running delete query!" + e.getMessage().toString();
+            if (!DashboardWriteQueue.enqueue(new DashboardWriteQueue.Event(type, indexValueofTable, b))) {
+                return "WARN: Dashboard update queue is full, update dropped.";
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "WARN: Interrupted while queueing dashboard update.";
+        } finally {
+            DashboardMetrics.OPERATIONS.observeSince("writeToDB", start);
         }
         
-        return "Updated Dashboard DB";
+        return "Queued Dashboard DB update";
     }
 
 
@@ -249,6 +224,12 @@ public class DashboardBuilder extends BuildWrapper {
 
         private String numberOfDays = "30";
         private Integer parseNumberOfDays;
+        private String purgeHour = "2";
+        private String archiveAfterDays = "0";
+        private String compactBelowFillRate = "50";
+        private String maxChangeStreams = "8";
+        private String storage = DashboardStore.EMBEDDED;
+        private String serverUrl = "";
         public DescriptorImpl() {
             load();
         }
@@ -293,6 +274,72 @@ public class DashboardBuilder extends BuildWrapper {
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckPurgeHour(@QueryParameter String value)
+                throws IOException, ServletException {
+            try {
+                int hour = Integer.parseInt(value);
+                if (hour < 0 || hour > 23) {
+                    return FormValidation.error("Please provide an hour between 0 and 23.");
+                }
+            } catch(Exception parseEx) {
+                return FormValidation.error("Please provide an integer value.");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckArchiveAfterDays(@QueryParameter String value)
+                throws IOException, ServletException {
+            try {
+                if (Integer.parseInt(value) < 0) {
+                    return FormValidation.error("Please provide 0 or a positive number of days.");
+                }
+            } catch(Exception parseEx) {
+                return FormValidation.error("Please provide an integer value.");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckCompactBelowFillRate(@QueryParameter String value)
+                throws IOException, ServletException {
+            try {
+                int rate = Integer.parseInt(value);
+                if (rate < 0 || rate > 100) {
+                    return FormValidation.error("Please provide a percentage between 0 and 100.");
+                }
+            } catch(Exception parseEx) {
+                return FormValidation.error("Please provide an integer value.");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckMaxChangeStreams(@QueryParameter String value)
+                throws IOException, ServletException {
+            try {
+                if (Integer.parseInt(value) < 0) {
+                    return FormValidation.error("Please provide 0 or a positive number of dashboards.");
+                }
+            } catch(Exception parseEx) {
+                return FormValidation.error("Please provide an integer value.");
+            }
+            return FormValidation.ok();
+        }
+
+        public ListBoxModel doFillStorageItems() {
+            ListBoxModel m = new ListBoxModel();
+            m.add("Embedded H2 database", DashboardStore.EMBEDDED);
+            m.add("H2 database server", DashboardStore.SERVER);
+            m.add("In memory, lost at restart", DashboardStore.MEMORY);
+            return m;
+        }
+
+        public FormValidation doCheckServerUrl(@QueryParameter String value)
+                throws IOException, ServletException {
+            if (value.length() > 0 && !value.startsWith("jdbc:h2:tcp:") && !value.startsWith("jdbc:h2:ssl:")) {
+                return FormValidation.error("Please provide an H2 server URL e.g: jdbc:h2:tcp://dbhost:9092/jenkins_dashboard.");
+            }
+            return FormValidation.ok();
+        }
+
         public boolean isApplicable(AbstractProject<?, ?> item) {
             return true;
         }
@@ -304,12 +351,91 @@ public class DashboardBuilder extends BuildWrapper {
             {
                 numberOfDays = "30";
             }
+            purgeHour = formData.optString("purgeHour", "2");
+            archiveAfterDays = formData.optString("archiveAfterDays", "0");
+            compactBelowFillRate = formData.optString("compactBelowFillRate", "50");
+            maxChangeStreams = formData.optString("maxChangeStreams", "8");
+            String previousStorage = getStorage();
+            String previousServerUrl = getServerUrl();
+            storage = formData.optString("storage", DashboardStore.EMBEDDED);
+            serverUrl = formData.optString("serverUrl", "").trim();
             save();
+            if (!getStorage().equals(previousStorage) || !getServerUrl().equals(previousServerUrl)) {
+                PluginImpl.openStore(getStorage(), getServerUrl());
+            }
             return super.configure(req,formData);
         }
 
         public Integer getNumberOfDays() {
-            return parseNumberOfDays;
+            try {
+                return Integer.parseInt(numberOfDays);
+            } catch (NumberFormatException e) {
+                return parseNumberOfDays;
+            }
+        }
+
+        /**
+         * @return the hour of the day, 0 to 23, at which old dashboard data
+         *         is purged.
+         */
+        public Integer getPurgeHour() {
+            try {
+                return Integer.parseInt(purgeHour);
+            } catch (NumberFormatException e) {
+                return 2;
+            }
+        }
+
+        /**
+         * @return the number of days of dashboard data kept in the database
+         *         before older months are archived, 0 to never archive.
+         */
+        public Integer getArchiveAfterDays() {
+            try {
+                return Integer.parseInt(archiveAfterDays);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        /**
+         * @return the estimated percentage of live data in the database file
+         *         below which it is compacted after the purge, 0 to never
+         *         compact.
+         */
+        public Integer getCompactBelowFillRate() {
+            try {
+                return Integer.parseInt(compactBelowFillRate);
+            } catch (NumberFormatException e) {
+                return 50;
+            }
+        }
+
+        /**
+         * @return the number of open dashboards whose change requests wait
+         *         for changes at once, each holding a request thread, 0 for
+         *         all of them to poll.
+         */
+        public Integer getMaxChangeStreams() {
+            try {
+                return Math.max(0, Integer.parseInt(maxChangeStreams));
+            } catch (NumberFormatException e) {
+                return 8;
+            }
+        }
+
+        /**
+         * @return where the dashboard is kept: embedded, server or memory.
+         */
+        public String getStorage() {
+            return storage == null ? DashboardStore.EMBEDDED : storage;
+        }
+
+        /**
+         * @return the JDBC URL of the H2 server, used by the server store.
+         */
+        public String getServerUrl() {
+            return serverUrl == null ? "" : serverUrl;
         }
 
     }
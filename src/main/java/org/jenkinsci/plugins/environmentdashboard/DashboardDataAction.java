@@ -0,0 +1,258 @@
+package org.jenkinsci.plugins.environmentdashboard;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.RootAction;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardChangeFeed;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardDAO;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.DatabaseCompaction;
+import org.jenkinsci.plugins.environmentdashboard.dao.H2DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.utils.DashboardMetrics;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Moves the dashboard between controllers: /environment-dashboard-data/export
+ * streams every deployment as JSON lines, and posting them to
+ * /environment-dashboard-data/import on the other controller loads them in
+ * chunks, each its own transaction, reporting progress as it goes. A failed
+ * import is resumed by posting the same lines again with skip set to the
+ * number of lines it reported imported. Imported deployments keep their
+ * ids, so an import that does not resume one is refused if the dashboard
+ * already has deployments.
+ *
+ * /environment-dashboard-data/compaction reports the size of the database
+ * file and how full it is, posting to /environment-dashboard-data/compact
+ * rewrites it with only its live data, briefly closing it.
+ *
+ * Both ends must keep the dashboard in H2, embedded or on a server. Only the
+ * embedded database is compacted, closing a server database would close it
+ * under all of its other clients.
+ */
+@Extension
+public class DashboardDataAction implements RootAction {
+
+    private static final Logger LOGGER = Logger.getLogger(DashboardDataAction.class.getName());
+
+    /* Builds read per export query and imported per transaction */
+    private static final int CHUNK_SIZE = Integer.getInteger(
+            DashboardDataAction.class.getName() + ".chunkSize", 5000);
+
+    /** Hidden from the side panel. */
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "Environment Dashboard Data";
+    }
+
+    public String getUrlName() {
+        return "environment-dashboard-data";
+    }
+
+    public void doExport(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        if (!isH2Store(rsp)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        rsp.setContentType("application/x-ndjson;charset=UTF-8");
+        rsp.setHeader("Content-Disposition", "attachment; filename=environment-dashboard.ndjson");
+        Writer out = new BufferedWriter(new OutputStreamWriter(rsp.getOutputStream(), "UTF-8"));
+        try {
+            long exported = new DashboardDAO().exportBuilds(out, CHUNK_SIZE);
+            LOGGER.info("Exported " + exported + " dashboard deployments in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        } catch (SQLException e) {
+            // The response has started, a truncated export is told by its missing lines.
+            DashboardMetrics.ERRORS.increment("E19", 1);
+            LOGGER.log(Level.WARNING, "E19: Could not export the dashboard: " + e.getMessage(), e);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Import posted deployment lines, gzipped if sent with
+     * Content-Encoding: gzip.
+     */
+    @RequirePOST
+    public void doImport(StaplerRequest req, StaplerResponse rsp, @QueryParameter("skip") final String skip)
+            throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        if (!isH2Store(rsp)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long skipped = 0;
+        try {
+            skipped = skip == null || skip.equals("") ? 0 : Long.parseLong(skip);
+        } catch (NumberFormatException e) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "skip must be a number of lines.");
+            return;
+        }
+        DashboardDAO dao = new DashboardDAO();
+        try {
+            // Imported ids would replace the deployments of this dashboard with the same ids.
+            if (skipped == 0 && dao.hasBuilds()) {
+                rsp.sendError(StaplerResponse.SC_CONFLICT, "The dashboard already has deployments, import only "
+                        + "into an empty one, or resume an import with skip.");
+                return;
+            }
+        } catch (SQLException e) {
+            DashboardMetrics.ERRORS.increment("E20", 1);
+            LOGGER.log(Level.WARNING, "E20: Could not import the dashboard: " + e.getMessage(), e);
+            rsp.sendError(StaplerResponse.SC_INTERNAL_SERVER_ERROR, "Could not read the dashboard: " + e.getMessage());
+            return;
+        }
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = rsp.getWriter();
+        InputStream body = req.getInputStream();
+        if ("gzip".equalsIgnoreCase(req.getHeader("Content-Encoding"))) {
+            body = new GZIPInputStream(body);
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(body, "UTF-8"));
+        long lines = 0;
+        // Lines read up to the end of the last committed chunk.
+        long committed = skipped;
+        long imported = 0;
+        try {
+            List<String> chunk = new ArrayList<String>(CHUNK_SIZE);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (++lines <= skipped) {
+                    continue;
+                }
+                chunk.add(line);
+                if (chunk.size() == CHUNK_SIZE) {
+                    imported += dao.importBuilds(chunk, committed + 1);
+                    chunk.clear();
+                    committed = lines;
+                    out.println("Imported " + lines + " lines.");
+                    out.flush();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                imported += dao.importBuilds(chunk, committed + 1);
+            }
+            committed = Math.max(lines, skipped);
+            out.println("Imported " + committed + " lines, rebuilding the latest deployments.");
+            out.flush();
+            dao.rebuildLatestTable();
+            DashboardChangeFeed.publishReset();
+        } catch (SQLException e) {
+            fail(out, committed, e);
+            return;
+        } catch (IOException e) {
+            fail(out, committed, e);
+            return;
+        }
+        String report = "Imported " + imported + " dashboard deployments in "
+                + (System.currentTimeMillis() - start) + " ms.";
+        out.println(report);
+        out.flush();
+        LOGGER.info(report);
+    }
+
+    public void doCompaction(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        if (!isH2Store(rsp)) {
+            return;
+        }
+        rsp.setContentType("text/plain;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = rsp.getWriter();
+        try {
+            DatabaseCompaction.Report report = DatabaseCompaction.report();
+            out.println("Database file: " + report.getFileBytes() + " bytes");
+            for (Map.Entry<String, Long> table : report.getRows().entrySet()) {
+                out.println(table.getKey() + ": " + table.getValue() + " rows");
+            }
+            out.println("Estimated fill rate: " + Math.round(report.getFillRate() * 100) + "%");
+        } catch (SQLException e) {
+            DashboardMetrics.ERRORS.increment("E21", 1);
+            LOGGER.log(Level.WARNING, "E21: " + e.getMessage(), e);
+            out.println("Could not read the dashboard database: " + e.getMessage());
+        }
+        out.flush();
+    }
+
+    /**
+     * Compact the embedded database now. It is closed while it is rewritten:
+     * build updates are queued meanwhile, history popups and other reads
+     * that reach the database fail.
+     */
+    @RequirePOST
+    public void doCompact(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        if (!DashboardStore.EMBEDDED.equals(DashboardStore.get().getType())) {
+            rsp.sendError(StaplerResponse.SC_CONFLICT, "Only the embedded dashboard database is compacted, the "
+                    + DashboardStore.get().getType() + " dashboard store is not.");
+            return;
+        }
+        rsp.setContentType("text/plain;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = rsp.getWriter();
+        long start = System.currentTimeMillis();
+        try {
+            DatabaseCompaction.Report[] reports = DatabaseCompaction.compact();
+            out.println("Compacted the dashboard database from " + reports[0] + " to " + reports[1] + " in "
+                    + (System.currentTimeMillis() - start) + " ms, reclaimed "
+                    + (reports[0].getFileBytes() - reports[1].getFileBytes()) + " bytes.");
+        } catch (SQLException e) {
+            DashboardMetrics.ERRORS.increment("E21", 1);
+            LOGGER.log(Level.WARNING, "E21: Could not compact the dashboard: " + e.getMessage(), e);
+            out.println("Compaction failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            out.println("Compaction interrupted.");
+        }
+        out.flush();
+    }
+
+    /**
+     * @return true if the dashboard is kept in H2, else sends an error.
+     */
+    private boolean isH2Store(StaplerResponse rsp) throws IOException {
+        if (DashboardStore.get() instanceof H2DashboardStore) {
+            return true;
+        }
+        rsp.sendError(StaplerResponse.SC_CONFLICT, "The " + DashboardStore.get().getType()
+                + " dashboard store has no H2 database to export, import or report on.");
+        return false;
+    }
+
+    /**
+     * Report a failed import with where to resume it: the chunk holding the
+     * failed line was rolled back, every line before that chunk is in.
+     */
+    private void fail(PrintWriter out, long committed, Exception e) {
+        DashboardMetrics.ERRORS.increment("E20", 1);
+        LOGGER.log(Level.WARNING, "E20: Could not import the dashboard: " + e.getMessage(), e);
+        out.println("Import failed: " + e.getMessage());
+        out.println("Resume by posting the same lines to import?skip=" + committed);
+        out.flush();
+    }
+}
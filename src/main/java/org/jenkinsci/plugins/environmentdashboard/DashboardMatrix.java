@@ -0,0 +1,127 @@
+package org.jenkinsci.plugins.environmentdashboard;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+
+/**
+ * Immutable snapshot of the dashboard grid, holding the latest deployment of
+ * every environment/component cell. Built once per render so the view does
+ * not query the database for each cell; a view's matrix is usually a
+ * projection of the shared {@link DashboardSnapshot} onto its own order.
+ */
+public class DashboardMatrix {
+
+    private final List<String> envs;
+
+    private final List<String> comps;
+
+    private final List<String> customColumns;
+
+    /* Latest deployments by environment, then component */
+    private final Map<String, Map<String, Deployment>> cells;
+
+    private final int size;
+
+    /**
+     * @param envs
+     *            the environments in display order.
+     * @param comps
+     *            the components in display order.
+     * @param customColumns
+     *            the custom column names, lower cased.
+     * @param cells
+     *            the latest deployment of each deployed cell.
+     */
+    public DashboardMatrix(List<String> envs, List<String> comps,
+            List<String> customColumns, Collection<Deployment> cells) {
+        this.envs = Collections.unmodifiableList(new ArrayList<String>(envs));
+        this.comps = Collections.unmodifiableList(new ArrayList<String>(comps));
+        this.customColumns = Collections.unmodifiableList(new ArrayList<String>(customColumns));
+
+        Map<String, Map<String, Deployment>> byEnv = new HashMap<String, Map<String, Deployment>>();
+        for (Deployment deployment : cells) {
+            Map<String, Deployment> byComp = byEnv.get(deployment.getEnv());
+            if (byComp == null) {
+                byComp = new HashMap<String, Deployment>();
+                byEnv.put(deployment.getEnv(), byComp);
+            }
+            byComp.put(deployment.getComp(), deployment);
+        }
+        int deployed = 0;
+        for (Map<String, Deployment> byComp : byEnv.values()) {
+            deployed += byComp.size();
+        }
+        this.cells = byEnv;
+        this.size = deployed;
+    }
+
+    /**
+     * Project the shared snapshot onto a view's order, sharing its cells.
+     *
+     * @param envs
+     *            the environments in display order.
+     * @param comps
+     *            the components in display order.
+     * @param snapshot
+     *            the dashboard snapshot.
+     */
+    public DashboardMatrix(List<String> envs, List<String> comps, DashboardSnapshot snapshot) {
+        this.envs = Collections.unmodifiableList(new ArrayList<String>(envs));
+        this.comps = Collections.unmodifiableList(new ArrayList<String>(comps));
+        this.customColumns = snapshot.getCustomColumns();
+        this.cells = snapshot.getCells();
+        this.size = snapshot.size();
+    }
+
+    /**
+     * Key used to identify a cell, matches the envComp column.
+     */
+    public static String key(String env, String comp) {
+        return env + '=' + comp;
+    }
+
+    /**
+     * @return the environments in display order.
+     */
+    public List<String> getEnvs() {
+        return envs;
+    }
+
+    /**
+     * @return the components in display order.
+     */
+    public List<String> getComps() {
+        return comps;
+    }
+
+    /**
+     * @return the custom column names, lower cased.
+     */
+    public List<String> getCustomColumns() {
+        return customColumns;
+    }
+
+    /**
+     * Latest deployment of a component to an environment.
+     *
+     * @return the deployment, or null if the component has never been
+     *         deployed to the environment.
+     */
+    public Deployment getCell(String env, String comp) {
+        Map<String, Deployment> byComp = cells.get(env);
+        return byComp == null ? null : byComp.get(comp);
+    }
+
+    /**
+     * @return the number of cells that have been deployed.
+     */
+    public int size() {
+        return size;
+    }
+}
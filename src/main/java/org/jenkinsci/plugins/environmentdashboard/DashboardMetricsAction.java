@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.environmentdashboard;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.RootAction;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardReadModel;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardWriteQueue;
+import org.jenkinsci.plugins.environmentdashboard.dao.DatabaseCompaction;
+import org.jenkinsci.plugins.environmentdashboard.dao.H2DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.HistoryArchive;
+import org.jenkinsci.plugins.environmentdashboard.dao.HistoryPartitions;
+import org.jenkinsci.plugins.environmentdashboard.utils.DashboardMetrics;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves the dashboard metrics at /environment-dashboard/metrics in the
+ * Prometheus text format. The write queue, the read model, the shared
+ * snapshot and the render cache are sampled when scraped. Table rows, file
+ * size and fill rate come from the last database report, taken by
+ * reconciliation, retention and compaction, so that a scrape never counts
+ * rows.
+ */
+@Extension
+public class DashboardMetricsAction implements RootAction {
+
+    private static final Logger LOGGER = Logger.getLogger(DashboardMetricsAction.class.getName());
+
+    /** Hidden from the side panel. */
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "Environment Dashboard";
+    }
+
+    public String getUrlName() {
+        return "environment-dashboard";
+    }
+
+    public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.READ);
+        rsp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = rsp.getWriter();
+        DashboardMetrics.write(out);
+
+        // Only the H2 stores have tables and an archive.
+        if (DashboardStore.get() instanceof H2DashboardStore) {
+            // Left out until the first report is taken.
+            DatabaseCompaction.Report report = DatabaseCompaction.getLastReport();
+            if (report != null) {
+                DashboardMetrics.writeSampled(out, "environment_dashboard_table_rows", "Rows in each dashboard table.",
+                        "gauge", "table", report.getRows());
+                DashboardMetrics.writeSampled(out, "environment_dashboard_database_bytes",
+                        "Size of the dashboard database file.", "gauge", null,
+                        Collections.singletonMap("", report.getFileBytes()));
+                DashboardMetrics.writeSampled(out, "environment_dashboard_database_fill_ratio",
+                        "Estimated share of the dashboard database file holding live rows.", "gauge", null,
+                        Collections.singletonMap("", report.getFillRate()));
+            }
+            try {
+                DashboardMetrics.writeSampled(out, "environment_dashboard_history_partitions",
+                        "Monthly partitions of the deployment history.", "gauge", null,
+                        Collections.singletonMap("", HistoryPartitions.newestFirst().length));
+            } catch (SQLException e) {
+                DashboardMetrics.ERRORS.increment("E17", 1);
+                LOGGER.log(Level.WARNING, "E17: " + e.getMessage(), e);
+            }
+
+            DashboardMetrics.writeSampled(out, "environment_dashboard_archive_segments",
+                    "Archived months of the deployment history.", "gauge", null,
+                    Collections.singletonMap("", HistoryArchive.newestFirst().length));
+        }
+
+        Map<String, Long> writes = new LinkedHashMap<String, Long>();
+        writes.put("dropped", DashboardWriteQueue.getDropped());
+        writes.put("failed", DashboardWriteQueue.getFailed());
+        writes.put("written", DashboardWriteQueue.getWritten());
+        DashboardMetrics.writeSampled(out, "environment_dashboard_writes_total",
+                "Queued dashboard updates by outcome.", "counter", "result", writes);
+        DashboardMetrics.writeSampled(out, "environment_dashboard_write_queue_depth",
+                "Dashboard updates waiting to be written.", "gauge", null,
+                Collections.singletonMap("", DashboardWriteQueue.size()));
+
+        DashboardMetrics.writeSampled(out, "environment_dashboard_read_model_deployments",
+                "Deployments held in memory, 0 while reads go to the database.", "gauge", null,
+                Collections.singletonMap("", DashboardReadModel.size()));
+
+        Map<String, Long> renders = new LinkedHashMap<String, Long>();
+        renders.put("hit", DashboardRenderCache.getHits());
+        renders.put("miss", DashboardRenderCache.getMisses());
+        renders.put("not_modified", DashboardRenderCache.getNotModified());
+        DashboardMetrics.writeSampled(out, "environment_dashboard_render_cache_total",
+                "Dashboard renders by render cache outcome.", "counter", "result", renders);
+
+        Map<String, Long> snapshots = new LinkedHashMap<String, Long>();
+        snapshots.put("build", DashboardSnapshot.getBuilds());
+        snapshots.put("hit", DashboardSnapshot.getHits());
+        DashboardMetrics.writeSampled(out, "environment_dashboard_snapshot_total",
+                "Reads of the dashboard snapshot shared by all views, by whether it had to be built.", "counter",
+                "result", snapshots);
+        out.flush();
+    }
+}
@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.environmentdashboard;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardReadModel;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.DatabaseCompaction;
+import org.jenkinsci.plugins.environmentdashboard.dao.H2DashboardStore;
+
+/**
+ * Compares the in-memory dashboard state with the database every few
+ * minutes and reloads it if they differ, or if it could not be loaded. The
+ * rows and size of the database reported by the metrics are taken here too.
+ */
+@Extension
+public class DashboardReconciliation extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(DashboardReconciliation.class.getName());
+
+    /* Minutes between reconciliation passes */
+    private static final long PERIOD = Long.getLong(
+            DashboardReconciliation.class.getName() + ".period", 10L);
+
+    public DashboardReconciliation() {
+        super("Environment dashboard reconciliation");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return PERIOD * MIN;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        try {
+            int stale = DashboardReadModel.reconcile();
+            String report = "Reconciled " + DashboardReadModel.size() + " dashboard deployments in memory in "
+                    + (System.currentTimeMillis() - start) + " ms, " + stale + " cells were out of date.";
+            listener.getLogger().println(report);
+            if (stale > 0) {
+                LOGGER.warning(report);
+            }
+        } catch (SQLException e) {
+            listener.error("Could not reconcile the dashboard state: " + e.getMessage());
+        }
+
+        if (DashboardStore.get() instanceof H2DashboardStore) {
+            try {
+                listener.getLogger().println("Dashboard database: " + DatabaseCompaction.report() + ".");
+            } catch (SQLException e) {
+                listener.error("Could not report on the dashboard database: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.environmentdashboard;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of dashboard render models, one per view
+ * configuration. An entry is only served while the dashboard data version
+ * it was built from is current, so deployments are seen on the next render.
+ * The least recently used entries are evicted beyond the maximum size.
+ */
+public class DashboardRenderCache {
+
+    /* Maximum number of cached render models */
+    private static final int MAX_ENTRIES = Integer.getInteger(
+            DashboardRenderCache.class.getName() + ".maxEntries", 32);
+
+    private static final AtomicLong HITS = new AtomicLong();
+
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private static final AtomicLong NOT_MODIFIED = new AtomicLong();
+
+    /**
+     * A render model and the data version it was built from.
+     */
+    private static final class Entry {
+
+        private final long version;
+
+        private final DashboardMatrix matrix;
+
+        Entry(long version, DashboardMatrix matrix) {
+            this.version = version;
+            this.matrix = matrix;
+        }
+    }
+
+    /* Access ordered, guarded by the class lock. */
+    private static final Map<String, Entry> CACHE = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private DashboardRenderCache() {
+
+    }
+
+    /**
+     * @param key
+     *            the view configuration key.
+     * @param version
+     *            the current dashboard data version.
+     * @return the cached render model, or null if there is none for this
+     *         version.
+     */
+    public static synchronized DashboardMatrix get(String key, long version) {
+        Entry entry = CACHE.get(key);
+        if (entry == null || entry.version != version) {
+            MISSES.incrementAndGet();
+            return null;
+        }
+        HITS.incrementAndGet();
+        return entry.matrix;
+    }
+
+    /**
+     * @param key
+     *            the view configuration key.
+     * @param version
+     *            the data version read before the model was built.
+     * @param matrix
+     *            the render model.
+     */
+    public static synchronized void put(String key, long version, DashboardMatrix matrix) {
+        CACHE.put(key, new Entry(version, matrix));
+    }
+
+    /**
+     * Discard the cached render models of a view, call when its
+     * configuration changes.
+     *
+     * @param keyPrefix
+     *            the prefix shared by the view's configuration keys.
+     */
+    public static synchronized void invalidate(String keyPrefix) {
+        Iterator<String> keys = CACHE.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(keyPrefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Count a request answered with 304 Not Modified.
+     */
+    public static void notModified() {
+        NOT_MODIFIED.incrementAndGet();
+    }
+
+    /**
+     * @return the number of renders served from the cache.
+     */
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    /**
+     * @return the number of renders that had to build their grid.
+     */
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    /**
+     * @return the number of requests answered with 304 Not Modified.
+     */
+    public static long getNotModified() {
+        return NOT_MODIFIED.get();
+    }
+
+    /**
+     * @return the number of cached render models.
+     */
+    public static synchronized int size() {
+        return CACHE.size();
+    }
+}
@@ -0,0 +1,140 @@
+package org.jenkinsci.plugins.environmentdashboard;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardChangeFeed;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.DatabaseCompaction;
+import org.jenkinsci.plugins.environmentdashboard.dao.H2DashboardStore;
+
+/**
+ * Purges dashboard data older than the configured number of days once a day,
+ * at the configured hour, so that builds never pay for retention. Data older
+ * than the archive window is then moved to the history archive, and the
+ * database file compacted if it has become mostly dead space.
+ */
+@Extension
+public class DashboardRetention extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(DashboardRetention.class.getName());
+
+    /* Maximum number of builds deleted per transaction */
+    private static final int CHUNK_SIZE = Integer.getInteger(
+            DashboardRetention.class.getName() + ".chunkSize", 1000);
+
+    /* Day of the year of the last purge, -1 if none yet */
+    private int lastPurgeDay = -1;
+
+    public DashboardRetention() {
+        super("Environment dashboard retention");
+    }
+
+    /**
+     * Check every hour, the purge itself only runs during the configured
+     * hour.
+     */
+    @Override
+    public long getRecurrencePeriod() {
+        return HOUR;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        DashboardBuilder.DescriptorImpl descriptor = Jenkins.getInstance()
+                .getDescriptorByType(DashboardBuilder.DescriptorImpl.class);
+        Integer numberOfDays = descriptor.getNumberOfDays();
+        Integer archiveAfterDays = descriptor.getArchiveAfterDays();
+        Calendar now = Calendar.getInstance();
+
+        if (now.get(Calendar.HOUR_OF_DAY) != descriptor.getPurgeHour()
+                || now.get(Calendar.DAY_OF_YEAR) == lastPurgeDay) {
+            return;
+        }
+        lastPurgeDay = now.get(Calendar.DAY_OF_YEAR);
+
+        // 0 keeps the data forever.
+        if (numberOfDays == null || numberOfDays <= 0) {
+            listener.getLogger().println("Dashboard retention disabled, nothing purged.");
+        } else {
+            purge(listener, numberOfDays);
+        }
+
+        // 0 keeps the data in the database.
+        if (archiveAfterDays != null && archiveAfterDays > 0) {
+            archive(listener, archiveAfterDays);
+        }
+
+        // 0 never compacts. Only the embedded database is ours to close, a server one has other clients.
+        Integer compactBelowFillRate = descriptor.getCompactBelowFillRate();
+        if (compactBelowFillRate != null && compactBelowFillRate > 0
+                && DashboardStore.EMBEDDED.equals(DashboardStore.get().getType())) {
+            compact(listener, compactBelowFillRate);
+        } else if (DashboardStore.get() instanceof H2DashboardStore) {
+            // Compaction reports on the database itself, else refresh the rows the metrics show.
+            try {
+                listener.getLogger().println("Dashboard database: " + DatabaseCompaction.report() + ".");
+            } catch (SQLException e) {
+                listener.error("Could not report on the dashboard database: " + e.getMessage());
+            }
+        }
+    }
+
+    private void purge(TaskListener listener, int numberOfDays) {
+        long start = System.currentTimeMillis();
+        try {
+            int purged = DashboardStore.get().purge(numberOfDays, CHUNK_SIZE);
+            if (purged > 0) {
+                DashboardChangeFeed.publishReset();
+            }
+            String report = "Purged " + purged + " dashboard deployments older than " + numberOfDays
+                    + " days in " + (System.currentTimeMillis() - start) + " ms.";
+            listener.getLogger().println(report);
+            LOGGER.info(report);
+        } catch (SQLException e) {
+            listener.error("Could not purge old dashboard data: " + e.getMessage());
+        }
+    }
+
+    private void archive(TaskListener listener, int archiveAfterDays) {
+        long start = System.currentTimeMillis();
+        try {
+            int archived = DashboardStore.get().archive(archiveAfterDays);
+            if (archived > 0) {
+                DashboardChangeFeed.publishReset();
+            }
+            String report = "Archived " + archived + " dashboard deployments older than " + archiveAfterDays
+                    + " days in " + (System.currentTimeMillis() - start) + " ms.";
+            listener.getLogger().println(report);
+            LOGGER.info(report);
+        } catch (SQLException e) {
+            listener.error("Could not archive old dashboard data: " + e.getMessage());
+        } catch (IOException e) {
+            listener.error("Could not archive old dashboard data: " + e.getMessage());
+        }
+    }
+
+    private void compact(TaskListener listener, int compactBelowFillRate) throws InterruptedException {
+        try {
+            if (!DatabaseCompaction.isDue(compactBelowFillRate / 100.0)) {
+                listener.getLogger().println("Dashboard database more than " + compactBelowFillRate
+                        + "% full or small, not compacted.");
+                return;
+            }
+            DatabaseCompaction.Report[] reports = DatabaseCompaction.compact();
+            listener.getLogger().println("Compacted the dashboard database from " + reports[0] + " to "
+                    + reports[1] + ", reclaimed " + (reports[0].getFileBytes() - reports[1].getFileBytes())
+                    + " bytes.");
+        } catch (SQLException e) {
+            listener.error("Could not compact the dashboard database: " + e.getMessage());
+        }
+    }
+}
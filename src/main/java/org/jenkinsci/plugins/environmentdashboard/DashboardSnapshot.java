@@ -0,0 +1,204 @@
+package org.jenkinsci.plugins.environmentdashboard;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardDAO;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardReadModel;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.jenkinsci.plugins.environmentdashboard.utils.DashboardMetrics;
+
+/**
+ * Process wide snapshot of the whole dashboard grid, shared by every view.
+ * It is built once per dashboard data version, from the read model or, while
+ * that is not loaded, from the store, however many views render it. Views
+ * project it onto their own environment and component order with
+ * {@link DashboardMatrix}, which shares its cells instead of copying them.
+ * The environment and component lists stay the same instances while no
+ * cell is added or removed, so view filters are not applied again for a
+ * status change.
+ */
+public class DashboardSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(DashboardSnapshot.class.getName());
+
+    private static final AtomicLong HITS = new AtomicLong();
+
+    private static final AtomicLong BUILDS = new AtomicLong();
+
+    /* Snapshot of the latest data version read, null until the first render */
+    private static volatile DashboardSnapshot current = null;
+
+    private final long version;
+
+    private final List<String> envs;
+
+    private final List<String> comps;
+
+    private final List<String> customColumns;
+
+    /* Latest deployments by environment, then component */
+    private final Map<String, Map<String, Deployment>> cells;
+
+    private final int size;
+
+    /**
+     * @param version
+     *            the data version read before the cells.
+     * @param customColumns
+     *            the custom column names, lower cased.
+     * @param cells
+     *            the latest deployment of each deployed cell.
+     * @param previous
+     *            the snapshot replaced, whose name lists are kept if
+     *            unchanged so views filter them once. May be null.
+     */
+    DashboardSnapshot(long version, List<String> customColumns, Collection<Deployment> cells,
+            DashboardSnapshot previous) {
+        this.version = version;
+        this.customColumns = Collections.unmodifiableList(new ArrayList<String>(customColumns));
+
+        TreeSet<String> envNames = new TreeSet<String>();
+        TreeSet<String> compNames = new TreeSet<String>();
+        Map<String, Map<String, Deployment>> byEnv = new HashMap<String, Map<String, Deployment>>();
+        int deployed = 0;
+        for (Deployment deployment : cells) {
+            envNames.add(deployment.getEnv());
+            compNames.add(deployment.getComp());
+            Map<String, Deployment> byComp = byEnv.get(deployment.getEnv());
+            if (byComp == null) {
+                byComp = new HashMap<String, Deployment>();
+                byEnv.put(deployment.getEnv(), byComp);
+            }
+            if (byComp.put(deployment.getComp(), deployment) == null) {
+                deployed++;
+            }
+        }
+        List<String> envList = new ArrayList<String>(envNames);
+        List<String> compList = new ArrayList<String>(compNames);
+        this.envs = previous != null && previous.envs.equals(envList) ? previous.envs
+                : Collections.unmodifiableList(envList);
+        this.comps = previous != null && previous.comps.equals(compList) ? previous.comps
+                : Collections.unmodifiableList(compList);
+        this.cells = byEnv;
+        this.size = deployed;
+    }
+
+    /**
+     * @return the snapshot of the current data version, built by the first
+     *         caller to see the version.
+     */
+    public static DashboardSnapshot get() {
+        DashboardSnapshot snapshot = current;
+        if (snapshot != null && snapshot.version == DashboardDAO.getDataVersion()) {
+            HITS.incrementAndGet();
+            return snapshot;
+        }
+        synchronized (DashboardSnapshot.class) {
+            // Another view may have built it while this one waited.
+            snapshot = current;
+            long version = DashboardDAO.getDataVersion();
+            if (snapshot != null && snapshot.version == version) {
+                HITS.incrementAndGet();
+                return snapshot;
+            }
+            long start = System.nanoTime();
+            snapshot = load(version);
+            BUILDS.incrementAndGet();
+            DashboardMetrics.OPERATIONS.observeSince("snapshot", start);
+            return snapshot;
+        }
+    }
+
+    /**
+     * Read the grid, keeping it as the current snapshot unless the read
+     * failed, so that the next render tries again.
+     */
+    private static DashboardSnapshot load(long version) {
+        DashboardStore store = DashboardStore.get();
+        List<String> customColumns;
+        List<Deployment> latest = DashboardReadModel.getLatest();
+        try {
+            customColumns = store.getCustomColumns();
+            if (latest == null) {
+                latest = store.getLatest();
+            }
+        } catch (SQLException e) {
+            DashboardMetrics.ERRORS.increment("E15", 1);
+            LOGGER.log(Level.WARNING, "E15: " + e.getMessage(), e);
+            return new DashboardSnapshot(version, Collections.<String>emptyList(),
+                    latest == null ? Collections.<Deployment>emptyList() : latest, null);
+        }
+        DashboardSnapshot snapshot = new DashboardSnapshot(version, customColumns, latest, current);
+        current = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * @return the data version the snapshot was built from.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the deployed environments in name order.
+     */
+    public List<String> getEnvs() {
+        return envs;
+    }
+
+    /**
+     * @return the deployed components in name order.
+     */
+    public List<String> getComps() {
+        return comps;
+    }
+
+    /**
+     * @return the custom column names, lower cased.
+     */
+    public List<String> getCustomColumns() {
+        return customColumns;
+    }
+
+    /**
+     * @return the latest deployments by environment, then component. Shared,
+     *         must not be changed.
+     */
+    Map<String, Map<String, Deployment>> getCells() {
+        return cells;
+    }
+
+    /**
+     * @return the number of cells that have been deployed.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of renders that reused the current snapshot.
+     */
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    /**
+     * @return the number of snapshots built, one per data version unless
+     *         a read failed.
+     */
+    public static long getBuilds() {
+        return BUILDS.get();
+    }
+}
@@ -11,25 +11,42 @@ import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.ResultSet;
+import java.io.PrintWriter;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.PatternSyntaxException;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 
+import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
-
-import org.apache.commons.lang.StringUtils;
-import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+import net.sf.json.util.JSONUtils;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardChangeFeed;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardDAO;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardQuery;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardReadModel;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.H2DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.HistoryCursor;
+import org.jenkinsci.plugins.environmentdashboard.dao.SchemaMetadataCache;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.jenkinsci.plugins.environmentdashboard.utils.DashboardMetrics;
+import org.jenkinsci.plugins.environmentdashboard.utils.NameFilter;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
 
 /**
  * Class to provide build wrapper for Dashboard.
@@ -38,12 +55,40 @@ import org.kohsuke.stapler.QueryParameter;
  */
 public class EnvDashboardView extends View {
 
+    private static final Logger LOGGER = Logger.getLogger(EnvDashboardView.class.getName());
+
+    /* Milliseconds a change request waits for changes before the client asks again */
+    private static final long STREAM_TIMEOUT = Long.getLong(
+            EnvDashboardView.class.getName() + ".streamTimeout", 20000L);
+
+    /* Milliseconds a client waits before asking again when its changes were answered at once */
+    private static final long STREAM_POLL_INTERVAL = 10000L;
+
+    /* Largest page of deployments a history popup reads at once */
+    private static final int MAX_HISTORY_PAGE = Integer.getInteger(
+            EnvDashboardView.class.getName() + ".maxHistoryPage", 1000);
+
+    /* Milliseconds between keep alive comments on an idle change stream */
+    private static final long STREAM_HEARTBEAT = 15000L;
+
+    /* Change requests being served */
+    private static final AtomicInteger STREAMS = new AtomicInteger();
+
     private String envOrder = null;
 
     private String compOrder = null;
 
     private String deployHistory = null;
 
+    private String envFilter = null;
+
+    private String compFilter = null;
+
+    /* Filters compiled when set, or on first use after loading */
+    private transient volatile NameFilter envNameFilter = null;
+
+    private transient volatile NameFilter compNameFilter = null;
+
     @DataBoundConstructor
     public EnvDashboardView(final String name, final String envOrder, final String compOrder, final String deployHistory) {
         super(name, Hudson.getInstance());
@@ -52,34 +97,10 @@ public class EnvDashboardView extends View {
         this.deployHistory = deployHistory;
     }
 
-    static {
-        ensureCorrectDBSchema();
-    }
-
-   private static void ensureCorrectDBSchema(){
-       String returnComment = "";
-       Connection conn = null;
-       Statement stat = null;
-       conn = DBConnection.getConnection();
-       try {
-           assert conn != null;
-           stat = conn.createStatement();
-       } catch (SQLException e) {
-           System.out.println("E13" + e.getMessage());
-       }
-       try {
-           stat.execute("ALTER TABLE env_dashboard ADD IF NOT EXISTS packageName VARCHAR(255);");
-       } catch (SQLException e) {
-           System.out.println("E14: Could not alter table to add package column to table env_dashboard.\n" + e.getMessage());
-       } finally { 
-           DBConnection.closeConnection();
-       }
-       return;
-   }
-
     @Override
     protected void submit(final StaplerRequest req) throws IOException, ServletException, FormException {
         req.bindJSON(this, req.getSubmittedForm());
+        DashboardRenderCache.invalidate(getViewName() + '\n');
     }
 
     @Override
@@ -103,57 +124,23 @@ public class EnvDashboardView extends View {
         }
 
         public static ArrayList<String> getCustomColumns(){
-            Connection conn = null;
-            Statement stat = null;
-            ArrayList<String> columns;
-            columns = new ArrayList<String>();
-            String queryString="SELECT DISTINCT COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS where TABLE_NAME='ENV_DASHBOARD';";
-            String[] fields = {"envComp", "compName", "envName", "buildstatus", "buildJobUrl", "jobUrl", "buildNum", "created_at", "packageName"};
-            boolean columnFound = false;
             try {
-                ResultSet rs = null;
-                conn = DBConnection.getConnection();
-
-                try {
-                    assert conn != null;
-                    stat = conn.createStatement();
-                } catch (SQLException e) {
-                    System.out.println("E3" + e.getMessage());
-                }
-                try {
-                    assert stat != null;
-                    rs = stat.executeQuery(queryString);
-                } catch (SQLException e) {
-                    System.out.println("E4" + e.getMessage());
-                }
-                String col = "";
-                while (rs.next()) {
-                    columnFound=false;
-                    col = rs.getString("COLUMN_NAME");
-                    for (String presetColumn : fields){
-                        if (col.toLowerCase().equals(presetColumn.toLowerCase())){
-                            columnFound = true;
-                            break;
-                        }
-                    }
-                    if (!columnFound){
-                        columns.add(col.toLowerCase());
-                    }
-                }
-                DBConnection.closeConnection();
+                return new ArrayList<String>(DashboardStore.get().getCustomColumns());
             } catch (SQLException e) {
-                System.out.println("E11" + e.getMessage());
+                logError("E11", e);
                 return null;
             }
-            return columns;
         }
 
 
         public ListBoxModel doFillColumnItems() {
             ListBoxModel m = new ListBoxModel();
             ArrayList<String> columns = getCustomColumns();
-            int position = 0;
             m.add("Select column to remove", "");
+            // Null if the columns could not be read, logged as E11.
+            if (columns == null) {
+                return m;
+            }
             for (String col : columns){
                 m.add(col, col);
             }
@@ -162,31 +149,81 @@ public class EnvDashboardView extends View {
 
         @SuppressWarnings("unused")
         public FormValidation doDropColumn(@QueryParameter("column") final String column){
-            Connection conn = null;
-            Statement stat = null;
             if ("".equals(column)){
                 return FormValidation.ok(); 
             }
-            String queryString = "ALTER TABLE ENV_DASHBOARD DROP COLUMN " + column + ";";
-            //Get DB connection
-            conn = DBConnection.getConnection();
 
             try {
-                assert conn != null;
-                stat = conn.createStatement();
+                if (!DashboardStore.get().dropColumn(column)) {
+                    return FormValidation.error("Failed to remove column: " + column + "\nThis column may have already been removed. Refresh to update the list of columns to remove."); 
+                }
             } catch (SQLException e) {
-                return FormValidation.error("Failed to create statement."); 
+                return FormValidation.error("Failed to remove column: " + column + "\n" + e.getMessage()); 
+            }
+
+            return FormValidation.ok("Successfully removed column " + column + ".");
+        }
+
+        public FormValidation doSchemaCacheStatistics() {
+            Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+            return FormValidation.ok("Schema metadata cache hits: " + SchemaMetadataCache.getHits()
+                    + ", misses: " + SchemaMetadataCache.getMisses() + ".");
+        }
+
+        public FormValidation doRenderCacheStatistics() {
+            Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+            long hits = DashboardRenderCache.getHits() + DashboardRenderCache.getNotModified();
+            long total = hits + DashboardRenderCache.getMisses();
+            return FormValidation.ok("Dashboard render cache hits: " + DashboardRenderCache.getHits()
+                    + ", not modified: " + DashboardRenderCache.getNotModified()
+                    + ", misses: " + DashboardRenderCache.getMisses()
+                    + ", hit ratio: " + (total == 0 ? 0 : hits * 100 / total) + "%"
+                    + ", cached views: " + DashboardRenderCache.size()
+                    + ", shared snapshots built: " + DashboardSnapshot.getBuilds() + ".");
+        }
+
+        public FormValidation doQueryStatistics() {
+            Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+            StringBuilder statistics = new StringBuilder();
+            for (DashboardQuery query : DashboardQuery.values()) {
+                long count = query.getCount();
+                statistics.append(statistics.length() == 0 ? "" : ", ").append(query.name())
+                        .append(": ").append(count).append(" runs, avg ")
+                        .append(count == 0 ? 0 : query.getTotalNanos() / count / 1000).append(" us, max ")
+                        .append(query.getMaxNanos() / 1000).append(" us");
+            }
+            return FormValidation.ok("Dashboard queries " + statistics + ".");
+        }
+
+        public FormValidation doVerifyLatestDeployments() {
+            Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+            if (!(DashboardStore.get() instanceof H2DashboardStore)) {
+                return FormValidation.ok("The " + DashboardStore.get().getType() + " dashboard store has no latest deployments table.");
             }
             try {
-                assert stat != null;
-                stat.execute(queryString);
+                int inconsistent = new DashboardDAO().checkLatestTable();
+                if (inconsistent > 0) {
+                    return FormValidation.warning(inconsistent + " environment/component pairs are out of date. Rebuild the latest deployments to fix them.");
+                }
             } catch (SQLException e) {
-                DBConnection.closeConnection();
-                return FormValidation.error("Failed to remove column: " + column + "\nThis column may have already been removed. Refresh to update the list of columns to remove."); 
-            } 
-            DBConnection.closeConnection();
+                return FormValidation.error("Failed to check latest deployments: " + e.getMessage());
+            }
+            return FormValidation.ok("Latest deployments are consistent with the deployment history.");
+        }
 
-            return FormValidation.ok("Successfully removed column " + column + ".");
+        @RequirePOST
+        public FormValidation doRebuildLatestDeployments() {
+            Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+            if (!(DashboardStore.get() instanceof H2DashboardStore)) {
+                return FormValidation.ok("The " + DashboardStore.get().getType() + " dashboard store has no latest deployments table.");
+            }
+            try {
+                new DashboardDAO().rebuildLatestTable();
+                DashboardChangeFeed.publishReset();
+            } catch (SQLException e) {
+                return FormValidation.error("Failed to rebuild latest deployments: " + e.getMessage());
+            }
+            return FormValidation.ok("Successfully rebuilt latest deployments.");
         }
 
         /**
@@ -199,6 +236,23 @@ public class EnvDashboardView extends View {
             return "Environment Dashboard";
         }
 
+        public FormValidation doCheckEnvFilter(@QueryParameter String value) {
+            return checkFilter(value);
+        }
+
+        public FormValidation doCheckCompFilter(@QueryParameter String value) {
+            return checkFilter(value);
+        }
+
+        private static FormValidation checkFilter(String value) {
+            try {
+                NameFilter.compile(value);
+            } catch (PatternSyntaxException e) {
+                return FormValidation.error("Invalid regular expression: " + e.getDescription());
+            }
+            return FormValidation.ok();
+        }
+
         @Override
         public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
             envOrder = formData.getString("envOrder");
@@ -226,73 +280,22 @@ public class EnvDashboardView extends View {
         return orderOfComps;
     }
 
-    public ResultSet runQuery(String queryString) {
-        Connection conn = null;
-        Statement stat = null;
-
-        ResultSet rs = null;
-        
-        //Get DB connection
-        conn = DBConnection.getConnection();
-        
-        try {
-            assert conn != null;
-            stat = conn.createStatement();
-        } catch (SQLException e) {
-            System.out.println("E3" + e.getMessage());
-        }
-        try {
-            assert stat != null;
-            rs = stat.executeQuery(queryString);
-        } catch (SQLException e) {
-            System.out.println("E4" + e.getMessage());
-        }
-        return rs;
-    }
-
     public ArrayList<String> getOrderOfEnvs() {
         ArrayList<String> orderOfEnvs;
         orderOfEnvs = splitEnvOrder(envOrder);
-        if (orderOfEnvs == null || orderOfEnvs.isEmpty()){
-            String queryString="select distinct envname from env_dashboard order by envname;";
-            try {
-                ResultSet rs = runQuery(queryString);
-                if (rs == null ) {
-                    return null;
-                }
-                while (rs.next()) {
-                    if (orderOfEnvs != null) {
-                        orderOfEnvs.add(rs.getString("envName"));
-                    }
-                }
-                DBConnection.closeConnection();
-            } catch (SQLException e) {
-                System.out.println("E6" + e.getMessage());
-                return null;
-            }
+        if (orderOfEnvs == null || orderOfEnvs.isEmpty()) {
+            return new ArrayList<String>(getEnvNameFilter().filter(DashboardSnapshot.get().getEnvs()));
         }
-        return orderOfEnvs;
+        return new ArrayList<String>(getEnvNameFilter().filter(orderOfEnvs));
     }
 
     public ArrayList<String> getOrderOfComps() {
         ArrayList<String> orderOfComps;
         orderOfComps = splitCompOrder(compOrder);
-        if (orderOfComps == null || orderOfComps.isEmpty()){
-            String queryString="select distinct compname from env_dashboard order by compname;";
-            try {
-                ResultSet rs = runQuery(queryString);
-                while (rs.next()) {
-                    if (orderOfComps != null) {
-                        orderOfComps.add(rs.getString("compName"));
-                    }
-                }
-                DBConnection.closeConnection();
-            } catch (SQLException e) {
-                System.out.println("E8" + e.getMessage());
-                return null;
-            }
+        if (orderOfComps == null || orderOfComps.isEmpty()) {
+            return new ArrayList<String>(getCompNameFilter().filter(DashboardSnapshot.get().getComps()));
         }
-        return orderOfComps;
+        return new ArrayList<String>(getCompNameFilter().filter(orderOfComps));
     }
 
     public Integer getLimitDeployHistory() {
@@ -309,30 +312,24 @@ public class EnvDashboardView extends View {
         return lastDeploy;
     }
 
-    public ArrayList<String> getDeployments(String env, Integer lastDeploy) {
+    public ArrayList<Deployment> getDeploymentsByEnv(String env, Integer lastDeploy) {
         if ( lastDeploy <= 0 ) {
             lastDeploy = 10;
         }
-        ArrayList<String> deployments;
-        deployments = new ArrayList<String>();
-        String queryString="select top " + lastDeploy + " created_at from env_dashboard where envName ='" + env + "' order by created_at desc;";
-            try {
-                ResultSet rs = runQuery(queryString);
-                while (rs.next()) {
-                    deployments.add(rs.getString("created_at"));
-                }
-                DBConnection.closeConnection();
-            } catch (SQLException e) {
-                System.out.println("E11" + e.getMessage());
-                return null;
-            }
-        return deployments;
+        List<Deployment> deployments = DashboardReadModel.getHistory(env, null, lastDeploy);
+        if (deployments != null) {
+            return new ArrayList<Deployment>(deployments);
+        }
+        try {
+            return new ArrayList<Deployment>(DashboardStore.get().getRecent(env, null, lastDeploy, null));
+        } catch (SQLException e) {
+            logError("E11", e);
+            return null;
+        }
     }
 
     public String anyJobsConfigured() {
-        ArrayList<String> orderOfEnvs;
-        orderOfEnvs = getOrderOfEnvs();
-        if (orderOfEnvs == null || orderOfEnvs.isEmpty()){
+        if (getDashboardMatrix().getEnvs().isEmpty()){
             return "NONE";
         } else {
             return "ENVS";
@@ -343,114 +340,528 @@ public class EnvDashboardView extends View {
         return timeStamp.substring(0,19);
     }
 
-    public HashMap getCompDeployed(String env, String time) {
-        HashMap<String, String> deployment;
-        deployment = new HashMap<String, String>();
-        String[] fields = {"buildstatus", "compName", "buildJobUrl", "jobUrl", "buildNum", "packageName"};
-        String queryString = "select " + StringUtils.join(fields, ", ").replace(".$","") + " from env_dashboard where envName = '" + env + "' and created_at = '" + time + "';";
-        try {
-            ResultSet rs = runQuery(queryString);
-            rs.next();
-            for (String field : fields) {
-                deployment.put(field, rs.getString(field));
-            }
-            DBConnection.closeConnection();
-        } catch (SQLException e) {
-            System.out.println("E10" + e.getMessage());
-            System.out.println("Error executing: " + queryString);
-        }
-        return deployment;
-    }
-
     public ArrayList<String> getCustomDBColumns(){
         return DescriptorImpl.getCustomColumns();
     }
 
-    public ArrayList<HashMap<String, String>> getDeploymentsByComp(String comp, Integer lastDeploy) {
+    public ArrayList<Deployment> getDeploymentsByComp(String comp, Integer lastDeploy) {
         if ( lastDeploy <= 0 ) {
             lastDeploy = 10;
         }
-        ArrayList<HashMap<String, String>> deployments;
-        deployments = new ArrayList<HashMap<String, String>>();
-        HashMap<String, String> hash;
-        String[] fields = {"envName", "buildstatus", "buildJobUrl", "jobUrl", "buildNum", "created_at", "packageName"};
-        ArrayList<String> allDBFields = getCustomDBColumns();
-        for (String field : fields ){
-            allDBFields.add(field);
+        List<Deployment> deployments = DashboardReadModel.getHistory(null, comp, lastDeploy);
+        if (deployments != null) {
+            return new ArrayList<Deployment>(deployments);
+        }
+        try {
+            return new ArrayList<Deployment>(DashboardStore.get().getRecent(null, comp, lastDeploy, null));
+        } catch (SQLException e) {
+            logError("E11", e);
+            return null;
         }
-        String queryString="select top " + lastDeploy + " * from env_dashboard where compName='" + comp + "' order by created_at desc;";
-            try {
-                ResultSet rs = runQuery(queryString);
-                while (rs.next()) {
-                    hash = new HashMap<String, String>();
-                    for (String field : allDBFields) {
-                        hash.put(field, rs.getString(field));
-                    }
-                    deployments.add(hash);
-                }
-                DBConnection.closeConnection();
-            } catch (SQLException e) {
-                System.out.println("E11" + e.getMessage());
-                return null;
-            }
-        return deployments;
     }
 
-    public ArrayList<HashMap<String, String>> getDeploymentsByCompEnv(String comp, String env, Integer lastDeploy) {
+    public ArrayList<Deployment> getDeploymentsByCompEnv(String comp, String env, Integer lastDeploy) {
         if ( lastDeploy <= 0 ) {
             lastDeploy = 10;
         }
-        ArrayList<HashMap<String, String>> deployments;
-        deployments = new ArrayList<HashMap<String, String>>();
-        HashMap<String, String> hash;
-        String[] fields = {"envName", "buildstatus", "buildJobUrl", "jobUrl", "buildNum", "created_at", "packageName"};
-        ArrayList<String> allDBFields = getCustomDBColumns();
-        for (String field : fields ){
-            allDBFields.add(field);
+        // The read model holds the custom column values.
+        List<Deployment> cached = DashboardReadModel.getHistory(env, comp, lastDeploy);
+        if (cached != null) {
+            return new ArrayList<Deployment>(cached);
         }
-        String queryString="select top " + lastDeploy + " " +  StringUtils.join(allDBFields, ", ").replace(".$","") + " from env_dashboard where compName='" + comp + "' and envName='" + env + "' order by created_at desc;";
-            try {
-                ResultSet rs = runQuery(queryString);
-                while (rs.next()) {
-                    hash = new HashMap<String, String>();
-                    for (String field : allDBFields) {
-                        hash.put(field, rs.getString(field));
+        try {
+            return new ArrayList<Deployment>(DashboardStore.get().getRecent(env, comp, lastDeploy,
+                    getCustomDBColumns()));
+        } catch (SQLException e) {
+            logError("E11", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the latest deployment of a component to an environment, or
+     *         null if it has never been deployed there.
+     */
+    public Deployment getCompLastDeployed(String env, String comp) {
+        ArrayList<Deployment> deployments = getDeploymentsByCompEnv(comp, env, 1);
+        return deployments == null || deployments.isEmpty() ? null : deployments.get(0);
+    }
+
+    /**
+     * @return the grid model for this render, from the render cache unless
+     *         the dashboard data or this view's configuration has changed.
+     */
+    public DashboardMatrix getDashboardMatrix() {
+        long version = DashboardDAO.getDataVersion();
+        String key = getRenderKey();
+        DashboardMatrix matrix = DashboardRenderCache.get(key, version);
+        if (matrix == null) {
+            long start = System.nanoTime();
+            long queries = DashboardQuery.getThreadQueryCount();
+            matrix = loadDashboardMatrix();
+            DashboardRenderCache.put(key, version, matrix);
+            DashboardMetrics.OPERATIONS.observeSince("render", start);
+            DashboardMetrics.RENDER_QUERIES.observe(null, DashboardQuery.getThreadQueryCount() - queries);
+        }
+        return matrix;
+    }
+
+    /**
+     * Log a failed dashboard read and count it by error code.
+     */
+    private static void logError(String code, Exception e) {
+        DashboardMetrics.ERRORS.increment(code, 1);
+        LOGGER.log(Level.WARNING, code + ": " + e.getMessage(), e);
+    }
+
+    /**
+     * Send the ETag of the current render and check it against the one the
+     * browser has, without querying the database.
+     *
+     * @return true if the browser's copy is current, the response is then
+     *         304 Not Modified and the page must not be rendered.
+     */
+    public boolean isNotModified(StaplerRequest req, StaplerResponse rsp) {
+        String user = req.getRemoteUser() == null ? "" : req.getRemoteUser();
+        String etag = "\"" + DashboardDAO.getDataVersion() + "-"
+                + Integer.toHexString((getRenderKey() + '\n' + user).hashCode()) + "\"";
+        rsp.setHeader("ETag", etag);
+        rsp.setHeader("Cache-Control", "private, no-cache");
+        if (etag.equals(req.getHeader("If-None-Match"))) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            DashboardRenderCache.notModified();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the render cache key of this view's configuration.
+     */
+    private String getRenderKey() {
+        return getViewName() + '\n' + envOrder + '\n' + compOrder + '\n' + deployHistory + '\n' + envFilter + '\n'
+                + compFilter;
+    }
+
+    /**
+     * Project the shared dashboard snapshot onto this view's environment and
+     * component order and filters. Only the first view to render a data
+     * version reads the grid, the others reuse it; the cells of a view are
+     * looked up only for the names it keeps.
+     */
+    private DashboardMatrix loadDashboardMatrix() {
+        DashboardSnapshot snapshot = DashboardSnapshot.get();
+        List<String> orderOfEnvs = splitEnvOrder(envOrder);
+        List<String> orderOfComps = splitCompOrder(compOrder);
+        return new DashboardMatrix(
+                getEnvNameFilter().filter(orderOfEnvs.isEmpty() ? snapshot.getEnvs() : orderOfEnvs),
+                getCompNameFilter().filter(orderOfComps.isEmpty() ? snapshot.getComps() : orderOfComps), snapshot);
+    }
+
+    private NameFilter getEnvNameFilter() {
+        NameFilter filter = envNameFilter;
+        if (filter == null) {
+            filter = compileFilter(envFilter);
+            envNameFilter = filter;
+        }
+        return filter;
+    }
+
+    private NameFilter getCompNameFilter() {
+        NameFilter filter = compNameFilter;
+        if (filter == null) {
+            filter = compileFilter(compFilter);
+            compNameFilter = filter;
+        }
+        return filter;
+    }
+
+    /**
+     * @return true if the environment is a row of this view: kept by its
+     *         filter and, when the view orders environments, one of them.
+     */
+    public boolean isEnvShown(String env) {
+        List<String> orderOfEnvs = splitEnvOrder(envOrder);
+        return env != null && (orderOfEnvs.isEmpty() || orderOfEnvs.contains(env))
+                && getEnvNameFilter().matches(env);
+    }
+
+    /**
+     * @return true if the component is a column of this view: kept by its
+     *         filter and, when the view orders components, one of them.
+     */
+    public boolean isCompShown(String comp) {
+        List<String> orderOfComps = splitCompOrder(compOrder);
+        return comp != null && (orderOfComps.isEmpty() || orderOfComps.contains(comp))
+                && getCompNameFilter().matches(comp);
+    }
+
+    /**
+     * @return the compiled filter, or one keeping every name if it is not
+     *         valid.
+     */
+    private static NameFilter compileFilter(String filter) {
+        try {
+            return NameFilter.compile(filter);
+        } catch (PatternSyntaxException e) {
+            LOGGER.warning("Invalid dashboard view filter " + filter + ", showing every name: " + e.getMessage());
+            return NameFilter.ALL;
+        }
+    }
+
+    /**
+     * A page of deployments to an environment, fetched by the environment
+     * history popup when it is opened and by its load more link. Like the
+     * other history popups, it is not found for a name this view hides.
+     */
+    public void doEnvHistory(StaplerRequest req, StaplerResponse rsp, @QueryParameter("env") final String env,
+            @QueryParameter("before") final String before) throws IOException {
+        checkPermission(View.READ);
+        if (!isEnvShown(env)) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long start = System.nanoTime();
+        HistoryPage page = new HistoryPage(rsp, env);
+        readHistory(page, env, null, before);
+
+        JSONArray columns = new JSONArray();
+        columns.add(historyColumn("Component", "compName", "text", null));
+        columns.add(historyColumn("Build", "buildNum", "build", "buildJobUrl"));
+        if (page.hasPackage) {
+            columns.add(historyColumn("Package", "packageName", "text", null));
+        }
+        columns.add(historyColumn("Last Update", "time", "link", "jobUrl"));
+        page.end(columns);
+        DashboardMetrics.OPERATIONS.observeSince("envHistory", start);
+    }
+
+    /**
+     * A page of deployments of a component to an environment, fetched by
+     * the grid cell popup when it is opened and by its load more link.
+     */
+    public void doCellHistory(StaplerRequest req, StaplerResponse rsp, @QueryParameter("comp") final String comp,
+            @QueryParameter("env") final String env, @QueryParameter("before") final String before) throws IOException {
+        checkPermission(View.READ);
+        if (!isEnvShown(env) || !isCompShown(comp)) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long start = System.nanoTime();
+        HistoryPage page = new HistoryPage(rsp, comp + "   |   " + env);
+        readHistory(page, env, comp, before);
+
+        // Columns follow the newest deployment, as older ones may predate a column.
+        Deployment compLastDeployed = page.first;
+        JSONArray columns = new JSONArray();
+        columns.add(historyColumn("Build", "buildNum", "link", "jobUrl"));
+        if (compLastDeployed != null && compLastDeployed.hasPackage()) {
+            columns.add(historyColumn("Package", "packageName", "text", null));
+        }
+        ArrayList<String> customColumns = getCustomDBColumns();
+        for (String column : customColumns == null ? new ArrayList<String>() : customColumns) {
+            if (compLastDeployed != null && compLastDeployed.getCustomValue(column.toLowerCase()) != null) {
+                columns.add(historyColumn(column.substring(0, 1).toUpperCase() + column.substring(1),
+                        column.toLowerCase(), "text", null));
+            }
+        }
+        columns.add(historyColumn("Status", "buildstatus", "status", null));
+        columns.add(historyColumn("Time", "time", "link", "jobUrl"));
+        page.end(columns);
+        DashboardMetrics.OPERATIONS.observeSince("cellHistory", start);
+    }
+
+    /**
+     * A page of deployments of a component to any environment, fetched by
+     * the component history popup when it is opened and by its load more
+     * link.
+     */
+    public void doComponentHistory(StaplerRequest req, StaplerResponse rsp, @QueryParameter("comp") final String comp,
+            @QueryParameter("before") final String before) throws IOException {
+        checkPermission(View.READ);
+        if (!isCompShown(comp)) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long start = System.nanoTime();
+        HistoryPage page = new HistoryPage(rsp, comp + " History");
+        readHistory(page, null, comp, before);
+
+        JSONArray columns = new JSONArray();
+        columns.add(historyColumn("Env", "envName", "text", null));
+        columns.add(historyColumn("Build", "buildNum", "link", "jobUrl"));
+        columns.add(historyColumn("Status", "buildstatus", "status", null));
+        if (page.hasPackage) {
+            columns.add(historyColumn("Package", "packageName", "text", null));
+        }
+        columns.add(historyColumn("Time", "time", "link", "jobUrl"));
+        page.end(columns);
+        DashboardMetrics.OPERATIONS.observeSince("componentHistory", start);
+    }
+
+    /**
+     * @return the number of deployments per history page.
+     */
+    private int getHistoryPageSize() {
+        int size = getLimitDeployHistory();
+        return size <= 0 ? 10 : Math.min(size, MAX_HISTORY_PAGE);
+    }
+
+    /**
+     * Read a page of history into the response. The first page comes from
+     * the read model if it holds enough deployments, other pages are
+     * streamed from the dashboard store, archive included, as they are
+     * read. The read model only holds recent deployments, so a first page
+     * it cannot fill reads on from the store.
+     */
+    private void readHistory(HistoryPage page, String env, String comp, String before) {
+        HistoryCursor cursor = HistoryCursor.parse(before);
+        if (cursor == null) {
+            // One more than a page tells whether there is a next page.
+            List<Deployment> recent = DashboardReadModel.getHistory(env, comp, page.size + 1);
+            if (recent != null) {
+                for (Deployment deployment : recent) {
+                    if (!page.visit(deployment)) {
+                        break;
                     }
-                    deployments.add(hash);
                 }
-                DBConnection.closeConnection();
-            } catch (SQLException e) {
-                System.out.println("E11" + e.getMessage());
-                return null;
+                if (page.more || page.stopped || (page.last != null && page.last.getCreatedAt() == null)) {
+                    return;
+                }
+                cursor = page.last == null ? HistoryCursor.FIRST : HistoryCursor.after(page.last);
+            } else {
+                cursor = HistoryCursor.FIRST;
+            }
+        }
+        try {
+            DashboardStore.get().readHistory(env, comp, cursor, page.size + 1 - page.count, getCustomDBColumns(),
+                    page);
+        } catch (SQLException e) {
+            logError("E11", e);
+        } catch (IOException e) {
+            logError("E18", e);
+        }
+    }
+
+    /**
+     * Writes a page of history to the response as its deployments are read:
+     * the title, the deployments, then the columns shown and the cursor of
+     * the next page, or null if this is the last one.
+     */
+    private final class HistoryPage extends DashboardQuery.DeploymentVisitor {
+
+        private final PrintWriter out;
+
+        private final int size = getHistoryPageSize();
+
+        private int count = 0;
+
+        private Deployment first = null;
+
+        private Deployment last = null;
+
+        private boolean hasPackage = false;
+
+        private boolean more = false;
+
+        private boolean stopped = false;
+
+        HistoryPage(StaplerResponse rsp, String title) throws IOException {
+            rsp.setContentType("application/json;charset=UTF-8");
+            rsp.setHeader("Cache-Control", "no-cache");
+            out = rsp.getWriter();
+            out.print("{\"title\":" + JSONUtils.quote(title) + ",\"deployments\":[");
+        }
+
+        @Override
+        public boolean visit(Deployment deployment) {
+            if (count == size) {
+                more = true;
+                return false;
+            }
+            out.print(count == 0 ? "" : ",");
+            out.print(historyRow(deployment).toString());
+            if (first == null) {
+                first = deployment;
             }
-        return deployments;
+            last = deployment;
+            hasPackage |= deployment.hasPackage();
+            count++;
+            // Stop reading once the client has gone.
+            stopped = out.checkError();
+            return !stopped;
+        }
+
+        void end(JSONArray columns) {
+            out.print("],\"columns\":" + columns.toString() + ",\"next\":"
+                    + (more ? JSONUtils.quote(HistoryCursor.after(last).toString()) : "null") + "}");
+            out.flush();
+        }
     }
 
-    public HashMap getCompLastDeployed(String env, String comp) {
-        HashMap<String, String> deployment;
-        deployment = new HashMap<String, String>();
-        String[] fields = {"buildstatus", "buildJobUrl", "jobUrl", "buildNum", "created_at", "packageName"};
-        ArrayList<String> allDBFields = getCustomDBColumns();
-        for (String field : fields ){
-            allDBFields.add(field);
+    /**
+     * @return the sequence number of the latest dashboard change, read before
+     *         rendering so the page can ask for the changes after it.
+     */
+    public long getChangeSequence() {
+        return DashboardChangeFeed.getLastSequence();
+    }
+
+    /**
+     * Server-sent events of the grid cells changed after the client's last
+     * sequence number, as a long poll: the response waits for changes and
+     * ends once a batch of them is written, or after streamTimeout. The
+     * browser then asks again a second later with the Last-Event-ID header,
+     * resuming where it left off. A reset event asks the client to reload
+     * the whole dashboard.
+     *
+     * The servlet container of this Jenkins version has no asynchronous
+     * requests, so a request thread is held for the whole wait, and an open
+     * dashboard holds one nearly all the time. At most the configured number
+     * of change streams wait at once. Any other request is answered straight
+     * away with the changes already made, and the client polls, asking again
+     * after STREAM_POLL_INTERVAL.
+     */
+    public void doChanges(StaplerRequest req, StaplerResponse rsp, @QueryParameter("since") final String since) throws IOException {
+        checkPermission(View.READ);
+        boolean wait = STREAMS.incrementAndGet() <= getMaxChangeStreams();
+        try {
+            if (wait) {
+                streamChanges(req, rsp, since, STREAM_TIMEOUT, 1000L);
+            } else {
+                streamChanges(req, rsp, since, 0L, STREAM_POLL_INTERVAL);
+            }
+        } finally {
+            STREAMS.decrementAndGet();
         }
-        String queryString = "select top 1 " + StringUtils.join(allDBFields, ", ").replace(".$","") + " from env_dashboard where envName = '" + env + "' and compName = '" + comp + "' order by created_at desc;";
+    }
+
+    private static int getMaxChangeStreams() {
+        DashboardBuilder.DescriptorImpl descriptor = Hudson.getInstance()
+                .getDescriptorByType(DashboardBuilder.DescriptorImpl.class);
+        return descriptor == null ? 8 : descriptor.getMaxChangeStreams();
+    }
+
+    private void streamChanges(StaplerRequest req, StaplerResponse rsp, String since, long timeout, long retry)
+            throws IOException {
+        String lastEventId = req.getHeader("Last-Event-ID");
+        long sequence;
+        try {
+            sequence = Long.parseLong(lastEventId != null ? lastEventId : since);
+        } catch (NumberFormatException e) {
+            sequence = DashboardChangeFeed.getLastSequence();
+        }
+
+        rsp.setContentType("text/event-stream;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = rsp.getWriter();
+        out.print("retry: " + retry + "\n\n");
+        out.flush();
+
+        long deadline = System.currentTimeMillis() + timeout;
         try {
-            ResultSet rs = runQuery(queryString);
-            rs.next();
-            for (String field : allDBFields) {
-                deployment.put(field, rs.getString(field));
+            while (!out.checkError()) {
+                List<DashboardChangeFeed.Change> changes = DashboardChangeFeed.await(sequence,
+                        Math.min(STREAM_HEARTBEAT, deadline - System.currentTimeMillis()));
+                if (changes == null || !writeChanges(out, changes)) {
+                    out.print("event: reset\ndata: {}\n\n");
+                    out.flush();
+                    return;
+                }
+                if (!changes.isEmpty() || System.currentTimeMillis() >= deadline) {
+                    // Free the thread once the batch is out, the client asks again.
+                    out.flush();
+                    return;
+                }
+                out.print(": keep alive\n\n");
+                out.flush();
             }
-            DBConnection.closeConnection();
-        } catch (SQLException e) {
-            if (e.getErrorCode() == 2000) {
-                //We'll assume this comp has never been deployed to this env            }
-            } else {
-                System.out.println("E12" + e.getMessage());
-                System.out.println("Error executing: " + queryString);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write the current state of each changed cell of this view once. A
+     * client without the cell, such as for a new environment, reloads.
+     *
+     * @return false if the change cannot be described by cells and the
+     *         client has to reload.
+     */
+    private boolean writeChanges(PrintWriter out, List<DashboardChangeFeed.Change> changes) {
+        if (changes.isEmpty()) {
+            return true;
+        }
+        DashboardMatrix matrix = getDashboardMatrix();
+        Map<String, DashboardChangeFeed.Change> cells = new LinkedHashMap<String, DashboardChangeFeed.Change>();
+        for (DashboardChangeFeed.Change change : changes) {
+            if (change.isReset()) {
+                return false;
+            }
+            String key = DashboardMatrix.key(change.getEnv(), change.getComp());
+            cells.remove(key);
+            cells.put(key, change);
+        }
+
+        long written = 0;
+        for (DashboardChangeFeed.Change change : cells.values()) {
+            if (!matrix.getEnvs().contains(change.getEnv()) || !matrix.getComps().contains(change.getComp())) {
+                continue;
+            }
+            Deployment deployment = matrix.getCell(change.getEnv(), change.getComp());
+            JSONObject cell = new JSONObject();
+            cell.put("env", change.getEnv());
+            cell.put("comp", change.getComp());
+            cell.put("deployed", deployment != null);
+            if (deployment != null) {
+                cell.put("buildNum", deployment.getBuildNum());
+                cell.put("buildstatus", deployment.getStatus().name());
+                cell.put("packageName", deployment.getPackageName());
+                cell.put("jobUrl", deployment.getJobUrl());
+                cell.put("time", getNiceTimeStamp(deployment.getCreatedAt()));
             }
+            out.print("id: " + change.getSequence() + "\nevent: cell\ndata: " + cell.toString() + "\n\n");
+            written = change.getSequence();
+        }
+        long last = changes.get(changes.size() - 1).getSequence();
+        if (written != last) {
+            // Move the client past changes to cells outside this view.
+            out.print("id: " + last + "\n\n");
         }
-        return deployment;
+        return true;
+    }
+
+    /**
+     * @return the fields of a deployment shown by the history popups,
+     *         including its custom column values.
+     */
+    private JSONObject historyRow(Deployment deployment) {
+        JSONObject row = new JSONObject();
+        row.put("envName", deployment.getEnv());
+        row.put("compName", deployment.getComp());
+        row.put("buildNum", deployment.getBuildNum());
+        row.put("buildstatus", deployment.getStatus().name());
+        row.put("jobUrl", deployment.getJobUrl());
+        row.put("buildJobUrl", deployment.getBuildJobUrl());
+        row.put("packageName", deployment.getPackageName());
+        row.put("time", getNiceTimeStamp(deployment.getCreatedAt()));
+        row.putAll(deployment.getCustomValues());
+        return row;
+    }
+
+    /**
+     * Describe a popup table column: text shows the field, link links it to
+     * the url field, status shows an icon and build does both.
+     */
+    private static JSONObject historyColumn(String label, String field, String type, String link) {
+        JSONObject column = new JSONObject();
+        column.put("label", label);
+        column.put("field", field);
+        column.put("type", type);
+        if (link != null) {
+            column.put("link", link);
+        }
+        return column;
     }
 
     @Override
@@ -482,6 +893,24 @@ public class EnvDashboardView extends View {
         this.deployHistory = deployHistory;
     }
 
+    public String getEnvFilter() {
+        return envFilter;
+    }
+
+    public void setEnvFilter(final String envFilter) {
+        this.envFilter = envFilter;
+        this.envNameFilter = compileFilter(envFilter);
+    }
+
+    public String getCompFilter() {
+        return compFilter;
+    }
+
+    public void setCompFilter(final String compFilter) {
+        this.compFilter = compFilter;
+        this.compNameFilter = compileFilter(compFilter);
+    }
+
     @Override
     public boolean contains(TopLevelItem topLevelItem) {
         return false;
@@ -0,0 +1,103 @@
+package org.jenkinsci.plugins.environmentdashboard;
+
+import hudson.Plugin;
+
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardReadModel;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardWriteQueue;
+
+/**
+ * Plugin entry point, used to manage resources that live for the whole
+ * lifecycle of the plugin.
+ */
+public class PluginImpl extends Plugin {
+
+    private static final Logger LOGGER = Logger.getLogger(PluginImpl.class.getName());
+
+    /* Milliseconds to wait for queued dashboard updates at shutdown */
+    private static final long SHUTDOWN_TIMEOUT = Long.getLong(
+            PluginImpl.class.getName() + ".shutdownTimeout", 30000L);
+
+    /* Milliseconds to wait for the writer to finish its batch before switching stores */
+    private static final long SWITCH_TIMEOUT = 30000;
+
+    /**
+     * Open the configured dashboard store before any build or view uses it.
+     * The global configuration is only loaded once extensions are, so this
+     * cannot be done in start().
+     */
+    @Override
+    public void postInitialize() throws Exception {
+        DashboardBuilder.DescriptorImpl descriptor = Jenkins.getInstance()
+                .getDescriptorByType(DashboardBuilder.DescriptorImpl.class);
+        openStore(descriptor.getStorage(), descriptor.getServerUrl());
+    }
+
+    /**
+     * Record the queued dashboard updates, then close the dashboard store
+     * when Jenkins shuts down.
+     */
+    @Override
+    public void stop() throws Exception {
+        if (!DashboardWriteQueue.shutdown(SHUTDOWN_TIMEOUT)) {
+            LOGGER.warning("Shut down with " + DashboardWriteQueue.size() + " dashboard updates not recorded.");
+        }
+        DashboardStore.get().close();
+    }
+
+    /**
+     * Switch the dashboard to a store, bringing its schema up to date, then
+     * load the dashboard state into memory in the background. The writer is
+     * paused while the stores are switched, and the state of the previous
+     * store is dropped from memory whether or not the new one opens, so
+     * readers use the new store until it is loaded. If it could not be
+     * opened, the reconciliation loads it once it can be read.
+     *
+     * @param type
+     *            embedded, server or memory.
+     * @param serverUrl
+     *            the JDBC URL of the server store.
+     */
+    static void openStore(String type, String serverUrl) {
+        DashboardStore store = DashboardStore.create(type, serverUrl);
+        try {
+            if (!DashboardWriteQueue.pause(SWITCH_TIMEOUT)) {
+                LOGGER.severe("The dashboard writer did not pause, the " + type + " dashboard store was not opened.");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.severe("Interrupted, the " + type + " dashboard store was not opened.");
+            return;
+        }
+        try {
+            DashboardStore.use(store);
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Could not open the " + type + " dashboard store.", e);
+            return;
+        } finally {
+            DashboardReadModel.clear();
+            DashboardWriteQueue.resume();
+        }
+        Thread loader = new Thread("Environment dashboard read model load") {
+            @Override
+            public void run() {
+                try {
+                    if (DashboardReadModel.load()) {
+                        LOGGER.info("Loaded " + DashboardReadModel.size() + " dashboard deployments into memory.");
+                    }
+                } catch (SQLException e) {
+                    LOGGER.log(Level.WARNING, "Could not load the dashboard state, reading it from the database.", e);
+                }
+            }
+        };
+        loader.setDaemon(true);
+        loader.start();
+    }
+}
@@ -0,0 +1,148 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Feed of the dashboard cells changed by recorded updates, so that open
+ * dashboards can patch the changed cells instead of reloading.
+ *
+ * Every change gets the next sequence number. The most recent changes are
+ * kept in a fixed size ring, a reader that falls further behind than the
+ * ring holds is told to reset. Sequence numbers are seeded with the time so
+ * that a reader from before a restart is never mistaken for a current one.
+ */
+public class DashboardChangeFeed {
+
+    /* Number of changes kept for readers that fall behind */
+    private static final int CAPACITY = Integer.getInteger(
+            DashboardChangeFeed.class.getName() + ".capacity", 1024);
+
+    private static final Change[] RING = new Change[CAPACITY];
+
+    /* Guarded by the class lock. */
+    private static long lastSequence = System.currentTimeMillis();
+
+    /* Oldest sequence number still in the ring, guarded by the class lock. */
+    private static long firstSequence = lastSequence + 1;
+
+    /**
+     * A changed cell, or a change the cells cannot describe.
+     */
+    public static final class Change {
+
+        private final long sequence;
+
+        private final String env;
+
+        private final String comp;
+
+        Change(long sequence, String env, String comp) {
+            this.sequence = sequence;
+            this.env = env;
+            this.comp = comp;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getEnv() {
+            return env;
+        }
+
+        public String getComp() {
+            return comp;
+        }
+
+        /**
+         * @return true if readers have to reload the whole dashboard.
+         */
+        public boolean isReset() {
+            return env == null;
+        }
+    }
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private DashboardChangeFeed() {
+
+    }
+
+    /**
+     * Publish a change to the latest deployment of an environment/component
+     * pair, call once the change is committed.
+     *
+     * @return the sequence number of the change.
+     */
+    public static long publish(String env, String comp) {
+        return append(env, comp);
+    }
+
+    /**
+     * Publish a change to many cells at once, such as a purge, readers
+     * reload the whole dashboard.
+     *
+     * @return the sequence number of the change.
+     */
+    public static long publishReset() {
+        return append(null, null);
+    }
+
+    /**
+     * @return the sequence number of the latest change.
+     */
+    public static synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @param sequence
+     *            the last sequence number the reader has seen.
+     * @return the changes after it in order, or null if the reader is too
+     *         far behind and has to reset.
+     */
+    public static synchronized List<Change> since(long sequence) {
+        if (sequence < firstSequence - 1 || sequence > lastSequence) {
+            return null;
+        }
+        List<Change> changes = new ArrayList<Change>();
+        for (long next = sequence + 1; next <= lastSequence; next++) {
+            changes.add(RING[(int) (next % CAPACITY)]);
+        }
+        return changes;
+    }
+
+    /**
+     * Wait for changes after a sequence number.
+     *
+     * @param sequence
+     *            the last sequence number the reader has seen.
+     * @param timeoutMillis
+     *            the maximum time to wait.
+     * @return the changes, empty if there were none in time, or null if the
+     *         reader has to reset.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public static synchronized List<Change> await(long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (lastSequence == sequence && remaining > 0) {
+            DashboardChangeFeed.class.wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return since(sequence);
+    }
+
+    private static synchronized long append(String env, String comp) {
+        long sequence = ++lastSequence;
+        RING[(int) (sequence % CAPACITY)] = new Change(sequence, env, comp);
+        if (sequence - firstSequence >= CAPACITY) {
+            firstSequence = sequence - CAPACITY + 1;
+        }
+        DashboardChangeFeed.class.notifyAll();
+        return sequence;
+    }
+}
@@ -1,12 +1,30 @@
 package org.jenkinsci.plugins.environmentdashboard.dao;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.h2.api.ErrorCode;
 
 import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
 import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+import org.jenkinsci.plugins.environmentdashboard.utils.DashboardMetrics;
 
 /**
  * This class is a data access object that handles interactions between the
@@ -17,66 +35,182 @@ import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
  */
 public class DashboardDAO {
 
-    // Create dashboard query
-    private static String createDashboardTblQuery = "CREATE TABLE IF NOT EXISTS env_dashboard (envComp VARCHAR(255), jobUrl VARCHAR(255), "
-            + "buildNum VARCHAR(255), buildStatus VARCHAR(255), envName VARCHAR(255), compName "
-            + "VARCHAR(255), created_at TIMESTAMP,  buildJobUrl VARCHAR(255), packageName VARCHAR(255));";
+    /* Bumped after every write, seeded with the time so that versions are
+     * not reused after a restart. */
+    private static final AtomicLong DATA_VERSION = new AtomicLong(System.currentTimeMillis());
+
+    /* History queries are written against the env_dashboard and
+     * env_dashboard_value views and routed to a monthly partition, see
+     * HistoryPartitions. */
+
+    // Insert build query
+    private static String insertBuildQuery = "INSERT INTO env_dashboard (envComp, jobUrl, buildNum, buildStatus, envName, "
+            + "compName, created_at, buildJobUrl, packageName) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+    // Insert custom column value query
+    private static String insertValueQuery = "INSERT INTO env_dashboard_value (deploymentId, columnId, value) VALUES (?, ?, ?);";
+
+    // Find custom column id query
+    private static String findColumnQuery = "SELECT id FROM env_dashboard_column WHERE name = ?;";
+
+    // Add custom column name query
+    private static String insertColumnQuery = "INSERT INTO env_dashboard_column (name) VALUES (?);";
+
+    // Delete custom column values query
+    private static String deleteColumnValuesQuery = "DELETE FROM env_dashboard_value WHERE columnId IN "
+            + "(SELECT id FROM env_dashboard_column WHERE name = ?);";
+
+    // Delete custom column query
+    private static String deleteColumnQuery = "DELETE FROM env_dashboard_column WHERE name = ?;";
+
+    // Deployment columns of the history and latest tables. Latest has one row per envComp, maintained on write.
+    private static String latestColumns = "envComp, jobUrl, buildNum, buildStatus, envName, compName, created_at, buildJobUrl, packageName, id";
+
+    // Delete latest deployment of a single envComp query
+    private static String deleteLatestQuery = "DELETE FROM env_dashboard_latest WHERE envName = ? AND compName = ?;";
+
+    // Refresh latest deployment of a single envComp from history query
+    private static String refreshLatestQuery = "INSERT INTO env_dashboard_latest (" + latestColumns + ") SELECT TOP 1 " + latestColumns
+            + " FROM env_dashboard WHERE envName = ? AND compName = ? ORDER BY created_at DESC, id DESC;";
+
+    // Rebuild latest deployments from history query, ties on created_at go to the highest id like refreshLatestQuery
+    private static String rebuildLatestQuery = "MERGE INTO env_dashboard_latest (" + latestColumns + ") KEY(envComp) SELECT d.envComp, d.jobUrl, "
+            + "d.buildNum, d.buildStatus, d.envName, d.compName, d.created_at, d.buildJobUrl, d.packageName, d.id FROM env_dashboard d "
+            + "INNER JOIN (SELECT e.envName, e.compName, MAX(e.id) AS last_id FROM env_dashboard e "
+            + "INNER JOIN (SELECT envName, compName, MAX(created_at) AS last_created FROM env_dashboard GROUP BY envName, compName) l "
+            + "ON e.envName = l.envName AND e.compName = l.compName AND e.created_at = l.last_created "
+            + "GROUP BY e.envName, e.compName) m ON d.id = m.last_id;";
+
+    // Latest deployment time of each envComp query
+    private static String latestCreatedQuery = "SELECT envName, compName, created_at FROM env_dashboard_latest;";
+
+    // Last deployment time of each envComp in history query
+    private static String lastCreatedQuery = "SELECT envName, compName, MAX(created_at) FROM env_dashboard "
+            + "GROUP BY envName, compName;";
+
+    // Dashboard tables, in the order their row counts are reported
+    private static String[] tables = {"env_dashboard", "env_dashboard_latest", "env_dashboard_value",
+            "env_dashboard_column"};
+
+    // Delete custom column values of a chunk of old builds query
+    private static String deleteOldValueQuery = "DELETE FROM env_dashboard_value WHERE deploymentId IN "
+            + "(SELECT id FROM env_dashboard WHERE created_at <= ? ORDER BY id LIMIT ?);";
+
+    // Delete a chunk of old builds query
+    private static String deleteOldBuildQuery = "DELETE FROM env_dashboard WHERE id IN "
+            + "(SELECT id FROM env_dashboard WHERE created_at <= ? ORDER BY id LIMIT ?);";
 
-    // Delete old build query
-    private static String deleteOldBuildQuery = "DELETE FROM env_dashboard where created_at <= current_timestamp - ";
+    // Delete old latest deployments query
+    private static String deleteOldLatestQuery = "DELETE FROM env_dashboard_latest WHERE created_at <= ?;";
+
+    // Delete latest deployments still in the database query
+    private static String deleteHotLatestQuery = "DELETE FROM env_dashboard_latest WHERE created_at >= ?;";
 
     // Update build query
-    private static String updateBuildQuery = "UPDATE env_dashboard SET buildStatus = ?, created_at = CURRENT_TIMESTAMP WHERE "
+    private static String updateBuildQuery = "UPDATE env_dashboard SET buildStatus = ?, created_at = ? WHERE "
             + "envComp = ? AND joburl = ?;";
 
+    // Count builds query
+    private static String findBuildQuery = "SELECT COUNT(*) FROM env_dashboard WHERE envComp = ? AND joburl = ?;";
+
     // Truncate table - delete old tuples in env_dashboard
     private static String truncateEnvDashbord = "TRUNCATE TABLE env_dashboard;";
-    
-    // Add Column - add column to db.
-    private static String alterColumnQuery = "ALTER TABLE env_dashboard ADD IF NOT EXISTS ";
-    
+
+    // Truncate table - delete all tuples in env_dashboard_latest
+    private static String truncateEnvDashbordLatest = "TRUNCATE TABLE env_dashboard_latest;";
+
+    // Truncate table - delete all tuples in env_dashboard_value
+    private static String truncateEnvDashbordValue = "TRUNCATE TABLE env_dashboard_value;";
+
+    // Last id of the next chunk of exported builds query
+    private static String exportChunkQuery = "SELECT MAX(id) FROM (SELECT id FROM env_dashboard WHERE id > ? "
+            + "ORDER BY id LIMIT ?);";
+
+    // Export a chunk of builds with their custom column values query
+    private static String exportBuildQuery = DeploymentLines.SELECT + " WHERE d.id > ? AND d.id <= ? ORDER BY d.id;";
+
+    // Import build query, the id is kept so that an import can be repeated
+    private static String importBuildQuery = "MERGE INTO env_dashboard (id, envComp, jobUrl, buildNum, buildStatus, "
+            + "envName, compName, created_at, buildJobUrl, packageName) KEY(id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+    // Import custom column value query
+    private static String importValueQuery = "MERGE INTO env_dashboard_value (deploymentId, columnId, value) "
+            + "KEY(deploymentId, columnId) VALUES (?, ?, ?);";
+
+    // Any build query
+    private static String anyBuildQuery = "SELECT id FROM env_dashboard LIMIT 1;";
+
+    // Last id handed out query
+    private static String lastIdQuery = "SELECT CURRENT_VALUE FROM INFORMATION_SCHEMA.SEQUENCES "
+            + "WHERE SEQUENCE_NAME = 'ENV_DASHBOARD_ID_SEQ';";
+
     // Delete Build query
     private static String deleteBuildQuery = "DELETE FROM env_dashboard where envComp = ? AND joburl = ?;";
 
-    /**
-     * Create dashboard table
-     * 
-     * @return true if table created, else false.
-     * @exception SQLException
-     *                unable to execute create dashboard query.
-     */
-    public boolean createDashboardTable() throws SQLException {
+    // Delete custom column values of a build query
+    private static String deleteBuildValueQuery = "DELETE FROM env_dashboard_value WHERE deploymentId IN "
+            + "(SELECT id FROM env_dashboard where envComp = ? AND joburl = ?);";
 
-        // Get DB connection
-        Connection conn = DBConnection.getConnection();
-        return conn.prepareStatement(DashboardDAO.createDashboardTblQuery)
-                .execute();
-    }
-    
     /**
-     * add column to db table.
-     * @param the column to add
+     * add custom column, unless it already exists. Custom column values are
+     * stored in env_dashboard_value so this does not change the schema.
+     * @param the column to add, a trailing column type is ignored.
      * @return true if added, else false.
      * @exception SQLException
      *                unable to execute add column query.
      * 
      */
     public boolean addColumn(String column) throws SQLException{
+        String name = column.trim().split("\\s+")[0].toLowerCase();
+        if (SchemaMetadataCache.hasColumn(name)) {
+            return false;
+        }
+
         // Get DB Connection
-        Connection conn = DBConnection.getConnection();
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            DashboardDAO.getColumnId(conn, name);
+            return true;
+        } finally {
+            DBConnection.closeConnection(conn);
+            SchemaMetadataCache.invalidate();
+        }
+    }
 
-        /* Can't use prepared statement for modifying a table as '?' are
-         * bound to data items only.
-         * Using temp variable as the query has a static modifier. 
-         */
-        String temp = DashboardDAO.alterColumnQuery + column + ";";
-        
-        Statement stat = conn.createStatement();
-        boolean result = stat.execute(temp);
-        stat.close();
-        DBConnection.closeConnection();
+    /**
+     * remove a custom column and all of its recorded values.
+     * @param the column to remove.
+     * @return true if removed, false if there is no such column.
+     * @exception SQLException
+     *                unable to execute remove column queries.
+     * 
+     */
+    public boolean dropColumn(String column) throws SQLException{
+        // Get DB Connection
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            conn.setAutoCommit(false);
+            for (int month : HistoryPartitions.newestFirst()) {
+                PreparedStatement values = conn.prepareStatement(
+                        HistoryPartitions.route(DashboardDAO.deleteColumnValuesQuery, month));
+                DashboardDAO.setValues(values, column.toLowerCase());
+                values.execute();
+                values.close();
+            }
 
-        return result;
+            PreparedStatement stat = conn.prepareStatement(DashboardDAO.deleteColumnQuery);
+            DashboardDAO.setValues(stat, column.toLowerCase());
+            boolean result = stat.executeUpdate() > 0;
+            stat.close();
+            conn.commit();
+            return result;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            DashboardDAO.endTransaction(conn);
+            SchemaMetadataCache.invalidate();
+        }
     }
 
     /**
@@ -95,24 +229,139 @@ public class DashboardDAO {
      *             unable to execute insert build query.
      */
     public boolean addBuild(String index, Build build) throws SQLException {
-        
+
+        long start = System.nanoTime();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        int month = HistoryPartitions.month(now.getTime());
         // Get DB Connection
-        Connection conn = DBConnection.getConnection();
+        Connection conn = DBConnection.getWriteConnection();
+        boolean newColumns = false;
 
-        // Refactor this somewhere.
-        String insertBuildQuery = "INSERT INTO env_dashboard VALUES( '" 
-                    + index + "', '" + build.getUrl() + "', '" +  build.getId() + "', '" 
-                    + build.getResult() + "', '" + build.getEnvironment() + "', '" 
-                    + build.getComponantName() + "' ,current_timestamp, '" + build.getUrl() + "' , '" 
-                    + build.getPackages() +  "');";
-        
-        Statement stat = conn.createStatement();
-        boolean result = stat.execute(insertBuildQuery);
-        
-        stat.close();
-        DBConnection.closeConnection();
+        try {
+            HistoryPartitions.ensure(conn, month);
+            conn.setAutoCommit(false);
+            PreparedStatement stat = conn.prepareStatement(HistoryPartitions.route(DashboardDAO.insertBuildQuery, month),
+                    Statement.RETURN_GENERATED_KEYS);
+            DashboardDAO.setValues(stat, index, build.getUrl(), build.getId(), build.getResult(),
+                    build.getEnvironment(), build.getComponantName(), now, build.getUrl(), build.getPackages());
+            boolean result = stat.execute();
 
-        return result;
+            if (!build.getCustomColumns().isEmpty()) {
+                PreparedStatement values = conn.prepareStatement(HistoryPartitions.route(DashboardDAO.insertValueQuery, month));
+                newColumns = DashboardDAO.addCustomValues(conn, stat, values, build);
+                values.executeBatch();
+                values.close();
+            }
+            stat.close();
+
+            DashboardDAO.refreshLatest(conn, build);
+            conn.commit();
+            return result;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            DashboardDAO.endTransaction(conn);
+            DashboardMetrics.OPERATIONS.observeSince("addBuild", start);
+            if (newColumns) {
+                SchemaMetadataCache.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Record a batch of queued dashboard updates in a single transaction.
+     * Updates are applied in order, the latest deployment of each envComp
+     * touched is refreshed once at the end of the batch. Each update is
+     * recorded at the time it was queued, not the time it is written, in the
+     * monthly partition of that time.
+     *
+     * @param events
+     *            the updates to record, in the order they were queued.
+     * @throws SQLException
+     *             if any update fails, none of the batch is recorded.
+     */
+    public void writeBatch(List<DashboardWriteQueue.Event> events) throws SQLException {
+
+        long start = System.nanoTime();
+        // Get DB Connection
+        Connection conn = DBConnection.getWriteConnection();
+        boolean newColumns = false;
+
+        try {
+            // Partitions are DDL, create them before the transaction starts.
+            for (DashboardWriteQueue.Event event : events) {
+                HistoryPartitions.ensure(conn, HistoryPartitions.month(event.getTime()));
+            }
+            conn.setAutoCommit(false);
+            int month = 0;
+            PreparedStatement insert = null;
+            PreparedStatement values = null;
+            PreparedStatement update = null;
+            Map<String, Build> touched = new LinkedHashMap<String, Build>();
+            boolean pendingValues = false;
+
+            for (DashboardWriteQueue.Event event : events) {
+                Build b = event.getBuild();
+                Timestamp time = new Timestamp(event.getTime());
+                if (HistoryPartitions.month(event.getTime()) != month) {
+                    // Updates queued either side of a month boundary go to different partitions.
+                    if (pendingValues) {
+                        values.executeBatch();
+                        pendingValues = false;
+                    }
+                    DashboardDAO.close(insert, values, update);
+                    month = HistoryPartitions.month(event.getTime());
+                    insert = conn.prepareStatement(HistoryPartitions.route(DashboardDAO.insertBuildQuery, month),
+                            Statement.RETURN_GENERATED_KEYS);
+                    values = conn.prepareStatement(HistoryPartitions.route(DashboardDAO.insertValueQuery, month));
+                    update = conn.prepareStatement(HistoryPartitions.route(DashboardDAO.updateBuildQuery, month));
+                }
+                switch (event.getType()) {
+                case ADD:
+                    DashboardDAO.setValues(insert, event.getEnvComp(), b.getUrl(), b.getId(), b.getResult(),
+                            b.getEnvironment(), b.getComponantName(), time, b.getUrl(), b.getPackages());
+                    insert.execute();
+                    if (!b.getCustomColumns().isEmpty()) {
+                        newColumns |= DashboardDAO.addCustomValues(conn, insert, values, b);
+                        pendingValues = true;
+                    }
+                    break;
+                case UPDATE:
+                    DashboardDAO.recordUpdate(conn, update, month, time, b.getResult(), event.getEnvComp(), b.getUrl());
+                    break;
+                case DELETE:
+                    // Values of a build added earlier in the batch must exist before they are deleted.
+                    if (pendingValues) {
+                        values.executeBatch();
+                        pendingValues = false;
+                    }
+                    DashboardDAO.recordDelete(conn, event.getEnvComp(), b.getUrl());
+                    break;
+                default:
+                    throw new SQLException("Unknown dashboard update " + event.getType());
+                }
+                touched.put(b.getEnvironment() + '=' + b.getComponantName(), b);
+            }
+            if (pendingValues) {
+                values.executeBatch();
+            }
+            DashboardDAO.close(insert, values, update);
+
+            for (Build b : touched.values()) {
+                DashboardDAO.refreshLatest(conn, b);
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            DashboardDAO.endTransaction(conn);
+            DashboardMetrics.OPERATIONS.observeSince("writeBatch", start);
+            if (newColumns) {
+                SchemaMetadataCache.invalidate();
+            }
+        }
     }
 
     /**
@@ -127,49 +376,387 @@ public class DashboardDAO {
      *             unable to execute update build query.
      */
     public boolean updateBuild(String envComp, Build b) throws SQLException {
+        long start = System.nanoTime();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        int month = HistoryPartitions.month(now.getTime());
         // Get DB Connection
-        Connection conn = DBConnection.getConnection();
-        PreparedStatement stat = conn
-                .prepareStatement(DashboardDAO.updateBuildQuery);
-
-        // Populate prepared statement.
-        DashboardDAO.setValues(stat, b.getResult(), envComp, b.getUrl());
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            HistoryPartitions.ensure(conn, month);
+            conn.setAutoCommit(false);
+            PreparedStatement stat = conn
+                    .prepareStatement(HistoryPartitions.route(DashboardDAO.updateBuildQuery, month));
 
-        boolean result = stat.execute();
-        DBConnection.closeConnection();
+            boolean result = DashboardDAO.recordUpdate(conn, stat, month, now, b.getResult(), envComp, b.getUrl()) > 0;
+            stat.close();
 
-        return result;
+            DashboardDAO.refreshLatest(conn, b);
+            conn.commit();
+            return result;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            DashboardDAO.endTransaction(conn);
+            DashboardMetrics.OPERATIONS.observeSince("updateBuild", start);
+        }
     }
 
     /**
-     * Delete build older then specified days.
+     * Delete builds older then specified days. Months before the month of
+     * the cut off are dropped whole, whatever their size; builds of the cut
+     * off month are deleted in chunks, each its own transaction so that
+     * dashboard updates can be recorded in between.
      * 
      * @param daysOld
-     *            delete build in the last days i.e. 30
-     * @return - true if builds deleted else false.
+     *            delete builds older than this many days i.e. 30
+     * @param chunkSize
+     *            the maximum number of builds deleted per transaction.
+     * @return the number of builds deleted.
      * @throws SQLException
      *             unable to execute delete build query.
      */
-    public boolean deleteBuilds(Integer daysOld) throws SQLException {
-
-        boolean result = false;
+    public int purgeBuilds(int daysOld, int chunkSize) throws SQLException {
+        long start = System.nanoTime();
+        Timestamp cutOff = new Timestamp(System.currentTimeMillis() - daysOld * 24L * 60 * 60 * 1000);
+        int cutOffMonth = HistoryPartitions.month(cutOff.getTime());
+        int purged = 0;
+        int deleted;
 
-        if (daysOld > 0) {
+        int[] partitions = HistoryPartitions.newestFirst();
+        for (int i = partitions.length - 1; i >= 0 && partitions[i] < cutOffMonth; i--) {
             // Get DB Connection
-            Connection conn = DBConnection.getConnection();
-            PreparedStatement stat = conn
-                    .prepareStatement(DashboardDAO.deleteOldBuildQuery
-                            + daysOld);
+            Connection conn = DBConnection.getWriteConnection();
+            try {
+                purged += DashboardDAO.count(conn, HistoryPartitions.historyTable(partitions[i]));
+                HistoryPartitions.drop(conn, partitions[i]);
+            } finally {
+                DBConnection.closeConnection(conn);
+            }
+        }
+
+        if (HistoryPartitions.contains(cutOffMonth)) {
+            do {
+                // Get DB Connection
+                Connection conn = DBConnection.getWriteConnection();
+                try {
+                    conn.setAutoCommit(false);
+                    PreparedStatement values = conn.prepareStatement(
+                            HistoryPartitions.route(DashboardDAO.deleteOldValueQuery, cutOffMonth));
+                    DashboardDAO.setValues(values, cutOff, chunkSize);
+                    values.execute();
+                    values.close();
 
-            result = stat.execute();
-            DBConnection.closeConnection();
-        }else{
-            return this.truncateEnvDashboard();
+                    PreparedStatement stat = conn.prepareStatement(
+                            HistoryPartitions.route(DashboardDAO.deleteOldBuildQuery, cutOffMonth));
+                    DashboardDAO.setValues(stat, cutOff, chunkSize);
+                    deleted = stat.executeUpdate();
+                    stat.close();
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    DashboardDAO.endTransaction(conn);
+                }
+                purged += deleted;
+            } while (deleted == chunkSize);
         }
 
-        return result;
+        // Archived months go once all of their deployments are past the cut off.
+        HistoryArchive.deleteBefore(cutOffMonth);
+
+        /* The latest deployment of an envComp is older than the cut off only
+         * if its whole history is. */
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            PreparedStatement stat = conn.prepareStatement(DashboardDAO.deleteOldLatestQuery);
+            DashboardDAO.setValues(stat, cutOff);
+            stat.execute();
+            stat.close();
+        } finally {
+            DBConnection.closeConnection(conn);
+            DATA_VERSION.incrementAndGet();
+            DashboardMetrics.OPERATIONS.observeSince("purgeBuilds", start);
+        }
+        DashboardMetrics.PURGED_ROWS.increment(null, purged);
+        if (purged > 0) {
+            DashboardReadModel.reload();
+        }
+
+        return purged;
+    }
+
+    /**
+     * Move the months older than the hot window out of the database into
+     * the archive, a whole partition at a time; the month of the cut off
+     * and later stay in the database. The latest deployment of every cell is
+     * kept, so the grid still shows cells last deployed to in an archived
+     * month.
+     *
+     * @param daysHot
+     *            keep builds newer than this many days in the database.
+     * @return the number of builds archived.
+     * @throws SQLException
+     *             unable to read or drop a partition.
+     * @throws IOException
+     *             unable to write the archive.
+     */
+    public int archiveBuilds(int daysHot) throws SQLException, IOException {
+        long start = System.nanoTime();
+        int hotMonth = HistoryPartitions.month(System.currentTimeMillis() - daysHot * 24L * 60 * 60 * 1000);
+        int archived = 0;
+
+        try {
+            int[] partitions = HistoryPartitions.newestFirst();
+            for (int i = partitions.length - 1; i >= 0 && partitions[i] < hotMonth; i--) {
+                // Write the segment without holding up builds.
+                int written;
+                Connection conn = DBConnection.getConnection();
+                try {
+                    written = HistoryArchive.archive(conn, partitions[i]);
+                } finally {
+                    DBConnection.closeConnection(conn);
+                }
+
+                /* Builds are only recorded in the current month, an old
+                 * partition changes only by losing builds updated or deleted
+                 * since, so the same count means the segment is current. */
+                conn = DBConnection.getWriteConnection();
+                try {
+                    if (DashboardDAO.count(conn, HistoryPartitions.historyTable(partitions[i])) != written) {
+                        written = HistoryArchive.archive(conn, partitions[i]);
+                    }
+                    HistoryPartitions.drop(conn, partitions[i]);
+                } finally {
+                    DBConnection.closeConnection(conn);
+                }
+                archived += written;
+            }
+        } finally {
+            DATA_VERSION.incrementAndGet();
+            DashboardMetrics.OPERATIONS.observeSince("archiveBuilds", start);
+        }
+        DashboardMetrics.ARCHIVED_ROWS.increment(null, archived);
+        if (archived > 0) {
+            DashboardReadModel.reload();
+        }
+
+        return archived;
+    }
+
+    /**
+     * Write every build as a deployment line, archived months first and then
+     * each partition from the oldest. Partitions are read in chunks of
+     * builds by id, so memory use does not grow with the history.
+     *
+     * @param out
+     *            receives the lines.
+     * @param chunkSize
+     *            the maximum number of builds read per query.
+     * @return the number of builds exported.
+     * @throws SQLException
+     *             unable to execute export queries.
+     * @throws IOException
+     *             unable to read the archive or write the lines.
+     */
+    public long exportBuilds(Writer out, int chunkSize) throws SQLException, IOException {
+        long start = System.nanoTime();
+        long exported = HistoryArchive.copy(out);
+
+        int[] partitions = HistoryPartitions.newestFirst();
+        // Get DB Connection
+        Connection conn = DBConnection.getConnection();
+        try {
+            for (int i = partitions.length - 1; i >= 0; i--) {
+                PreparedStatement chunk = conn.prepareStatement(
+                        HistoryPartitions.route(DashboardDAO.exportChunkQuery, partitions[i]));
+                PreparedStatement builds = conn.prepareStatement(
+                        HistoryPartitions.route(DashboardDAO.exportBuildQuery, partitions[i]));
+                try {
+                    long after = 0;
+                    while (true) {
+                        DashboardDAO.setValues(chunk, after, chunkSize);
+                        ResultSet rs = chunk.executeQuery();
+                        rs.next();
+                        long last = rs.getLong(1);
+                        boolean done = rs.wasNull();
+                        rs.close();
+                        if (done) {
+                            break;
+                        }
+                        DashboardDAO.setValues(builds, after, last);
+                        rs = builds.executeQuery();
+                        exported += DeploymentLines.write(rs, out);
+                        rs.close();
+                        after = last;
+                    }
+                } catch (SQLException e) {
+                    // Dropped by retention since the catalog was read.
+                    if (e.getErrorCode() != ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1
+                            || HistoryPartitions.contains(partitions[i])) {
+                        throw e;
+                    }
+                } finally {
+                    chunk.close();
+                    builds.close();
+                }
+            }
+        } finally {
+            DBConnection.closeConnection(conn);
+            DashboardMetrics.OPERATIONS.observeSince("exportBuilds", start);
+        }
+
+        return exported;
+    }
+
+    /**
+     * @return true if the dashboard holds any build, archived ones included.
+     * @throws SQLException
+     *             unable to execute the query.
+     */
+    public boolean hasBuilds() throws SQLException {
+        if (HistoryArchive.newestFirst().length > 0) {
+            return true;
+        }
+        // Get DB Connection
+        Connection conn = DBConnection.getConnection();
+        try {
+            for (int month : HistoryPartitions.newestFirst()) {
+                Statement stat = conn.createStatement();
+                try {
+                    if (stat.executeQuery(HistoryPartitions.route(DashboardDAO.anyBuildQuery, month)).next()) {
+                        return true;
+                    }
+                } finally {
+                    stat.close();
+                }
+            }
+            return false;
+        } finally {
+            DBConnection.closeConnection(conn);
+        }
+    }
+
+    /**
+     * Import a chunk of exported deployment lines in one transaction. Builds
+     * keep their ids and replace a build with the same id, so importing the
+     * same lines again changes nothing; import into a dashboard without
+     * builds of its own, see {@link #hasBuilds()}. The id sequence is moved
+     * past the imported ids. Rebuild the latest deployment table once every
+     * chunk is imported.
+     *
+     * @param lines
+     *            the deployment lines, blank lines are skipped.
+     * @param firstLine
+     *            the line number of the first line, for errors.
+     * @return the number of builds imported.
+     * @throws SQLException
+     *             unable to execute import queries.
+     * @throws IOException
+     *             if a line is not a deployment line, nothing of the chunk
+     *             is imported then.
+     */
+    public int importBuilds(List<String> lines, long firstLine) throws SQLException, IOException {
+        long start = System.nanoTime();
+        List<Map<String, Object>> deployments = new ArrayList<Map<String, Object>>(lines.size());
+        List<Timestamp> created = new ArrayList<Timestamp>(lines.size());
+        Set<Integer> months = new TreeSet<Integer>();
+        int current = HistoryPartitions.month(System.currentTimeMillis());
+        long lastId = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.trim().equals("")) {
+                continue;
+            }
+            String source = "import, line " + (firstLine + i);
+            Map<String, Object> json = DeploymentLines.parse(line, source);
+            Timestamp createdAt;
+            try {
+                createdAt = json.get("created_at") == null ? null : Timestamp.valueOf((String) json.get("created_at"));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt line in " + source + ": " + line, e);
+            }
+            deployments.add(json);
+            created.add(createdAt);
+            months.add(createdAt == null ? current : HistoryPartitions.month(createdAt.getTime()));
+            lastId = Math.max(lastId, (Long) json.get("id"));
+        }
+
+        boolean newColumns = false;
+        // Get DB Connection
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            for (int month : months) {
+                HistoryPartitions.ensure(conn, month);
+            }
+            Statement stat = conn.createStatement();
+            try {
+                ResultSet rs = stat.executeQuery(DashboardDAO.lastIdQuery);
+                rs.next();
+                long sequence = rs.getLong(1);
+                rs.close();
+                if (sequence < lastId) {
+                    stat.execute("ALTER SEQUENCE env_dashboard_id_seq RESTART WITH " + (lastId + 1) + ";");
+                }
+            } finally {
+                stat.close();
+            }
+
+            conn.setAutoCommit(false);
+            Map<Integer, PreparedStatement> builds = new HashMap<Integer, PreparedStatement>();
+            Map<Integer, PreparedStatement> values = new HashMap<Integer, PreparedStatement>();
+            for (int month : months) {
+                builds.put(month, conn.prepareStatement(HistoryPartitions.route(DashboardDAO.importBuildQuery, month)));
+                values.put(month, conn.prepareStatement(HistoryPartitions.route(DashboardDAO.importValueQuery, month)));
+            }
+            Map<String, Integer> columnIds = new HashMap<String, Integer>(SchemaMetadataCache.getCustomColumnIds());
+            for (int d = 0; d < deployments.size(); d++) {
+                Map<String, Object> json = deployments.get(d);
+                int month = created.get(d) == null ? current : HistoryPartitions.month(created.get(d).getTime());
+                PreparedStatement build = builds.get(month);
+                DashboardDAO.setValues(build, json.get("id"), json.get("envComp"), json.get("jobUrl"),
+                        json.get("buildNum"), json.get("buildStatus"), json.get("envName"), json.get("compName"),
+                        created.get(d), json.get("buildJobUrl"), json.get("packageName"));
+                build.addBatch();
+
+                Map<String, Object> custom = DeploymentLines.values(json);
+                if (custom == null) {
+                    continue;
+                }
+                for (Map.Entry<String, Object> column : custom.entrySet()) {
+                    String name = column.getKey().toLowerCase();
+                    Integer columnId = columnIds.get(name);
+                    if (columnId == null) {
+                        columnId = DashboardDAO.getColumnId(conn, name);
+                        columnIds.put(name, columnId);
+                        newColumns = true;
+                    }
+                    DashboardDAO.setValues(values.get(month), json.get("id"), columnId, column.getValue());
+                    values.get(month).addBatch();
+                }
+            }
+            for (int month : months) {
+                builds.get(month).executeBatch();
+                builds.get(month).close();
+                values.get(month).executeBatch();
+                values.get(month).close();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            DashboardDAO.endTransaction(conn);
+            DashboardMetrics.OPERATIONS.observeSince("importBuilds", start);
+        }
+        if (newColumns) {
+            SchemaMetadataCache.invalidate();
+        }
+
+        return deployments.size();
     }
-    
+
     /**
      * Delete builds.
      * 
@@ -180,23 +767,29 @@ public class DashboardDAO {
      *             unable to execute delete build query.
      */
     public boolean deleteBuild(String indexValueofTable, Build b) throws SQLException{
-      
-        // Get DB Connection
-        Connection conn = DBConnection.getConnection();
-        PreparedStatement stat = conn
-                .prepareStatement(DashboardDAO.deleteBuildQuery);
 
-        // Populate prepared statement.
-        DashboardDAO.setValues(stat, indexValueofTable, b.getUrl());
-
-        boolean result = stat.execute();
-        DBConnection.closeConnection();
+        long start = System.nanoTime();
+        // Get DB Connection
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            conn.setAutoCommit(false);
+            boolean result = DashboardDAO.recordDelete(conn, indexValueofTable, b.getUrl()) > 0;
 
-        return result;
+            DashboardDAO.refreshLatest(conn, b);
+            conn.commit();
+            return result;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            DashboardDAO.endTransaction(conn);
+            DashboardMetrics.OPERATIONS.observeSince("deleteBuild", start);
+        }
     }
 
     /**
-     * Truncate/delete all tuples in env_dashboard table
+     * Truncate/delete all tuples in env_dashboard table. Every partition but
+     * the current month's is dropped, and the archive deleted.
      * 
      * @return true if truncated else false
      * @throws SQLException
@@ -205,15 +798,508 @@ public class DashboardDAO {
     public boolean truncateEnvDashboard() throws SQLException {
         boolean result = false;
 
+        long start = System.nanoTime();
+        int month = HistoryPartitions.month(System.currentTimeMillis());
+        // Get DB Connection
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            HistoryPartitions.ensure(conn, month);
+            for (int partition : HistoryPartitions.newestFirst()) {
+                if (partition != month) {
+                    HistoryPartitions.drop(conn, partition);
+                }
+            }
+            Statement stat = conn.createStatement();
+            try {
+                result = stat.execute(HistoryPartitions.route(DashboardDAO.truncateEnvDashbord, month));
+                stat.execute(DashboardDAO.truncateEnvDashbordLatest);
+                stat.execute(HistoryPartitions.route(DashboardDAO.truncateEnvDashbordValue, month));
+            } finally {
+                stat.close();
+            }
+            HistoryArchive.deleteBefore(Integer.MAX_VALUE);
+        } finally {
+            DBConnection.closeConnection(conn);
+            DATA_VERSION.incrementAndGet();
+            DashboardMetrics.OPERATIONS.observeSince("truncateEnvDashboard", start);
+        }
+        DashboardReadModel.reload();
+
+        return result;
+    }
+
+    /**
+     * Rebuild the latest deployment table from the history table, merging
+     * each partition in from the oldest so that newer deployments win.
+     * Latest deployments older than the database, of cells last deployed to
+     * in an archived month, are kept.
+     * 
+     * @throws SQLException
+     *             if unable to execute rebuild query
+     */
+    public void rebuildLatestTable() throws SQLException {
+
+        long start = System.nanoTime();
+        // Get DB Connection
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            conn.setAutoCommit(false);
+            int[] partitions = HistoryPartitions.newestFirst();
+            Timestamp archivedBefore = DashboardDAO.archivedBefore(partitions);
+            if (archivedBefore == null) {
+                PreparedStatement stat = conn.prepareStatement(DashboardDAO.truncateEnvDashbordLatest);
+                try {
+                    stat.execute();
+                } finally {
+                    stat.close();
+                }
+            } else {
+                PreparedStatement stat = conn.prepareStatement(DashboardDAO.deleteHotLatestQuery);
+                DashboardDAO.setValues(stat, archivedBefore);
+                stat.execute();
+                stat.close();
+            }
+            for (int i = partitions.length - 1; i >= 0; i--) {
+                PreparedStatement stat = conn
+                        .prepareStatement(HistoryPartitions.route(DashboardDAO.rebuildLatestQuery, partitions[i]));
+                try {
+                    stat.execute();
+                } finally {
+                    stat.close();
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            DashboardDAO.endTransaction(conn);
+            DashboardMetrics.OPERATIONS.observeSince("rebuildLatestTable", start);
+        }
+        DashboardReadModel.reload();
+    }
+
+    /**
+     * Compare the latest deployment table against the history table. A
+     * latest deployment without history is not orphaned if it is older than
+     * the database, last deployed to in an archived month.
+     * 
+     * @return the number of envComp keys that are missing, out of date or
+     *         orphaned in the latest deployment table, 0 if consistent.
+     * @throws SQLException
+     *             if unable to execute consistency queries
+     */
+    public int checkLatestTable() throws SQLException {
+        int inconsistent = 0;
+
         // Get DB Connection
         Connection conn = DBConnection.getConnection();
-        PreparedStatement stat = conn
-                .prepareStatement(DashboardDAO.truncateEnvDashbord);
+        try {
+            Map<String, Timestamp> latest = new HashMap<String, Timestamp>();
+            Statement stat = conn.createStatement();
+            try {
+                ResultSet rs = stat.executeQuery(DashboardDAO.latestCreatedQuery);
+                while (rs.next()) {
+                    latest.put(rs.getString(1) + '=' + rs.getString(2), rs.getTimestamp(3));
+                }
+                rs.close();
+            } finally {
+                stat.close();
+            }
 
-        result = stat.execute();
-        DBConnection.closeConnection();
+            // The newest partition holding an envComp holds its last deployment.
+            Set<String> seen = new HashSet<String>();
+            for (int month : HistoryPartitions.newestFirst()) {
+                stat = conn.createStatement();
+                try {
+                    ResultSet rs = stat.executeQuery(HistoryPartitions.route(DashboardDAO.lastCreatedQuery, month));
+                    while (rs.next()) {
+                        String envComp = rs.getString(1) + '=' + rs.getString(2);
+                        if (!seen.add(envComp)) {
+                            continue;
+                        }
+                        Timestamp last = rs.getTimestamp(3);
+                        if (!latest.containsKey(envComp)
+                                || (last != null && latest.get(envComp) != null && !last.equals(latest.get(envComp)))) {
+                            inconsistent++;
+                        }
+                    }
+                    rs.close();
+                } finally {
+                    stat.close();
+                }
+            }
 
-        return result;
+            // Latest deployments without any history
+            latest.keySet().removeAll(seen);
+            Timestamp archivedBefore = DashboardDAO.archivedBefore(HistoryPartitions.newestFirst());
+            for (Timestamp created : latest.values()) {
+                if (archivedBefore == null || created == null || !created.before(archivedBefore)) {
+                    inconsistent++;
+                }
+            }
+        } finally {
+            DBConnection.closeConnection(conn);
+        }
+
+        return inconsistent;
+    }
+
+    /**
+     * @return the start of the oldest partition if older months are
+     *         archived, else null.
+     */
+    private static Timestamp archivedBefore(int[] partitions) {
+        if (partitions.length == 0 || HistoryArchive.newestFirst().length == 0) {
+            return null;
+        }
+        return HistoryPartitions.start(partitions[partitions.length - 1]);
+    }
+
+    /**
+     * Count the rows of every dashboard table.
+     * 
+     * @return the number of rows by table name.
+     * @throws SQLException
+     *             if unable to execute count queries
+     */
+    public Map<String, Long> countRows() throws SQLException {
+        Map<String, Long> rows = new LinkedHashMap<String, Long>();
+
+        // Get DB Connection
+        Connection conn = DBConnection.getConnection();
+        try {
+            int[] partitions = HistoryPartitions.newestFirst();
+            for (String table : DashboardDAO.tables) {
+                long count = 0;
+                if (table.equals("env_dashboard") || table.equals("env_dashboard_value")) {
+                    // Counting through the view would copy every row.
+                    for (int month : partitions) {
+                        count += DashboardDAO.count(conn, HistoryPartitions.route(table, month));
+                    }
+                } else {
+                    count = DashboardDAO.count(conn, table);
+                }
+                rows.put(table, count);
+            }
+        } finally {
+            DBConnection.closeConnection(conn);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Attach the custom column values of deployments, fetched in one query.
+     * All deployments share one array of lower cased column names.
+     *
+     * @param deployments
+     *            the deployments, without custom column values.
+     * @param customColumns
+     *            the custom column names.
+     * @return the deployments with their custom column values, in order.
+     * @throws SQLException
+     *             if unable to execute custom values query
+     */
+    public ArrayList<Deployment> withCustomValues(List<Deployment> deployments, List<String> customColumns)
+            throws SQLException {
+        ArrayList<Deployment> withValues = new ArrayList<Deployment>(deployments);
+        if (deployments.isEmpty() || customColumns == null || customColumns.isEmpty()) {
+            return withValues;
+        }
+        String[] columns = new String[customColumns.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = customColumns.get(i).toLowerCase();
+        }
+        // Values are in the partition of the month the deployment was created in.
+        Map<Integer, List<Long>> idsByMonth = new HashMap<Integer, List<Long>>();
+        for (Deployment deployment : deployments) {
+            int month = deployment.getCreatedAt() == null ? 0
+                    : HistoryPartitions.month(Timestamp.valueOf(deployment.getCreatedAt()).getTime());
+            List<Long> ids = idsByMonth.get(month);
+            if (ids == null) {
+                ids = new ArrayList<Long>();
+                idsByMonth.put(month, ids);
+            }
+            ids.add(deployment.getId());
+        }
+
+        Map<Long, Map<String, String>> customValues = new HashMap<Long, Map<String, String>>();
+        for (Map.Entry<Integer, List<Long>> ids : idsByMonth.entrySet()) {
+            customValues.putAll(getCustomValues(ids.getKey(), ids.getValue(), null));
+        }
+        for (int d = 0; d < withValues.size(); d++) {
+            Map<String, String> values = customValues.get(withValues.get(d).getId());
+            if (values != null) {
+                String[] row = new String[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    row[i] = values.get(columns[i]);
+                }
+                withValues.set(d, withValues.get(d).withCustomValues(columns, row));
+            }
+        }
+        return withValues;
+    }
+
+    /**
+     * Fetch the custom column values of a set of deployments.
+     *
+     * @param deploymentIds
+     *            the ids of the deployments shown.
+     * @param columns
+     *            the lower cased custom columns shown, or null for all.
+     * @return the values keyed by deployment id, then by lower cased column
+     *         name. Deployments without values are absent.
+     * @throws SQLException
+     *             if unable to execute custom values query
+     */
+    public Map<Long, Map<String, String>> getCustomValues(Collection<Long> deploymentIds, Collection<String> columns)
+            throws SQLException {
+        return getCustomValues(0, deploymentIds, columns);
+    }
+
+    /**
+     * @param month
+     *            the partition month of the deployments, 0 if not known.
+     */
+    private Map<Long, Map<String, String>> getCustomValues(int month, Collection<Long> deploymentIds,
+            Collection<String> columns) throws SQLException {
+        Map<Long, Map<String, String>> customValues = new HashMap<Long, Map<String, String>>();
+        if (deploymentIds.isEmpty() || (columns != null && columns.isEmpty())) {
+            return customValues;
+        }
+
+        // The id list is a single array parameter so the query text is fixed.
+        Object ids = deploymentIds.toArray();
+        for (HashMap<String, String> row : DashboardQuery.CUSTOM_VALUES.listMonth(month, ids)) {
+            String name = row.get("name");
+            if (columns != null && !columns.contains(name)) {
+                continue;
+            }
+            Long deploymentId = Long.valueOf(row.get("deploymentId"));
+            Map<String, String> values = customValues.get(deploymentId);
+            if (values == null) {
+                values = new HashMap<String, String>();
+                customValues.put(deploymentId, values);
+            }
+            values.put(name, row.get("value"));
+        }
+
+        return customValues;
+    }
+
+    /**
+     * Queue the custom column values of a build that has just been inserted.
+     *
+     * @return true if a column was added to the dictionary.
+     */
+    private static boolean addCustomValues(Connection conn, PreparedStatement insert, PreparedStatement values, Build b)
+            throws SQLException {
+        boolean newColumns = false;
+        ResultSet keys = insert.getGeneratedKeys();
+        keys.next();
+        long deploymentId = keys.getLong(1);
+        keys.close();
+
+        Map<String, Integer> columnIds = SchemaMetadataCache.getCustomColumnIds();
+        for (Map.Entry<String, String> column : b.getCustomColumns().entrySet()) {
+            String name = column.getKey().toLowerCase();
+            Integer columnId = columnIds.get(name);
+            if (columnId == null) {
+                columnId = DashboardDAO.getColumnId(conn, name);
+                newColumns = true;
+            }
+            DashboardDAO.setValues(values, deploymentId, columnId, column.getValue());
+            values.addBatch();
+        }
+        return newColumns;
+    }
+
+    /**
+     * Look up the dictionary id of a custom column, adding it if needed.
+     */
+    private static int getColumnId(Connection conn, String name) throws SQLException {
+        PreparedStatement find = conn.prepareStatement(DashboardDAO.findColumnQuery);
+        DashboardDAO.setValues(find, name);
+        ResultSet rs = find.executeQuery();
+        try {
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+        } finally {
+            find.close();
+        }
+
+        PreparedStatement insert = conn.prepareStatement(DashboardDAO.insertColumnQuery, Statement.RETURN_GENERATED_KEYS);
+        try {
+            DashboardDAO.setValues(insert, name);
+            insert.execute();
+            ResultSet keys = insert.getGeneratedKeys();
+            keys.next();
+            return keys.getInt(1);
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Update a build within the caller's transaction. The build's created_at
+     * becomes the time of the update, so a build recorded in an earlier
+     * month moves to the partition of the update's month.
+     *
+     * @param update
+     *            the update build query of the current month.
+     * @return the number of builds updated.
+     */
+    private static int recordUpdate(Connection conn, PreparedStatement update, int month, Timestamp time,
+            String status, String envComp, String url) throws SQLException {
+        DashboardDAO.setValues(update, status, time, envComp, url);
+        int updated = update.executeUpdate();
+        if (updated > 0) {
+            return updated;
+        }
+        for (int from : HistoryPartitions.newestFirst()) {
+            if (from < month) {
+                updated += DashboardDAO.moveBuild(conn, from, month, time, status, envComp, url);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Move a build and its custom column values to a newer partition,
+     * updating it on the way.
+     *
+     * @return the number of builds moved.
+     */
+    private static int moveBuild(Connection conn, int from, int to, Timestamp now, String status, String envComp,
+            String url) throws SQLException {
+        PreparedStatement find = conn.prepareStatement(HistoryPartitions.route(DashboardDAO.findBuildQuery, from));
+        DashboardDAO.setValues(find, envComp, url);
+        ResultSet rs = find.executeQuery();
+        rs.next();
+        int found = rs.getInt(1);
+        find.close();
+        if (found == 0) {
+            return 0;
+        }
+
+        PreparedStatement stat = conn.prepareStatement("INSERT INTO " + HistoryPartitions.valueTable(to)
+                + " (deploymentId, columnId, value) SELECT deploymentId, columnId, value FROM "
+                + HistoryPartitions.valueTable(from) + " WHERE deploymentId IN (SELECT id FROM "
+                + HistoryPartitions.historyTable(from) + " WHERE envComp = ? AND joburl = ?);");
+        DashboardDAO.setValues(stat, envComp, url);
+        stat.execute();
+        stat.close();
+
+        stat = conn.prepareStatement("INSERT INTO " + HistoryPartitions.historyTable(to) + " (" + latestColumns
+                + ") SELECT envComp, jobUrl, buildNum, ?, envName, compName, ?, buildJobUrl, packageName, id FROM "
+                + HistoryPartitions.historyTable(from) + " WHERE envComp = ? AND joburl = ?;");
+        DashboardDAO.setValues(stat, status, now, envComp, url);
+        int moved = stat.executeUpdate();
+        stat.close();
+
+        DashboardDAO.deleteBuild(conn, from, envComp, url);
+        return moved;
+    }
+
+    /**
+     * Delete a build and its custom column values from every partition,
+     * within the caller's transaction.
+     *
+     * @return the number of builds deleted.
+     */
+    private static int recordDelete(Connection conn, String envComp, String url) throws SQLException {
+        int deleted = 0;
+        for (int month : HistoryPartitions.newestFirst()) {
+            deleted += DashboardDAO.deleteBuild(conn, month, envComp, url);
+        }
+        return deleted;
+    }
+
+    private static int deleteBuild(Connection conn, int month, String envComp, String url) throws SQLException {
+        PreparedStatement values = conn.prepareStatement(
+                HistoryPartitions.route(DashboardDAO.deleteBuildValueQuery, month));
+        DashboardDAO.setValues(values, envComp, url);
+        values.execute();
+        values.close();
+
+        PreparedStatement stat = conn.prepareStatement(HistoryPartitions.route(DashboardDAO.deleteBuildQuery, month));
+        DashboardDAO.setValues(stat, envComp, url);
+        int deleted = stat.executeUpdate();
+        stat.close();
+        return deleted;
+    }
+
+    /**
+     * Replace the latest deployment of the build's envComp with the newest
+     * row in the history table, within the caller's transaction. The newest
+     * partition holding the envComp holds its newest row.
+     */
+    private static void refreshLatest(Connection conn, Build b) throws SQLException {
+        PreparedStatement delete = conn.prepareStatement(DashboardDAO.deleteLatestQuery);
+        DashboardDAO.setValues(delete, b.getEnvironment(), b.getComponantName());
+        delete.execute();
+        delete.close();
+
+        for (int month : HistoryPartitions.newestFirst()) {
+            PreparedStatement refresh = conn.prepareStatement(HistoryPartitions.route(DashboardDAO.refreshLatestQuery, month));
+            DashboardDAO.setValues(refresh, b.getEnvironment(), b.getComponantName());
+            int refreshed = refresh.executeUpdate();
+            refresh.close();
+            if (refreshed > 0) {
+                return;
+            }
+        }
+    }
+
+    private static void close(PreparedStatement... statements) throws SQLException {
+        for (PreparedStatement statement : statements) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    private static long count(Connection conn, String table) throws SQLException {
+        Statement stat = conn.createStatement();
+        try {
+            ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM " + table + ";");
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            stat.close();
+        }
+    }
+
+    /**
+     * Restore auto commit and return the connection to the pool. Every write
+     * transaction ends here, so this is where the data version changes.
+     */
+    private static void endTransaction(Connection conn) {
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            // Connection is unusable, closing it discards it.
+        }
+        DBConnection.closeConnection(conn);
+        DATA_VERSION.incrementAndGet();
+    }
+
+    /**
+     * Change the data version without a write, for changes to the dashboard
+     * data as read back, such as the in-memory read model.
+     */
+    static void dataChanged() {
+        DATA_VERSION.incrementAndGet();
+    }
+
+    /**
+     * @return the version of the dashboard data, it changes after every
+     *         write so an unchanged version means unchanged data.
+     */
+    public static long getDataVersion() {
+        return DATA_VERSION.get();
     }
 
     /**
@@ -234,4 +1320,4 @@ public class DashboardDAO {
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,507 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.h2.api.ErrorCode;
+import org.jenkinsci.plugins.environmentdashboard.entity.BuildStatus;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+import org.jenkinsci.plugins.environmentdashboard.utils.DashboardMetrics;
+
+/**
+ * Named, parameterized dashboard read queries.
+ *
+ * The SQL text of every query is fixed, limits and id lists are parameters
+ * too, so H2's per connection query cache parses and plans each query once
+ * per pooled connection rather than on every call. Each query records how
+ * often it ran and how long it took.
+ *
+ * History queries are written against the env_dashboard and
+ * env_dashboard_value views but run against the monthly partitions behind
+ * them, see {@link HistoryPartitions}.
+ */
+public enum DashboardQuery {
+
+    // Environments with recorded deployments, each has a latest deployment
+    ENVS("SELECT DISTINCT envName FROM env_dashboard_latest ORDER BY envName;", "envName"),
+
+    // Components with recorded deployments, each has a latest deployment
+    COMPS("SELECT DISTINCT compName FROM env_dashboard_latest ORDER BY compName;", "compName"),
+
+    // Latest deployment of every environment/component pair
+    LATEST("SELECT " + Columns.DEPLOYMENT + " FROM env_dashboard_latest;", Columns.DEPLOYMENT_FIELDS),
+
+    // Last deployments to an environment: envName, limit
+    ENV_HISTORY(Routing.LIMIT, "SELECT " + Columns.DEPLOYMENT + " FROM env_dashboard "
+            + "WHERE envName = ? ORDER BY created_at DESC, id DESC LIMIT ?;", Columns.DEPLOYMENT_FIELDS),
+
+    // Last deployments of a component: compName, limit
+    COMP_HISTORY(Routing.LIMIT, "SELECT " + Columns.DEPLOYMENT + " FROM env_dashboard "
+            + "WHERE compName = ? ORDER BY created_at DESC, id DESC LIMIT ?;", Columns.DEPLOYMENT_FIELDS),
+
+    // Last deployments of a component to an environment: compName, envName, limit
+    CELL_HISTORY(Routing.LIMIT, "SELECT " + Columns.DEPLOYMENT + " FROM env_dashboard "
+            + "WHERE compName = ? AND envName = ? ORDER BY created_at DESC, id DESC LIMIT ?;", Columns.DEPLOYMENT_FIELDS),
+
+    // Page of deployments to an environment older than a cursor: envName, cursor, limit
+    ENV_PAGE(Routing.CURSOR, "SELECT " + Columns.DEPLOYMENT + " FROM env_dashboard WHERE envName = ? AND " + Columns.BEFORE
+            + " ORDER BY created_at DESC, id DESC LIMIT ?;", Columns.DEPLOYMENT_FIELDS),
+
+    // Page of deployments of a component older than a cursor: compName, cursor, limit
+    COMP_PAGE(Routing.CURSOR, "SELECT " + Columns.DEPLOYMENT + " FROM env_dashboard WHERE compName = ? AND " + Columns.BEFORE
+            + " ORDER BY created_at DESC, id DESC LIMIT ?;", Columns.DEPLOYMENT_FIELDS),
+
+    // Page of deployments of a component to an environment older than a cursor, one row per
+    // custom value: compName, envName, cursor, limit
+    CELL_PAGE(Routing.CURSOR, "SELECT d.*, c.name, v.value FROM (SELECT " + Columns.DEPLOYMENT + " FROM env_dashboard "
+            + "WHERE compName = ? AND envName = ? AND " + Columns.BEFORE + " ORDER BY created_at DESC, id DESC LIMIT ?) d "
+            + "LEFT OUTER JOIN env_dashboard_value v ON v.deploymentId = d.id "
+            + "LEFT OUTER JOIN env_dashboard_column c ON c.id = v.columnId ORDER BY d.created_at DESC, d.id DESC;",
+            Columns.DEPLOYMENT_VALUE_FIELDS),
+
+    // Every deployment, cell by cell and newest first within a cell, one scan of each partition
+    RECENT(Routing.EVERY, "SELECT " + Columns.DEPLOYMENT + " FROM env_dashboard "
+            + "ORDER BY envName, compName, created_at DESC, id DESC;", Columns.DEPLOYMENT_FIELDS),
+
+    // Custom column values of a set of deployments: array of deployment ids
+    CUSTOM_VALUES(Routing.EVERY, "SELECT v.deploymentId, c.name, v.value FROM TABLE(id BIGINT = ?) ids "
+            + "INNER JOIN env_dashboard_value v ON v.deploymentId = ids.id "
+            + "INNER JOIN env_dashboard_column c ON c.id = v.columnId;",
+            "deploymentId", "name", "value");
+
+    /**
+     * Column lists shared by several queries, enum constants cannot refer
+     * to the enum's own static fields.
+     */
+    private static final class Columns {
+
+        // Deployment columns, in the order of the Deployment constructor
+        static final String DEPLOYMENT = "id, envName, compName, buildstatus, buildNum, jobUrl, buildJobUrl, "
+                + "created_at, packageName";
+
+        static final String[] DEPLOYMENT_FIELDS = {"id", "envName", "compName", "buildstatus", "buildNum",
+                "jobUrl", "buildJobUrl", "created_at", "packageName"};
+
+        // Deployment columns followed by a custom column name and value
+        static final String[] DEPLOYMENT_VALUE_FIELDS = {"id", "envName", "compName", "buildstatus", "buildNum",
+                "jobUrl", "buildJobUrl", "created_at", "packageName", "name", "value"};
+
+        // Keyset condition, deployments older than a cursor: created_at, created_at, id.
+        // The leading range lets H2 seek the created_at indexes.
+        static final String BEFORE = "created_at <= ? AND (created_at < ? OR id < ?)";
+    }
+
+    /**
+     * How a query on the history views is run against the monthly history
+     * partitions, see {@link HistoryPartitions}.
+     */
+    private enum Routing {
+
+        // Not a history query, run as it is
+        NONE,
+
+        // Newest partition first until the limit, the last parameter, is reached
+        LIMIT,
+
+        // As LIMIT, skipping partitions newer than the cursor, the parameters before the limit
+        CURSOR,
+
+        // Every partition, or the one given
+        EVERY
+    }
+
+    /**
+     * Receives deployments as a query reads them.
+     */
+    public abstract static class DeploymentVisitor {
+
+        /**
+         * @param deployment
+         *            the next deployment read.
+         * @return true to carry on reading, false to stop.
+         */
+        public abstract boolean visit(Deployment deployment);
+    }
+
+    /**
+     * Turns the current row of a result set into a result.
+     */
+    private abstract static class RowMapper<T> {
+        abstract T map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Handles each row of a result set as it is read.
+     */
+    private abstract static class RowHandler {
+
+        /**
+         * @return true to carry on reading, false to stop.
+         */
+        abstract boolean row(ResultSet rs) throws SQLException;
+
+        /**
+         * Called once every row has been handled.
+         */
+        void end() {
+        }
+    }
+
+    /* Queries run by the current thread, to count the queries of a render */
+    private static final ThreadLocal<long[]> THREAD_QUERIES = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final Routing routing;
+
+    private final String sql;
+
+    private final String[] fields;
+
+    /* SQL text routed to each partition month */
+    private final ConcurrentMap<Integer, String> routedSql = new ConcurrentHashMap<Integer, String>();
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param sql
+     *            the query.
+     * @param fields
+     *            the names to give the selected columns, in order.
+     */
+    DashboardQuery(String sql, String... fields) {
+        this(Routing.NONE, sql, fields);
+    }
+
+    /**
+     * @param routing
+     *            how the query is run against the history partitions.
+     * @param sql
+     *            the query, written against the history views.
+     * @param fields
+     *            the names to give the selected columns, in order.
+     */
+    DashboardQuery(Routing routing, String sql, String... fields) {
+        this.routing = routing;
+        this.sql = sql;
+        this.fields = fields;
+    }
+
+    /**
+     * Run the query on a pooled read connection.
+     *
+     * @param params
+     *            the query parameters, in order.
+     * @return a map of field name to value for each row.
+     * @throws SQLException
+     *             if unable to execute the query.
+     */
+    public ArrayList<HashMap<String, String>> list(Object... params) throws SQLException {
+        return listMonth(0, params);
+    }
+
+    /**
+     * Run a history query against the partition of a single month, on a
+     * pooled read connection.
+     *
+     * @param month
+     *            the partition month, yyyymm, or 0 for every partition.
+     * @param params
+     *            the query parameters, in order.
+     * @return a map of field name to value for each row.
+     * @throws SQLException
+     *             if unable to execute the query.
+     */
+    public ArrayList<HashMap<String, String>> listMonth(int month, Object... params) throws SQLException {
+        return query(new RowMapper<HashMap<String, String>>() {
+            @Override
+            HashMap<String, String> map(ResultSet rs) throws SQLException {
+                HashMap<String, String> row = new HashMap<String, String>();
+                for (int i = 0; i < fields.length; i++) {
+                    row.put(fields[i], rs.getString(i + 1));
+                }
+                return row;
+            }
+        }, month, params);
+    }
+
+    /**
+     * Run a query selecting deployments on a pooled read connection.
+     *
+     * @param params
+     *            the query parameters, in order.
+     * @return the deployments, without custom column values.
+     * @throws SQLException
+     *             if unable to execute the query.
+     */
+    public ArrayList<Deployment> deployments(Object... params) throws SQLException {
+        if (fields != Columns.DEPLOYMENT_FIELDS) {
+            throw new IllegalStateException(name() + " does not select deployments.");
+        }
+        return query(new RowMapper<Deployment>() {
+            @Override
+            Deployment map(ResultSet rs) throws SQLException {
+                return deployment(rs);
+            }
+        }, 0, params);
+    }
+
+    /**
+     * Run a query selecting deployments on a pooled read connection and hand
+     * each one to a visitor as it is read, so that a long history is never
+     * held in memory. Custom column values are attached if the query
+     * selects them.
+     *
+     * @param customColumns
+     *            the custom columns to attach values of, may be null.
+     * @param visitor
+     *            receives the deployments in query order.
+     * @param params
+     *            the query parameters, in order.
+     * @throws SQLException
+     *             if unable to execute the query.
+     */
+    public void stream(List<String> customColumns, final DeploymentVisitor visitor, Object... params)
+            throws SQLException {
+        final boolean withValues = fields == Columns.DEPLOYMENT_VALUE_FIELDS;
+        if (!withValues && fields != Columns.DEPLOYMENT_FIELDS) {
+            throw new IllegalStateException(name() + " does not select deployments.");
+        }
+        final String[] columns = new String[withValues && customColumns != null ? customColumns.size() : 0];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = customColumns.get(i).toLowerCase();
+        }
+
+        // Rows of one deployment are adjacent, one per custom value.
+        execute(new RowHandler() {
+            private Deployment current = null;
+
+            private String[] values = null;
+
+            @Override
+            boolean row(ResultSet rs) throws SQLException {
+                if (current != null && current.getId() != rs.getLong(1) && !visitCurrent()) {
+                    return false;
+                }
+                if (current == null) {
+                    current = deployment(rs);
+                }
+                if (withValues && rs.getString(10) != null) {
+                    for (int i = 0; i < columns.length; i++) {
+                        if (columns[i].equals(rs.getString(10))) {
+                            if (values == null) {
+                                values = new String[columns.length];
+                            }
+                            values[i] = rs.getString(11);
+                        }
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            void end() {
+                if (current != null) {
+                    visitCurrent();
+                }
+            }
+
+            private boolean visitCurrent() {
+                Deployment deployment = values == null ? current : current.withCustomValues(columns, values);
+                current = null;
+                values = null;
+                return visitor.visit(deployment);
+            }
+        }, 0, params);
+    }
+
+    /**
+     * @return the SQL text of the query.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the number of times the query ran.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the total time spent running the query, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * @return the longest time the query took, in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return the number of queries the current thread has run, compare two
+     *         readings to count the queries of a unit of work.
+     */
+    public static long getThreadQueryCount() {
+        return THREAD_QUERIES.get()[0];
+    }
+
+    private <T> ArrayList<T> query(final RowMapper<T> mapper, int month, Object... params) throws SQLException {
+        final ArrayList<T> rows = new ArrayList<T>();
+        execute(new RowHandler() {
+            @Override
+            boolean row(ResultSet rs) throws SQLException {
+                rows.add(mapper.map(rs));
+                return true;
+            }
+        }, month, params);
+        return rows;
+    }
+
+    private void execute(RowHandler handler, int month, Object... params) throws SQLException {
+        long start = System.nanoTime();
+
+        // Get DB Connection
+        Connection conn = DBConnection.getConnection();
+        try {
+            boolean more;
+            if (routing == Routing.NONE) {
+                more = read(conn, sql, handler, params);
+            } else if (month != 0) {
+                more = read(conn, routed(month), handler, params);
+            } else {
+                more = readPartitions(conn, handler, params);
+            }
+            if (more) {
+                handler.end();
+            }
+        } finally {
+            DBConnection.closeConnection(conn);
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return false if the handler stopped reading.
+     */
+    private static boolean read(Connection conn, String query, RowHandler handler, Object... params)
+            throws SQLException {
+        PreparedStatement stat = conn.prepareStatement(query);
+        try {
+            DashboardDAO.setValues(stat, params);
+            ResultSet rs = stat.executeQuery();
+            boolean more = true;
+            while (more && rs.next()) {
+                more = handler.row(rs);
+            }
+            rs.close();
+            return more;
+        } finally {
+            stat.close();
+        }
+    }
+
+    /**
+     * Run a history query against each partition in turn, newest first.
+     * Every row of a partition is older than the rows of newer partitions,
+     * so the rows come out in the order of the query.
+     *
+     * @return false if the handler stopped reading.
+     */
+    private boolean readPartitions(Connection conn, final RowHandler handler, Object... params)
+            throws SQLException {
+        Object[] partitionParams = params.clone();
+        int limit = routing == Routing.EVERY ? -1 : ((Number) params[params.length - 1]).intValue();
+        int newest = routing == Routing.CURSOR
+                ? HistoryPartitions.month(((Timestamp) params[params.length - 4]).getTime()) : Integer.MAX_VALUE;
+
+        // Rows of one deployment are adjacent, the limit counts deployments.
+        final int[] deployments = new int[1];
+        RowHandler counting = new RowHandler() {
+            private long last = 0;
+
+            @Override
+            boolean row(ResultSet rs) throws SQLException {
+                if (deployments[0] == 0 || rs.getLong(1) != last) {
+                    deployments[0]++;
+                    last = rs.getLong(1);
+                }
+                return handler.row(rs);
+            }
+        };
+
+        for (int month : HistoryPartitions.newestFirst()) {
+            if (limit == 0) {
+                break;
+            }
+            if (month > newest) {
+                continue;
+            }
+            if (limit > 0) {
+                partitionParams[params.length - 1] = limit;
+            }
+            deployments[0] = 0;
+            try {
+                if (!read(conn, routed(month), counting, partitionParams)) {
+                    return false;
+                }
+            } catch (SQLException e) {
+                // Retention may have dropped the partition since it was listed.
+                if (e.getErrorCode() != ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1 || HistoryPartitions.contains(month)) {
+                    throw e;
+                }
+            }
+            if (limit > 0) {
+                limit -= deployments[0];
+            }
+        }
+        return true;
+    }
+
+    private String routed(int month) {
+        String routed = routedSql.get(month);
+        if (routed == null) {
+            routed = HistoryPartitions.route(sql, month);
+            routedSql.put(month, routed);
+        }
+        return routed;
+    }
+
+    private static Deployment deployment(ResultSet rs) throws SQLException {
+        return new Deployment(rs.getLong(1), rs.getString(2), rs.getString(3), BuildStatus.parse(rs.getString(4)),
+                rs.getString(5), rs.getString(6), rs.getString(7), rs.getString(8), rs.getString(9));
+    }
+
+    private void record(long nanos) {
+        THREAD_QUERIES.get()[0]++;
+        DashboardMetrics.QUERIES.observe(name(), nanos / 1e9);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.jenkinsci.plugins.environmentdashboard.utils.DashboardMetrics;
+
+/**
+ * In-memory copy of the current dashboard state: the recent deployments of
+ * every environment/component cell, newest first. The
+ * {@link DashboardStore} stays the durable copy, the model is loaded from
+ * it at startup and each cell is re-read once a write to it is committed.
+ *
+ * Readers take no locks and run no queries, a cell is an immutable snapshot
+ * replaced as a whole. Loads and refreshes read the store without the class
+ * lock and only take it to put what they read in place. A load swaps the
+ * new cells in whole, one load at a time; readers keep the previous model
+ * meanwhile, and cells written while the store was read are read again
+ * before the swap. While the model is not loaded, over its memory budget or
+ * could not be refreshed, {@link #isLoaded()} is false and readers fall
+ * back to the database until the next reload.
+ */
+public class DashboardReadModel {
+
+    private static final Logger LOGGER = Logger.getLogger(DashboardReadModel.class.getName());
+
+    /* Number of recent deployments kept per cell */
+    private static final int HISTORY_SIZE = Integer.getInteger(
+            DashboardReadModel.class.getName() + ".historySize", 20);
+
+    /* Maximum number of deployments kept in memory, roughly 200 bytes each */
+    private static final int MAX_DEPLOYMENTS = Integer.getInteger(
+            DashboardReadModel.class.getName() + ".maxDeployments", 100000);
+
+    /* Newest deployment first, deployments without a time last as in the database */
+    private static final Comparator<Deployment> NEWEST_FIRST = new Comparator<Deployment>() {
+        public int compare(Deployment a, Deployment b) {
+            if (a.getCreatedAt() == null || b.getCreatedAt() == null) {
+                if (a.getCreatedAt() != b.getCreatedAt()) {
+                    return a.getCreatedAt() == null ? 1 : -1;
+                }
+            } else {
+                int created = b.getCreatedAt().compareTo(a.getCreatedAt());
+                if (created != 0) {
+                    return created;
+                }
+            }
+            return b.getId() < a.getId() ? -1 : (b.getId() == a.getId() ? 0 : 1);
+        }
+    };
+
+    /* Held by the load in progress */
+    private static final Object LOADING = new Object();
+
+    /* Recent deployments by cell key, null while not loaded. */
+    private static volatile ConcurrentHashMap<String, Deployment[]> cells = null;
+
+    /* Number of deployments in cells, guarded by the class lock. */
+    private static int deployments = 0;
+
+    /* Cells written while a load reads the store, null while none does. Guarded by the class lock. */
+    private static Map<String, Build> written = null;
+
+    private static volatile int maxDeployments = MAX_DEPLOYMENTS;
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private DashboardReadModel() {
+
+    }
+
+    /**
+     * @return true if reads can be served from the model.
+     */
+    public static boolean isLoaded() {
+        return cells != null;
+    }
+
+    /**
+     * @return the number of recent deployments kept per cell, longer
+     *         histories have to be read from the database.
+     */
+    public static int getHistorySize() {
+        return HISTORY_SIZE;
+    }
+
+    /**
+     * @return the number of deployments held in memory.
+     */
+    public static synchronized int size() {
+        return cells == null ? 0 : deployments;
+    }
+
+    /**
+     * @return the maximum number of deployments kept in memory.
+     */
+    static int getMaxDeployments() {
+        return maxDeployments;
+    }
+
+    /**
+     * Change the memory budget, for tests. It applies from the next load or
+     * refresh.
+     *
+     * @param max
+     *            the maximum number of deployments kept in memory.
+     */
+    static void setMaxDeployments(int max) {
+        maxDeployments = max;
+    }
+
+    /**
+     * Load the model from the store, replacing the current one once the new
+     * one is read. On failure readers fall back to the database.
+     *
+     * @return true if the model was loaded within its memory budget.
+     * @throws SQLException
+     *             if unable to read the dashboard state.
+     */
+    public static boolean load() throws SQLException {
+        long start = System.nanoTime();
+        synchronized (LOADING) {
+            try {
+                return loadCells();
+            } finally {
+                DashboardMetrics.OPERATIONS.observeSince("readModelLoad", start);
+            }
+        }
+    }
+
+    private static boolean loadCells() throws SQLException {
+        synchronized (DashboardReadModel.class) {
+            written = new LinkedHashMap<String, Build>();
+        }
+        boolean installed = false;
+        try {
+            DashboardStore store = DashboardStore.get();
+            Map<String, List<Deployment>> recent = store.getRecentByCell(HISTORY_SIZE, maxDeployments,
+                    store.getCustomColumns());
+            if (recent == null) {
+                LOGGER.warning("Dashboard state exceeds " + maxDeployments
+                        + " deployments, reading it from the database.");
+                return false;
+            }
+            ConcurrentHashMap<String, Deployment[]> loaded = new ConcurrentHashMap<String, Deployment[]>(
+                    recent.size() * 4 / 3 + 1);
+            for (Map.Entry<String, List<Deployment>> cell : recent.entrySet()) {
+                if (!cell.getValue().isEmpty()) {
+                    loaded.put(cell.getKey(), cell.getValue().toArray(new Deployment[cell.getValue().size()]));
+                }
+            }
+
+            // Read again the cells written meanwhile, without the lock, until none were.
+            while (true) {
+                Map<String, Build> missed;
+                synchronized (DashboardReadModel.class) {
+                    missed = written;
+                    if (missed.isEmpty()) {
+                        installed = true;
+                        return install(loaded);
+                    }
+                    written = new LinkedHashMap<String, Build>();
+                }
+                putCells(loaded, readCells(missed));
+            }
+        } finally {
+            if (!installed) {
+                install(null);
+            }
+        }
+    }
+
+    /**
+     * Put a loaded model in place of the current one, or drop the current
+     * one if null, and stop tracking the cells written.
+     *
+     * @return true if the model is in place.
+     */
+    private static boolean install(ConcurrentHashMap<String, Deployment[]> loaded) {
+        synchronized (DashboardReadModel.class) {
+            written = null;
+            int count = 0;
+            if (loaded != null) {
+                for (Deployment[] recent : loaded.values()) {
+                    count += recent.length;
+                }
+                if (count > maxDeployments) {
+                    LOGGER.warning("Dashboard state exceeds " + maxDeployments
+                            + " deployments, reading it from the database.");
+                    loaded = null;
+                }
+            }
+            cells = loaded;
+            deployments = loaded == null ? 0 : count;
+        }
+        DashboardDAO.dataChanged();
+        return loaded != null;
+    }
+
+    /**
+     * Reload the model after a change to many cells, such as a purge, if it
+     * is loaded. On failure readers fall back to the database until the
+     * next reconciliation.
+     */
+    public static void reload() {
+        if (cells == null) {
+            return;
+        }
+        try {
+            load();
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Could not load the dashboard state, reading it from the database.", e);
+        }
+    }
+
+    /**
+     * Drop the model, readers go to the database until it is loaded again.
+     */
+    public static void clear() {
+        synchronized (DashboardReadModel.class) {
+            cells = null;
+            deployments = 0;
+        }
+        DashboardDAO.dataChanged();
+    }
+
+    /**
+     * Re-read the cells changed by committed writes. The store is read
+     * without the lock, which is only taken to put the cells in; refreshes
+     * come from the single writer thread, so the cells read are the newest.
+     *
+     * @param events
+     *            the committed write events.
+     */
+    public static void refresh(List<DashboardWriteQueue.Event> events) {
+        Map<String, Build> changed = new LinkedHashMap<String, Build>();
+        for (DashboardWriteQueue.Event event : events) {
+            Build build = event.getBuild();
+            changed.put(key(build.getEnvironment(), build.getComponantName()), build);
+        }
+        synchronized (DashboardReadModel.class) {
+            if (written != null) {
+                written.putAll(changed);
+            }
+            if (cells == null) {
+                return;
+            }
+        }
+        long start = System.nanoTime();
+
+        Map<String, Deployment[]> read = null;
+        try {
+            read = readCells(changed);
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Could not refresh the dashboard state, reading it from the database.", e);
+        }
+        synchronized (DashboardReadModel.class) {
+            ConcurrentHashMap<String, Deployment[]> current = cells;
+            if (current != null && read == null) {
+                cells = null;
+            } else if (current != null) {
+                deployments += putCells(current, read);
+                if (deployments > maxDeployments) {
+                    LOGGER.warning("Dashboard state exceeds " + maxDeployments
+                            + " deployments, reading it from the database.");
+                    cells = null;
+                }
+            }
+        }
+        DashboardDAO.dataChanged();
+        DashboardMetrics.OPERATIONS.observeSince("readModelRefresh", start);
+    }
+
+    /**
+     * Read cells from the store.
+     *
+     * @return the recent deployments by cell key, empty for a cell that no
+     *         longer has any.
+     */
+    private static Map<String, Deployment[]> readCells(Map<String, Build> changed) throws SQLException {
+        Map<String, Deployment[]> read = new LinkedHashMap<String, Deployment[]>();
+        if (changed.isEmpty()) {
+            return read;
+        }
+        DashboardStore store = DashboardStore.get();
+        List<String> customColumns = store.getCustomColumns();
+        for (Map.Entry<String, Build> cell : changed.entrySet()) {
+            Build build = cell.getValue();
+            List<Deployment> recent = store.getRecent(build.getEnvironment(), build.getComponantName(),
+                    HISTORY_SIZE, customColumns);
+            read.put(cell.getKey(), recent.toArray(new Deployment[recent.size()]));
+        }
+        return read;
+    }
+
+    /**
+     * Put cells read from the store into a model.
+     *
+     * @return the change in the number of deployments held.
+     */
+    private static int putCells(ConcurrentHashMap<String, Deployment[]> model, Map<String, Deployment[]> read) {
+        int delta = 0;
+        for (Map.Entry<String, Deployment[]> cell : read.entrySet()) {
+            Deployment[] recent = cell.getValue();
+            Deployment[] previous = recent.length == 0 ? model.remove(cell.getKey())
+                    : model.put(cell.getKey(), recent);
+            delta += recent.length - (previous == null ? 0 : previous.length);
+        }
+        return delta;
+    }
+
+    /**
+     * Compare the latest deployment of every cell with the database, and
+     * reload the model if any differ or if it is not loaded.
+     *
+     * @return the number of cells that differed.
+     * @throws SQLException
+     *             if unable to read the dashboard state.
+     */
+    public static int reconcile() throws SQLException {
+        ConcurrentHashMap<String, Deployment[]> current = cells;
+        if (current == null) {
+            load();
+            return 0;
+        }
+        int stale = 0;
+        int present = 0;
+        for (Deployment deployment : DashboardStore.get().getLatest()) {
+            Deployment[] recent = current.get(key(deployment.getEnv(), deployment.getComp()));
+            if (recent != null) {
+                present++;
+            }
+            if (recent == null || recent[0].getId() != deployment.getId()
+                    || recent[0].getStatus() != deployment.getStatus()) {
+                stale++;
+            }
+        }
+        // Cells in memory that are no longer deployed.
+        stale += current.size() - present;
+        if (stale > 0) {
+            load();
+        }
+        return stale;
+    }
+
+    /**
+     * @return the deployed environments in name order, or null if not
+     *         loaded.
+     */
+    public static List<String> getEnvs() {
+        ConcurrentHashMap<String, Deployment[]> current = cells;
+        if (current == null) {
+            return null;
+        }
+        TreeSet<String> envs = new TreeSet<String>();
+        for (Deployment[] recent : current.values()) {
+            envs.add(recent[0].getEnv());
+        }
+        return new ArrayList<String>(envs);
+    }
+
+    /**
+     * @return the deployed components in name order, or null if not loaded.
+     */
+    public static List<String> getComps() {
+        ConcurrentHashMap<String, Deployment[]> current = cells;
+        if (current == null) {
+            return null;
+        }
+        TreeSet<String> comps = new TreeSet<String>();
+        for (Deployment[] recent : current.values()) {
+            comps.add(recent[0].getComp());
+        }
+        return new ArrayList<String>(comps);
+    }
+
+    /**
+     * @return the latest deployment of every cell, or null if not loaded.
+     */
+    public static List<Deployment> getLatest() {
+        ConcurrentHashMap<String, Deployment[]> current = cells;
+        if (current == null) {
+            return null;
+        }
+        List<Deployment> latest = new ArrayList<Deployment>(current.size());
+        for (Deployment[] recent : current.values()) {
+            latest.add(recent[0]);
+        }
+        return latest;
+    }
+
+    /**
+     * Recent deployments, newest first.
+     *
+     * @param env
+     *            the environment, or null for all.
+     * @param comp
+     *            the component, or null for all.
+     * @param limit
+     *            the maximum number of deployments.
+     * @return the deployments, or null if the model is not loaded or does
+     *         not hold that many per cell.
+     */
+    public static List<Deployment> getHistory(String env, String comp, int limit) {
+        ConcurrentHashMap<String, Deployment[]> current = cells;
+        if (current == null || limit > HISTORY_SIZE) {
+            return null;
+        }
+        if (env != null && comp != null) {
+            Deployment[] recent = current.get(key(env, comp));
+            if (recent == null) {
+                return Collections.emptyList();
+            }
+            List<Deployment> history = new ArrayList<Deployment>(Math.min(limit, recent.length));
+            for (int i = 0; i < recent.length && i < limit; i++) {
+                history.add(recent[i]);
+            }
+            return history;
+        }
+
+        // The newest deployments overall are among the newest of each cell.
+        List<Deployment> history = new ArrayList<Deployment>();
+        for (Deployment[] recent : current.values()) {
+            if ((env == null || env.equals(recent[0].getEnv())) && (comp == null || comp.equals(recent[0].getComp()))) {
+                for (int i = 0; i < recent.length && i < limit; i++) {
+                    history.add(recent[i]);
+                }
+            }
+        }
+        Collections.sort(history, NEWEST_FIRST);
+        return history.size() > limit ? new ArrayList<Deployment>(history.subList(0, limit)) : history;
+    }
+
+    private static String key(String env, String comp) {
+        return env + '=' + comp;
+    }
+}
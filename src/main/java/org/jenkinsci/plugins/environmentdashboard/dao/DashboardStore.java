@@ -0,0 +1,259 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+
+/**
+ * Where the dashboard keeps its deployments: recording, updating and
+ * deleting them, the latest deployment of every environment/component
+ * cell, history pages and retention.
+ *
+ * One store is in use at a time, chosen in the global configuration. The
+ * write queue, the read model, views and retention all go through it:
+ * <ul>
+ * <li>embedded - the H2 database file next to JENKINS_HOME, the default.</li>
+ * <li>server - an H2 database served over TCP from another process.</li>
+ * <li>memory - deployments held in memory only, lost at restart. For
+ * tests and benchmarks.</li>
+ * </ul>
+ */
+public abstract class DashboardStore {
+
+    private static final Logger LOGGER = Logger.getLogger(DashboardStore.class.getName());
+
+    /** The embedded H2 store. */
+    public static final String EMBEDDED = "embedded";
+
+    /** The H2 store on a TCP server. */
+    public static final String SERVER = "server";
+
+    /** The in-memory store. */
+    public static final String MEMORY = "memory";
+
+    /* Store in use, the embedded database until configured. */
+    private static volatile DashboardStore current = null;
+
+    /**
+     * @return the store in use.
+     */
+    public static DashboardStore get() {
+        DashboardStore store = current;
+        if (store != null) {
+            return store;
+        }
+        synchronized (DashboardStore.class) {
+            if (current == null) {
+                current = create(EMBEDDED, null);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Close the store in use and open another one in its place. The
+     * dashboard data is not copied across.
+     *
+     * @param store
+     *            the store to use.
+     * @throws SQLException
+     *             if unable to open the store, it is in use all the same.
+     */
+    public static synchronized void use(DashboardStore store) throws SQLException {
+        // The H2 stores share the connection pools, so close before opening.
+        if (current != null) {
+            current.close();
+        }
+        current = store;
+        store.open();
+    }
+
+    /**
+     * @param type
+     *            embedded, server or memory.
+     * @param serverUrl
+     *            the JDBC URL of the server store, ignored by the others.
+     * @return the store, not yet opened.
+     */
+    public static DashboardStore create(String type, String serverUrl) {
+        if (MEMORY.equals(type)) {
+            return new MemoryDashboardStore();
+        }
+        if (SERVER.equals(type)) {
+            if (serverUrl != null && !serverUrl.trim().equals("")) {
+                return new H2DashboardStore(null, serverUrl.trim());
+            }
+            LOGGER.warning("No dashboard database server URL set, using the embedded database.");
+        } else if (type != null && !EMBEDDED.equals(type)) {
+            LOGGER.warning("Unknown dashboard store " + type + ", using the embedded database.");
+        }
+        return new H2DashboardStore(null, null);
+    }
+
+    /**
+     * @return embedded, server or memory.
+     */
+    public abstract String getType();
+
+    /**
+     * Make the store ready for use, bringing its schema up to date.
+     *
+     * @throws SQLException
+     *             if unable to reach the store.
+     */
+    public abstract void open() throws SQLException;
+
+    /**
+     * Release the resources of the store, updates queued since are lost.
+     */
+    public abstract void close();
+
+    /**
+     * Record a batch of dashboard updates, in order, all or none of them.
+     *
+     * @param events
+     *            the updates, in the order they were queued.
+     * @throws SQLException
+     *             if any update fails, none of the batch is recorded.
+     */
+    public abstract void write(List<DashboardWriteQueue.Event> events) throws SQLException;
+
+    /**
+     * @return the latest deployment of every cell, custom values may be
+     *         left out.
+     * @throws SQLException
+     *             if unable to read the store.
+     */
+    public abstract List<Deployment> getLatest() throws SQLException;
+
+    /**
+     * @return the environments with deployments, in name order.
+     * @throws SQLException
+     *             if unable to read the store.
+     */
+    public abstract List<String> getEnvs() throws SQLException;
+
+    /**
+     * @return the components with deployments, in name order.
+     * @throws SQLException
+     *             if unable to read the store.
+     */
+    public abstract List<String> getComps() throws SQLException;
+
+    /**
+     * @return the custom columns recorded, in the order they were added.
+     * @throws SQLException
+     *             if unable to read the store.
+     */
+    public abstract List<String> getCustomColumns() throws SQLException;
+
+    /**
+     * Remove a custom column and all of its recorded values.
+     *
+     * @param column
+     *            the column to remove.
+     * @return true if removed, false if there is no such column.
+     * @throws SQLException
+     *             if unable to remove the column.
+     */
+    public abstract boolean dropColumn(String column) throws SQLException;
+
+    /**
+     * The recent deployments of a scope, newest first, from the live
+     * history only: archived deployments are left out.
+     *
+     * @param env
+     *            the environment, or null for all.
+     * @param comp
+     *            the component, or null for all. One of env and comp must be
+     *            set.
+     * @param limit
+     *            the maximum number of deployments.
+     * @param customColumns
+     *            the custom columns to attach values of, may be null for
+     *            none.
+     * @return the deployments.
+     * @throws SQLException
+     *             if unable to read the store.
+     */
+    public abstract List<Deployment> getRecent(String env, String comp, int limit, List<String> customColumns)
+            throws SQLException;
+
+    /**
+     * The recent deployments of every cell, newest first, from the live
+     * history only, read in one pass over the store rather than one read per
+     * cell.
+     *
+     * @param perCell
+     *            the maximum number of deployments of a cell.
+     * @param limit
+     *            the maximum number of deployments in all.
+     * @param customColumns
+     *            the custom columns to attach values of, may be null for
+     *            none.
+     * @return the deployments by env=comp cell key, or null if there are
+     *         more than the limit.
+     * @throws SQLException
+     *             if unable to read the store.
+     */
+    public abstract Map<String, List<Deployment>> getRecentByCell(int perCell, int limit, List<String> customColumns)
+            throws SQLException;
+
+    /**
+     * Read the deployments of a scope strictly older than a cursor, newest
+     * first and archived deployments included, until the limit is reached
+     * or the visitor has had enough.
+     *
+     * @param env
+     *            the environment, or null for all.
+     * @param comp
+     *            the component, or null for all. One of env and comp must be
+     *            set.
+     * @param before
+     *            the position to read after.
+     * @param limit
+     *            the maximum number of deployments.
+     * @param customColumns
+     *            the custom columns to attach values of, may be null.
+     * @param visitor
+     *            receives the deployments.
+     * @return false if the visitor stopped the read.
+     * @throws SQLException
+     *             if unable to read the store.
+     * @throws IOException
+     *             if unable to read the archive.
+     */
+    public abstract boolean readHistory(String env, String comp, HistoryCursor before, int limit,
+            List<String> customColumns, DashboardQuery.DeploymentVisitor visitor) throws SQLException, IOException;
+
+    /**
+     * Delete the deployments older than a number of days.
+     *
+     * @param daysOld
+     *            delete deployments older than this many days.
+     * @param chunkSize
+     *            the maximum number of deployments deleted at a time.
+     * @return the number of deployments deleted.
+     * @throws SQLException
+     *             if unable to delete them.
+     */
+    public abstract int purge(int daysOld, int chunkSize) throws SQLException;
+
+    /**
+     * Move whole months older than a number of days to the archive, if the
+     * store has one.
+     *
+     * @param daysHot
+     *            keep deployments newer than this many days live.
+     * @return the number of deployments archived.
+     * @throws SQLException
+     *             if unable to read or delete them.
+     * @throws IOException
+     *             if unable to write the archive.
+     */
+    public abstract int archive(int daysHot) throws SQLException, IOException;
+}
@@ -0,0 +1,398 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+
+/**
+ * Write-behind queue for dashboard updates.
+ *
+ * Build threads enqueue deployment events and return straight away, a
+ * single writer thread drains the queue and records the events in batches
+ * to the {@link DashboardStore}, each batch in one transaction. Events are written in the order they were
+ * queued, so the updates of an envComp are never reordered.
+ *
+ * The queue is bounded, when it is full the overflow policy decides whether
+ * the build waits for room or the event is dropped. The writer can be paused
+ * for database maintenance, builds keep queueing events meanwhile.
+ */
+public class DashboardWriteQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(DashboardWriteQueue.class.getName());
+
+    /**
+     * What to do with an event when the queue is full.
+     */
+    public enum Overflow {
+        /** Wait up to the block timeout for room, then drop the event. */
+        BLOCK,
+        /** Drop the event straight away. */
+        DROP
+    }
+
+    /* Maximum number of queued events */
+    private static final int CAPACITY = Integer.getInteger(
+            DashboardWriteQueue.class.getName() + ".capacity", 10000);
+
+    /* Maximum number of events written in one transaction */
+    private static final int BATCH_SIZE = Integer.getInteger(
+            DashboardWriteQueue.class.getName() + ".batchSize", 100);
+
+    /* Milliseconds a build waits for room with the BLOCK policy */
+    private static final long BLOCK_TIMEOUT = Long.getLong(
+            DashboardWriteQueue.class.getName() + ".blockTimeout", 5000L);
+
+    private static final Overflow OVERFLOW = parseOverflow(System.getProperty(
+            DashboardWriteQueue.class.getName() + ".overflow"));
+
+    private static volatile LinkedBlockingQueue<Event> queue = new LinkedBlockingQueue<Event>(CAPACITY);
+
+    private static volatile int batchSize = BATCH_SIZE;
+
+    private static volatile long blockTimeout = BLOCK_TIMEOUT;
+
+    private static volatile Overflow overflow = OVERFLOW;
+
+    private static final AtomicLong WRITTEN = new AtomicLong();
+
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private static final AtomicLong FAILED = new AtomicLong();
+
+    /* Held by the writer while it records a batch, and by whoever pauses it */
+    private static final ReentrantLock WRITING = new ReentrantLock();
+
+    private static Thread writer = null;
+
+    private static volatile boolean accepting = true;
+
+    /**
+     * A dashboard update recorded by a build.
+     */
+    public static final class Event {
+
+        /**
+         * The change to make to the dashboard.
+         */
+        public enum Type {
+            /** Record a new deployment. */
+            ADD,
+            /** Update the status of a recorded deployment. */
+            UPDATE,
+            /** Remove a recorded deployment. */
+            DELETE
+        }
+
+        private final Type type;
+
+        private final String envComp;
+
+        private final Build build;
+
+        private final long time;
+
+        /**
+         * An event of the build at the current time, so that the deployment
+         * is recorded at the time of the build however long it is queued.
+         *
+         * @param type
+         *            the change to make.
+         * @param envComp
+         *            the environment component key.
+         * @param build
+         *            the build being recorded.
+         */
+        public Event(Type type, String envComp, Build build) {
+            this(type, envComp, build, System.currentTimeMillis());
+        }
+
+        Event(Type type, String envComp, Build build, long time) {
+            this.type = type;
+            this.envComp = envComp;
+            this.build = build;
+            this.time = time;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getEnvComp() {
+            return envComp;
+        }
+
+        public Build getBuild() {
+            return build;
+        }
+
+        /**
+         * @return when the event was queued, in milliseconds since the
+         *         epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private DashboardWriteQueue() {
+
+    }
+
+    /**
+     * Queue an event for the writer thread, starting it if needed.
+     *
+     * @param event
+     *            the event to record.
+     * @return true if queued, false if the event was dropped because the
+     *         queue is full or shut down.
+     * @throws InterruptedException
+     *             if interrupted while waiting for room.
+     */
+    public static boolean enqueue(Event event) throws InterruptedException {
+        if (!accepting) {
+            DROPPED.incrementAndGet();
+            return false;
+        }
+        startWriter();
+
+        boolean queued;
+        if (overflow == Overflow.BLOCK) {
+            queued = queue.offer(event, blockTimeout, TimeUnit.MILLISECONDS);
+        } else {
+            queued = queue.offer(event);
+        }
+        if (!queued) {
+            DROPPED.incrementAndGet();
+            LOGGER.warning("Dashboard update queue is full, dropped update of " + event.getEnvComp() + ".");
+        }
+        return queued;
+    }
+
+    /**
+     * Stop accepting events and wait for the writer to record the events
+     * already queued.
+     *
+     * @param timeoutMillis
+     *            the maximum time to wait.
+     * @return true if every queued event was recorded in time.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public static boolean shutdown(long timeoutMillis) throws InterruptedException {
+        accepting = false;
+        Thread current;
+        synchronized (DashboardWriteQueue.class) {
+            current = writer;
+        }
+        if (current != null) {
+            current.join(timeoutMillis);
+        }
+        return queue.isEmpty() && (current == null || !current.isAlive());
+    }
+
+    /**
+     * Stop the writer, forget the queued events and counts, and start over
+     * accepting events with other settings. For tests.
+     *
+     * @param capacity
+     *            the maximum number of queued events.
+     * @param batch
+     *            the maximum number of events written in one transaction.
+     * @param policy
+     *            what to do with an event when the queue is full.
+     * @param timeoutMillis
+     *            how long a build waits for room with the BLOCK policy.
+     * @throws InterruptedException
+     *             if interrupted while waiting for the writer to stop.
+     */
+    static void reset(int capacity, int batch, Overflow policy, long timeoutMillis) throws InterruptedException {
+        Thread current;
+        synchronized (DashboardWriteQueue.class) {
+            accepting = false;
+            current = writer;
+        }
+        // Joined without the lock, the writer takes it to clear itself.
+        if (current != null) {
+            current.interrupt();
+            current.join();
+        }
+        synchronized (DashboardWriteQueue.class) {
+            queue = new LinkedBlockingQueue<Event>(capacity);
+            batchSize = batch;
+            overflow = policy;
+            blockTimeout = timeoutMillis;
+            WRITTEN.set(0);
+            DROPPED.set(0);
+            FAILED.set(0);
+            accepting = true;
+        }
+    }
+
+    /**
+     * @return the writer thread, or null if none is running. For tests.
+     */
+    static synchronized Thread getWriter() {
+        return writer;
+    }
+
+    /**
+     * Wait for the writer to finish the batch it is recording and keep it
+     * from starting another until {@link #resume()} is called by the same
+     * thread. Events are still queued while paused.
+     *
+     * @param timeoutMillis
+     *            the maximum time to wait for the batch.
+     * @return true if paused, false if the batch took longer.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public static boolean pause(long timeoutMillis) throws InterruptedException {
+        return WRITING.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Let the writer record the events queued while paused.
+     */
+    public static void resume() {
+        WRITING.unlock();
+    }
+
+    /**
+     * @return the number of events waiting to be recorded.
+     */
+    public static int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of events recorded.
+     */
+    public static long getWritten() {
+        return WRITTEN.get();
+    }
+
+    /**
+     * @return the number of events dropped because the queue was full.
+     */
+    public static long getDropped() {
+        return DROPPED.get();
+    }
+
+    /**
+     * @return the number of events that could not be recorded.
+     */
+    public static long getFailed() {
+        return FAILED.get();
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread("Environment dashboard writer") {
+            @Override
+            public void run() {
+                try {
+                    drain();
+                } finally {
+                    // Let the next event start another writer.
+                    synchronized (DashboardWriteQueue.class) {
+                        if (writer == this) {
+                            writer = null;
+                        }
+                    }
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static void drain() {
+        List<Event> batch = new ArrayList<Event>(batchSize);
+        while (true) {
+            try {
+                Event first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    if (!accepting) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                WRITING.lockInterruptibly();
+                try {
+                    write(batch);
+                } finally {
+                    WRITING.unlock();
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warning("Dashboard writer interrupted with " + (queue.size() + batch.size()) + " updates queued.");
+                return;
+            } catch (RuntimeException e) {
+                // Keep the writer alive, the batch is lost.
+                FAILED.addAndGet(batch.size());
+                LOGGER.log(Level.SEVERE, "Could not record dashboard updates.", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static void write(List<Event> batch) {
+        DashboardStore store = DashboardStore.get();
+        try {
+            store.write(batch);
+            WRITTEN.addAndGet(batch.size());
+            DashboardReadModel.refresh(batch);
+            for (Event event : batch) {
+                publish(event);
+            }
+        } catch (SQLException e) {
+            /* Retry one at a time, in order, so that one bad event does not
+             * lose the rest of the batch. */
+            LOGGER.log(Level.FINE, "Dashboard batch failed, retrying events one at a time.", e);
+            for (Event event : batch) {
+                try {
+                    store.write(Collections.singletonList(event));
+                    WRITTEN.incrementAndGet();
+                    DashboardReadModel.refresh(Collections.singletonList(event));
+                    publish(event);
+                } catch (SQLException eventException) {
+                    FAILED.incrementAndGet();
+                    LOGGER.log(Level.WARNING, "Could not record dashboard update of " + event.getEnvComp() + ".",
+                            eventException);
+                }
+            }
+        }
+    }
+
+    private static void publish(Event event) {
+        DashboardChangeFeed.publish(event.getBuild().getEnvironment(), event.getBuild().getComponantName());
+    }
+
+    private static Overflow parseOverflow(String value) {
+        if (value == null) {
+            return Overflow.DROP;
+        }
+        try {
+            return Overflow.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Unknown dashboard queue overflow policy " + value + ", dropping updates when full.");
+            return Overflow.DROP;
+        }
+    }
+}
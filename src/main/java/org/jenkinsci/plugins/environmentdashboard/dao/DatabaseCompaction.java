@@ -0,0 +1,239 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+import org.jenkinsci.plugins.environmentdashboard.utils.DashboardMetrics;
+
+/**
+ * Reports how much of the dashboard H2 file holds live data and compacts it.
+ *
+ * H2 appends changed pages to the file and only reuses the space of dead
+ * ones, so the inserts, status updates and retention deletes of the
+ * dashboard leave the file several times larger than its data. Compaction
+ * runs SHUTDOWN DEFRAG, which rewrites the live pages into a new file; the
+ * time-boxed SHUTDOWN COMPACT of this H2 version can leave the file larger
+ * than before. The database is closed while it is rewritten, so the write
+ * queue is paused and builds keep queueing their updates, renders are served
+ * by the read model but other reads that reach the database fail. Only the
+ * embedded database is compacted: SHUTDOWN DEFRAG on a server database would
+ * close it under every other client.
+ *
+ * The fill rate is an estimate: live rows times the bytes a row took right
+ * after the last compaction, over the file size.
+ *
+ * Counting rows scans every table, so the last report taken is kept for the
+ * metrics; reconciliation, retention and compaction take a new one.
+ */
+public class DatabaseCompaction {
+
+    private static final Logger LOGGER = Logger.getLogger(DatabaseCompaction.class.getName());
+
+    /* Bytes a row takes in a compacted file, until one is measured */
+    private static final long BYTES_PER_ROW = Long.getLong(
+            DatabaseCompaction.class.getName() + ".bytesPerRow", 64L);
+
+    /* Files smaller than this are not worth compacting on schedule */
+    private static final long MIN_FILE_SIZE = Long.getLong(
+            DatabaseCompaction.class.getName() + ".minFileSize", 64L * 1024 * 1024);
+
+    /* Rows needed before the bytes per row of a compacted file are trusted */
+    private static final long MIN_MEASURED_ROWS = 10000;
+
+    /* Milliseconds to wait for the writer to finish its batch */
+    private static final long PAUSE_TIMEOUT = 30000;
+
+    /* Bytes per row measured at the last compaction */
+    private static volatile long bytesPerRow = BYTES_PER_ROW;
+
+    /* Last report taken, null until one is */
+    private static volatile Report lastReport = null;
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private DatabaseCompaction() {
+
+    }
+
+    /**
+     * The size of the database file and its live rows at one point.
+     */
+    public static final class Report {
+
+        private final long fileBytes;
+
+        private final Map<String, Long> rows;
+
+        private final long liveRows;
+
+        Report(long fileBytes, Map<String, Long> rows) {
+            this.fileBytes = fileBytes;
+            this.rows = rows;
+            long live = 0;
+            for (Long count : rows.values()) {
+                live += count;
+            }
+            this.liveRows = live;
+        }
+
+        /**
+         * @return the size of the database file.
+         */
+        public long getFileBytes() {
+            return fileBytes;
+        }
+
+        /**
+         * @return the rows of each dashboard table.
+         */
+        public Map<String, Long> getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the rows of all dashboard tables.
+         */
+        public long getLiveRows() {
+            return liveRows;
+        }
+
+        /**
+         * @return the estimated share of the file holding live rows, 0 to 1.
+         */
+        public double getFillRate() {
+            if (fileBytes == 0) {
+                return 1;
+            }
+            return Math.min(1, (double) liveRows * bytesPerRow / fileBytes);
+        }
+
+        @Override
+        public String toString() {
+            return fileBytes + " bytes, " + liveRows + " rows, " + Math.round(getFillRate() * 100) + "% full";
+        }
+    }
+
+    /**
+     * @return the size and live rows of the database, counted now.
+     * @throws SQLException
+     *             if unable to read the database.
+     */
+    public static Report report() throws SQLException {
+        Map<String, Long> rows = new DashboardDAO().countRows();
+        long pages = 0;
+        long pageSize = 0;
+        Connection conn = DBConnection.getConnection();
+        try {
+            Statement stat = conn.createStatement();
+            try {
+                ResultSet rs = stat.executeQuery("SELECT NAME, VALUE FROM INFORMATION_SCHEMA.SETTINGS "
+                        + "WHERE NAME IN ('info.PAGE_COUNT', 'info.PAGE_SIZE');");
+                while (rs.next()) {
+                    if (rs.getString(1).equals("info.PAGE_COUNT")) {
+                        pages = Long.parseLong(rs.getString(2));
+                    } else {
+                        pageSize = Long.parseLong(rs.getString(2));
+                    }
+                }
+            } finally {
+                stat.close();
+            }
+        } finally {
+            DBConnection.closeConnection(conn);
+        }
+        Report report = new Report(pages * pageSize, rows);
+        lastReport = report;
+        return report;
+    }
+
+    /**
+     * @return the last report taken, without reading the database, or null
+     *         if none has been taken since the store was opened.
+     */
+    public static Report getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Forget the last report, call when another database is opened.
+     */
+    public static void invalidate() {
+        lastReport = null;
+    }
+
+    /**
+     * @param minFillRate
+     *            the fill rate, 0 to 1, below which the file is compacted.
+     * @return true if the file is large enough to be worth compacting and
+     *         less full than the given rate.
+     * @throws SQLException
+     *             if unable to read the database.
+     */
+    public static boolean isDue(double minFillRate) throws SQLException {
+        Report report = report();
+        return report.getFileBytes() >= MIN_FILE_SIZE && report.getFillRate() < minFillRate;
+    }
+
+    /**
+     * Rewrite the embedded database file with only its live pages. The
+     * writer is paused meanwhile, reads that reach the database while it is
+     * closed fail.
+     *
+     * @return the size and rows before and after.
+     * @throws SQLException
+     *             if unable to compact the database, the dashboard is not
+     *             kept in the embedded database, or the writer could not be
+     *             paused.
+     * @throws InterruptedException
+     *             if interrupted while pausing the writer.
+     */
+    public static synchronized Report[] compact() throws SQLException, InterruptedException {
+        if (!DashboardStore.EMBEDDED.equals(DashboardStore.get().getType())) {
+            throw new SQLException("Only the embedded dashboard database is compacted, the "
+                    + DashboardStore.get().getType() + " dashboard store is not.");
+        }
+        long start = System.nanoTime();
+        Report before = report();
+        if (!DashboardWriteQueue.pause(PAUSE_TIMEOUT)) {
+            throw new SQLException("The dashboard writer did not pause, the database was not compacted.");
+        }
+        Report after;
+        try {
+            Connection conn = DBConnection.getWriteConnection();
+            try {
+                Statement stat = conn.createStatement();
+                try {
+                    stat.execute("SHUTDOWN DEFRAG;");
+                } finally {
+                    try {
+                        stat.close();
+                    } catch (SQLException e) {
+                        // Closed with the database.
+                    }
+                }
+            } finally {
+                DBConnection.closeConnection(conn);
+                // Every pooled connection was closed with the database.
+                DBConnection.shutdown();
+            }
+            after = report();
+        } finally {
+            DashboardWriteQueue.resume();
+            DashboardMetrics.OPERATIONS.observeSince("compact", start);
+        }
+
+        if (after.getLiveRows() >= MIN_MEASURED_ROWS) {
+            bytesPerRow = Math.max(1, after.getFileBytes() / after.getLiveRows());
+        }
+        DashboardMetrics.COMPACTED_BYTES.increment(null, Math.max(0, before.getFileBytes() - after.getFileBytes()));
+        LOGGER.info("Compacted the dashboard database from " + before + " to " + after + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms.");
+        return new Report[] {before, after};
+    }
+}
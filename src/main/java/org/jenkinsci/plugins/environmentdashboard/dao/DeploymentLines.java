@@ -0,0 +1,246 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.json.util.JSONUtils;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.BuildStatus;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+
+/**
+ * Deployments as lines of JSON, one deployment per line, as kept by the
+ * history archive and moved between controllers by export and import:
+ *
+ * <pre>
+ * {"id":42,"envComp":"DEV=WEBAPP",...,"packageName":null,"values":{"branch":"master"}}
+ * </pre>
+ *
+ * Fields are the env_dashboard columns, values the custom column values by
+ * lower cased name; a deployment without values has no values field.
+ */
+final class DeploymentLines {
+
+    /* Fields of a line after the id, in the order of SELECT */
+    private static final String[] FIELDS = {"envComp", "envName", "compName", "buildStatus", "buildNum", "jobUrl",
+            "buildJobUrl", "created_at", "packageName"};
+
+    /** Deployments with their custom values, to be routed and ordered so
+     * that the rows of one deployment are adjacent. */
+    static final String SELECT = "SELECT d.id, d.envComp, d.envName, d.compName, d.buildStatus, d.buildNum, "
+            + "d.jobUrl, d.buildJobUrl, d.created_at, d.packageName, c.name, v.value FROM env_dashboard d "
+            + "LEFT OUTER JOIN env_dashboard_value v ON v.deploymentId = d.id "
+            + "LEFT OUTER JOIN env_dashboard_column c ON c.id = v.columnId";
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private DeploymentLines() {
+
+    }
+
+    /**
+     * Write the deployments of a {@link #SELECT} result, one line each.
+     *
+     * @return the number of deployments written.
+     */
+    static int write(ResultSet rs, Writer out) throws SQLException, IOException {
+        int written = 0;
+        // Rows of one deployment are adjacent, one per custom value.
+        long id = 0;
+        boolean values = false;
+        while (rs.next()) {
+            if (written == 0 || rs.getLong(1) != id) {
+                if (written > 0) {
+                    out.write(values ? "}}\n" : "}\n");
+                }
+                id = rs.getLong(1);
+                values = false;
+                out.write("{\"id\":" + id);
+                for (int i = 0; i < FIELDS.length; i++) {
+                    out.write("," + JSONUtils.quote(FIELDS[i]) + ":" + quote(rs.getString(i + 2)));
+                }
+                written++;
+            }
+            if (rs.getString(11) != null) {
+                out.write((values ? "," : ",\"values\":{") + JSONUtils.quote(rs.getString(11)) + ":"
+                        + quote(rs.getString(12)));
+                values = true;
+            }
+        }
+        if (written > 0) {
+            out.write(values ? "}}\n" : "}\n");
+        }
+        return written;
+    }
+
+    /**
+     * @param source
+     *            where the line was read from, for the error.
+     * @return the fields of a line by name: the id a Long, values a map of
+     *         the custom values and the rest strings or null, checked.
+     * @throws IOException
+     *             if the line is not a deployment line.
+     */
+    static Map<String, Object> parse(String line, String source) throws IOException {
+        try {
+            Map<String, Object> json = new LineParser(line).object();
+            if (!(json.get("id") instanceof Long)) {
+                throw new IllegalArgumentException("No id");
+            }
+            for (String field : FIELDS) {
+                if (json.get(field) != null && !(json.get(field) instanceof String)) {
+                    throw new IllegalArgumentException(field + " is not a string");
+                }
+            }
+            Object values = json.get("values");
+            if (values != null) {
+                if (!(values instanceof Map)) {
+                    throw new IllegalArgumentException("values is not an object");
+                }
+                for (Object value : ((Map<?, ?>) values).values()) {
+                    if (value != null && !(value instanceof String)) {
+                        throw new IllegalArgumentException("A custom value is not a string");
+                    }
+                }
+            }
+            return json;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt line in " + source + ": " + line, e);
+        }
+    }
+
+    /**
+     * @return the custom values of a parsed line by lower cased column
+     *         name, or null if it has none.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> values(Map<String, Object> json) {
+        return (Map<String, Object>) json.get("values");
+    }
+
+    /**
+     * @param columns
+     *            the lower cased custom columns to keep values of.
+     * @return the deployment of a parsed line.
+     */
+    static Deployment deployment(Map<String, Object> json, String[] columns) {
+        Deployment deployment = new Deployment((Long) json.get("id"), (String) json.get("envName"),
+                (String) json.get("compName"), BuildStatus.parse((String) json.get("buildStatus")),
+                (String) json.get("buildNum"), (String) json.get("jobUrl"), (String) json.get("buildJobUrl"),
+                (String) json.get("created_at"), (String) json.get("packageName"));
+        Map<String, Object> stored = DeploymentLines.values(json);
+        if (stored == null || columns.length == 0) {
+            return deployment;
+        }
+        String[] values = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = (String) stored.get(columns[i]);
+        }
+        return deployment.withCustomValues(columns, values);
+    }
+
+    private static String quote(String value) {
+        return value == null ? "null" : JSONUtils.quote(value);
+    }
+
+    /**
+     * Parses a line as written by {@link DeploymentLines#write}: an object
+     * of strings, nulls, the id and the object of custom values. json-lib
+     * would turn a string that looks like JSON, such as a custom value of
+     * "null", into JSON.
+     */
+    private static final class LineParser {
+
+        private final String text;
+
+        private int pos = 0;
+
+        LineParser(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> object() {
+            Map<String, Object> object = new HashMap<String, Object>();
+            expect('{');
+            if (text.charAt(pos) == '}') {
+                pos++;
+                return object;
+            }
+            do {
+                String key = string();
+                expect(':');
+                object.put(key, value());
+            } while (text.charAt(pos++) == ',');
+            if (text.charAt(pos - 1) != '}') {
+                throw new IllegalArgumentException("Expected } at " + (pos - 1));
+            }
+            return object;
+        }
+
+        private Object value() {
+            char c = text.charAt(pos);
+            if (c == '"') {
+                return string();
+            }
+            if (c == '{') {
+                return object();
+            }
+            if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            int start = pos;
+            while (pos < text.length() && (text.charAt(pos) == '-' || Character.isDigit(text.charAt(pos)))) {
+                pos++;
+            }
+            return Long.valueOf(text.substring(start, pos));
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder string = new StringBuilder();
+            for (char c = text.charAt(pos++); c != '"'; c = text.charAt(pos++)) {
+                if (c != '\\') {
+                    string.append(c);
+                    continue;
+                }
+                c = text.charAt(pos++);
+                switch (c) {
+                case 'b':
+                    string.append('\b');
+                    break;
+                case 'f':
+                    string.append('\f');
+                    break;
+                case 'n':
+                    string.append('\n');
+                    break;
+                case 'r':
+                    string.append('\r');
+                    break;
+                case 't':
+                    string.append('\t');
+                    break;
+                case 'u':
+                    string.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default:
+                    string.append(c);
+                }
+            }
+            return string.toString();
+        }
+
+        private void expect(char c) {
+            if (text.charAt(pos++) != c) {
+                throw new IllegalArgumentException("Expected " + c + " at " + (pos - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+
+/**
+ * The dashboard kept in H2, embedded in Jenkins or on a TCP server. Both
+ * run the same queries through {@link DashboardDAO} and
+ * {@link DashboardQuery}, only the connection string differs; credentials
+ * of a server go in its URL, as ;USER=name;PASSWORD=secret.
+ *
+ * History pages read on into the {@link HistoryArchive}, which stays next
+ * to the controller whichever database is used.
+ */
+public class H2DashboardStore extends DashboardStore {
+
+    private static final Logger LOGGER = Logger.getLogger(H2DashboardStore.class.getName());
+
+    private final File directory;
+
+    private final String serverUrl;
+
+    /**
+     * @param directory
+     *            the directory of the embedded database and the archive, null
+     *            for the default.
+     * @param serverUrl
+     *            the JDBC URL of an H2 server, such as
+     *            jdbc:h2:tcp://host:9092/jenkins_dashboard, or null for the
+     *            embedded database.
+     */
+    public H2DashboardStore(File directory, String serverUrl) {
+        this.directory = directory;
+        this.serverUrl = serverUrl;
+    }
+
+    @Override
+    public String getType() {
+        return serverUrl == null ? EMBEDDED : SERVER;
+    }
+
+    /**
+     * Point the connection pools at this database and migrate its schema.
+     * The caches of the previous database are dropped.
+     */
+    @Override
+    public void open() throws SQLException {
+        DBConnection.configure(directory, serverUrl);
+        HistoryPartitions.invalidate();
+        HistoryArchive.invalidate();
+        SchemaMetadataCache.invalidate();
+        DatabaseCompaction.invalidate();
+        int applied = SchemaMigrator.migrate();
+        if (applied > 0) {
+            LOGGER.info("Applied " + applied + " dashboard schema migrations, now at version "
+                    + SchemaMigrator.getLatestVersion() + ".");
+        }
+    }
+
+    @Override
+    public void close() {
+        DBConnection.shutdown();
+    }
+
+    @Override
+    public void write(List<DashboardWriteQueue.Event> events) throws SQLException {
+        new DashboardDAO().writeBatch(events);
+    }
+
+    @Override
+    public List<Deployment> getLatest() throws SQLException {
+        return DashboardQuery.LATEST.deployments();
+    }
+
+    @Override
+    public List<String> getEnvs() throws SQLException {
+        return names(DashboardQuery.ENVS, "envName");
+    }
+
+    @Override
+    public List<String> getComps() throws SQLException {
+        return names(DashboardQuery.COMPS, "compName");
+    }
+
+    @Override
+    public List<String> getCustomColumns() throws SQLException {
+        return SchemaMetadataCache.getCustomColumns();
+    }
+
+    @Override
+    public boolean dropColumn(String column) throws SQLException {
+        return new DashboardDAO().dropColumn(column);
+    }
+
+    @Override
+    public List<Deployment> getRecent(String env, String comp, int limit, List<String> customColumns)
+            throws SQLException {
+        List<Deployment> deployments;
+        if (env != null && comp != null) {
+            deployments = DashboardQuery.CELL_HISTORY.deployments(comp, env, limit);
+        } else if (env != null) {
+            deployments = DashboardQuery.ENV_HISTORY.deployments(env, limit);
+        } else if (comp != null) {
+            deployments = DashboardQuery.COMP_HISTORY.deployments(comp, limit);
+        } else {
+            throw new IllegalArgumentException("The history of an environment or component is read.");
+        }
+        return new DashboardDAO().withCustomValues(deployments, customColumns);
+    }
+
+    /**
+     * Scan each partition once, newest first, in cell order. A cell's rows
+     * in a newer partition are newer than those in older ones, so keeping
+     * the first rows of each cell keeps its newest. Custom values are then
+     * fetched with one query per partition.
+     */
+    @Override
+    public Map<String, List<Deployment>> getRecentByCell(final int perCell, final int limit,
+            List<String> customColumns) throws SQLException {
+        final List<Deployment> recent = new ArrayList<Deployment>();
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        DashboardQuery.RECENT.stream(null, new DashboardQuery.DeploymentVisitor() {
+            @Override
+            public boolean visit(Deployment deployment) {
+                String key = deployment.getEnv() + '=' + deployment.getComp();
+                Integer count = counts.get(key);
+                if (count == null) {
+                    count = 0;
+                }
+                if (count < perCell) {
+                    counts.put(key, count + 1);
+                    recent.add(deployment);
+                }
+                return recent.size() <= limit;
+            }
+        });
+        if (recent.size() > limit) {
+            return null;
+        }
+
+        Map<String, List<Deployment>> cells = new HashMap<String, List<Deployment>>(counts.size() * 4 / 3 + 1);
+        for (Deployment deployment : new DashboardDAO().withCustomValues(recent, customColumns)) {
+            String key = deployment.getEnv() + '=' + deployment.getComp();
+            List<Deployment> cell = cells.get(key);
+            if (cell == null) {
+                cell = new ArrayList<Deployment>(counts.get(key));
+                cells.put(key, cell);
+            }
+            cell.add(deployment);
+        }
+        return cells;
+    }
+
+    /**
+     * Stream a page from the database partitions, then from the archive
+     * while the page is not full.
+     */
+    @Override
+    public boolean readHistory(String env, String comp, HistoryCursor before, int limit,
+            List<String> customColumns, DashboardQuery.DeploymentVisitor visitor) throws SQLException, IOException {
+        LimitedVisitor page = new LimitedVisitor(visitor, limit);
+        if (env != null && comp != null) {
+            DashboardQuery.CELL_PAGE.stream(customColumns, page, before.params(new Object[] {comp, env}, limit));
+        } else if (env != null) {
+            DashboardQuery.ENV_PAGE.stream(customColumns, page, before.params(new Object[] {env}, limit));
+        } else if (comp != null) {
+            DashboardQuery.COMP_PAGE.stream(customColumns, page, before.params(new Object[] {comp}, limit));
+        } else {
+            throw new IllegalArgumentException("The history of an environment or component is read.");
+        }
+
+        if (page.stopped || page.count == limit || HistoryArchive.newestFirst().length == 0
+                || (page.last != null && page.last.getCreatedAt() == null)) {
+            return !page.stopped;
+        }
+        HistoryArchive.stream(env, comp, page.last == null ? before : HistoryCursor.after(page.last),
+                customColumns, page);
+        return !page.stopped;
+    }
+
+    @Override
+    public int purge(int daysOld, int chunkSize) throws SQLException {
+        return new DashboardDAO().purgeBuilds(daysOld, chunkSize);
+    }
+
+    @Override
+    public int archive(int daysHot) throws SQLException, IOException {
+        return new DashboardDAO().archiveBuilds(daysHot);
+    }
+
+    private static List<String> names(DashboardQuery query, String field) throws SQLException {
+        List<String> names = new ArrayList<String>();
+        for (HashMap<String, String> row : query.list()) {
+            names.add(row.get(field));
+        }
+        return names;
+    }
+
+    /**
+     * Passes deployments on to a visitor up to a limit, remembering the last
+     * one so a read can carry on after it.
+     */
+    private static final class LimitedVisitor extends DashboardQuery.DeploymentVisitor {
+
+        private final DashboardQuery.DeploymentVisitor visitor;
+
+        private final int limit;
+
+        private int count = 0;
+
+        private Deployment last = null;
+
+        private boolean stopped = false;
+
+        LimitedVisitor(DashboardQuery.DeploymentVisitor visitor, int limit) {
+            this.visitor = visitor;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean visit(Deployment deployment) {
+            if (count == limit) {
+                return false;
+            }
+            count++;
+            last = deployment;
+            stopped = !visitor.visit(deployment);
+            return !stopped && count < limit;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.sf.json.util.JSONUtils;
+
+import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+
+/**
+ * Cold deployment history, moved out of the database a month at a time.
+ *
+ * Each archived month is one gzipped file of deployment lines, see
+ * {@link DeploymentLines}, named yyyymm.ndjson.gz in jenkins_dashboard_archive
+ * next to the database and holding the month's deployments newest first. A segment is
+ * written once, to a temporary file renamed into place, and only ever
+ * deleted whole by retention; archived deployments are no longer updated.
+ *
+ * History pages read on into the archive once the database partitions run
+ * out, decompressing a segment as they go and stopping as soon as the page
+ * is full.
+ */
+public final class HistoryArchive {
+
+    private static final Logger LOGGER = Logger.getLogger(HistoryArchive.class.getName());
+
+    /* Directory of the segments, next to the database */
+    private static final String DIRECTORY = "jenkins_dashboard_archive";
+
+    private static final String SUFFIX = ".ndjson.gz";
+
+    /* Characters buffered when reading a segment */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Deployments of a partition with their custom values, newest first
+    private static String archiveQuery = DeploymentLines.SELECT + " ORDER BY d.created_at DESC, d.id DESC;";
+
+    /* Segment months, yyyymm, newest first. Null until listed. */
+    private static volatile int[] months = null;
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private HistoryArchive() {
+
+    }
+
+    /**
+     * @return the archived months, yyyymm, newest first. The array is shared
+     *         and must not be modified.
+     */
+    public static int[] newestFirst() {
+        int[] current = months;
+        if (current != null) {
+            return current;
+        }
+        return list();
+    }
+
+    /**
+     * Write the partition of a month to its segment. The partition is left
+     * as it is, drop it once archived.
+     *
+     * @param conn
+     *            a database connection.
+     * @param month
+     *            the month, yyyymm.
+     * @return the number of deployments archived.
+     * @throws SQLException
+     *             if unable to read the partition.
+     * @throws IOException
+     *             if unable to write the segment.
+     */
+    public static int archive(Connection conn, int month) throws SQLException, IOException {
+        File directory = directory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        try {
+            return write(conn, month, segment(directory, month));
+        } finally {
+            months = null;
+        }
+    }
+
+    /**
+     * Delete the segments of the months before a month.
+     *
+     * @param month
+     *            the first month kept, yyyymm.
+     * @return the number of segments deleted.
+     */
+    public static int deleteBefore(int month) {
+        int deleted = 0;
+        File directory = directory();
+        for (int archived : newestFirst()) {
+            if (archived >= month) {
+                continue;
+            }
+            File segment = segment(directory, archived);
+            if (segment.delete()) {
+                deleted++;
+            } else {
+                LOGGER.warning("Could not delete dashboard archive " + segment);
+            }
+        }
+        months = null;
+        return deleted;
+    }
+
+    /**
+     * Read the archived deployments strictly older than a cursor, newest
+     * first, until the visitor has had enough.
+     *
+     * @param env
+     *            the environment of the deployments, null for any.
+     * @param comp
+     *            the component of the deployments, null for any.
+     * @param cursor
+     *            the position to read after.
+     * @param customColumns
+     *            the custom columns to read values of, may be null.
+     * @param visitor
+     *            receives the deployments.
+     * @return false if the visitor stopped the read.
+     * @throws IOException
+     *             if unable to read a segment.
+     */
+    public static boolean stream(String env, String comp, HistoryCursor cursor, List<String> customColumns,
+            DashboardQuery.DeploymentVisitor visitor) throws IOException {
+        String[] columns = new String[customColumns == null ? 0 : customColumns.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = customColumns.get(i).toLowerCase();
+        }
+        File directory = directory();
+        for (int month : newestFirst()) {
+            if (month > cursor.month()) {
+                continue;
+            }
+            try {
+                if (!read(segment(directory, month), env, comp, cursor, columns, visitor)) {
+                    return false;
+                }
+            } catch (FileNotFoundException e) {
+                // Deleted by retention since it was listed.
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy every archived deployment line, oldest month first.
+     *
+     * @param out
+     *            receives the lines.
+     * @return the number of deployments copied.
+     * @throws IOException
+     *             if unable to read a segment or write a line.
+     */
+    static long copy(Writer out) throws IOException {
+        long copied = 0;
+        File directory = directory();
+        int[] archived = newestFirst();
+        for (int i = archived.length - 1; i >= 0; i--) {
+            BufferedReader in;
+            try {
+                in = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                        new FileInputStream(segment(directory, archived[i]))), "UTF-8"), BUFFER_SIZE);
+            } catch (FileNotFoundException e) {
+                // Deleted by retention since it was listed.
+                continue;
+            }
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    out.write(line);
+                    out.write('\n');
+                    copied++;
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Write the partition of a month to a segment file.
+     *
+     * @return the number of deployments written.
+     */
+    static int write(Connection conn, int month, File segment) throws SQLException, IOException {
+        File temp = new File(segment.getPath() + ".tmp");
+        int written = 0;
+        PreparedStatement stat = conn.prepareStatement(HistoryPartitions.route(HistoryArchive.archiveQuery, month));
+        try {
+            ResultSet rs = stat.executeQuery();
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(temp)), "UTF-8"));
+            try {
+                written = DeploymentLines.write(rs, out);
+            } finally {
+                out.close();
+                rs.close();
+            }
+        } catch (SQLException e) {
+            temp.delete();
+            throw e;
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        } finally {
+            stat.close();
+        }
+
+        // A segment left by an archive that failed to drop its partition is replaced.
+        if (segment.exists() && !segment.delete()) {
+            throw new IOException("Could not replace " + segment);
+        }
+        if (!temp.renameTo(segment)) {
+            throw new IOException("Could not rename " + temp + " to " + segment);
+        }
+        return written;
+    }
+
+    /**
+     * Read the deployments of a segment strictly older than a cursor.
+     *
+     * @return false if the visitor stopped the read.
+     */
+    static boolean read(File segment, String env, String comp, HistoryCursor cursor, String[] columns,
+            DashboardQuery.DeploymentVisitor visitor) throws IOException {
+        // Lines are written without spaces, so a line of the scope holds these.
+        String envField = env == null ? null : "\"envName\":" + JSONUtils.quote(env);
+        String compField = comp == null ? null : "\"compName\":" + JSONUtils.quote(comp);
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(segment)), "UTF-8"), BUFFER_SIZE);
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if ((envField != null && !line.contains(envField)) || (compField != null && !line.contains(compField))) {
+                    continue;
+                }
+                Map<String, Object> json = DeploymentLines.parse(line, segment.getName());
+                String createdAt = (String) json.get("created_at");
+                if ((env != null && !env.equals(json.get("envName")))
+                        || (comp != null && !comp.equals(json.get("compName")))
+                        // Pages never hold deployments without a time.
+                        || createdAt == null
+                        || !cursor.isBefore(Timestamp.valueOf(createdAt), (Long) json.get("id"))) {
+                    continue;
+                }
+                if (!visitor.visit(DeploymentLines.deployment(json, columns))) {
+                    return false;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Forget the listed segments, for when the database directory changes.
+     */
+    static synchronized void invalidate() {
+        months = null;
+    }
+
+    private static File directory() {
+        return new File(DBConnection.getDirectory(), HistoryArchive.DIRECTORY);
+    }
+
+    private static File segment(File directory, int month) {
+        return new File(directory, month + HistoryArchive.SUFFIX);
+    }
+
+    private static synchronized int[] list() {
+        // Another thread may have listed it while we waited.
+        if (months != null) {
+            return months;
+        }
+
+        String[] names = directory().list();
+        int[] found = new int[names == null ? 0 : names.length];
+        int count = 0;
+        for (int i = 0; i < found.length; i++) {
+            if (names[i].endsWith(HistoryArchive.SUFFIX)) {
+                try {
+                    found[count] = Integer.parseInt(names[i].substring(0, names[i].length() - SUFFIX.length()));
+                    count++;
+                } catch (NumberFormatException e) {
+                    // Not a segment.
+                }
+            }
+        }
+        found = Arrays.copyOf(found, count);
+        Arrays.sort(found);
+        int[] listed = new int[count];
+        for (int i = 0; i < count; i++) {
+            listed[i] = found[count - 1 - i];
+        }
+        months = listed;
+        return listed;
+    }
+}
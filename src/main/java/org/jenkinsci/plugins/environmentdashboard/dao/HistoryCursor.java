@@ -0,0 +1,99 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.Timestamp;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+
+/**
+ * Position in a deployment history ordered newest first, by created_at then
+ * id. A page of history holds the deployments strictly older than its
+ * cursor, so pages stay stable while new deployments are recorded and no
+ * rows are skipped over as OFFSET would.
+ */
+public final class HistoryCursor {
+
+    /** Before every deployment, the cursor of the first page. */
+    public static final HistoryCursor FIRST = new HistoryCursor(
+            Timestamp.valueOf("9999-12-31 23:59:59.999999999"), Long.MAX_VALUE);
+
+    private final Timestamp createdAt;
+
+    private final long id;
+
+    private HistoryCursor(Timestamp createdAt, long id) {
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+
+    /**
+     * @param deployment
+     *            the last deployment of a page.
+     * @return the cursor of the page after it.
+     */
+    public static HistoryCursor after(Deployment deployment) {
+        return new HistoryCursor(Timestamp.valueOf(deployment.getCreatedAt()), deployment.getId());
+    }
+
+    /**
+     * @param cursor
+     *            a cursor written by {@link #toString()}, may be null.
+     * @return the cursor, or null if blank or not a cursor.
+     */
+    public static HistoryCursor parse(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        int separator = cursor.indexOf(',');
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            return new HistoryCursor(Timestamp.valueOf(cursor.substring(separator + 1)),
+                    Long.parseLong(cursor.substring(0, separator)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param scope
+     *            the env and/or comp parameters of a page query.
+     * @param limit
+     *            the maximum number of deployments.
+     * @return the page query parameters: scope, cursor, limit.
+     */
+    public Object[] params(Object[] scope, int limit) {
+        Object[] params = new Object[scope.length + 4];
+        System.arraycopy(scope, 0, params, 0, scope.length);
+        params[scope.length] = createdAt;
+        params[scope.length + 1] = createdAt;
+        params[scope.length + 2] = id;
+        params[scope.length + 3] = limit;
+        return params;
+    }
+
+    /**
+     * @return true if a deployment is strictly older than the cursor, so on
+     *         the pages after it.
+     */
+    boolean isBefore(Timestamp deploymentCreatedAt, long deploymentId) {
+        int order = deploymentCreatedAt.compareTo(createdAt);
+        return order < 0 || (order == 0 && deploymentId < id);
+    }
+
+    /**
+     * @return the month of the cursor, yyyymm, the newest month the pages
+     *         after it can reach into.
+     */
+    int month() {
+        return HistoryPartitions.month(createdAt.getTime());
+    }
+
+    /**
+     * @return the cursor as "id,created_at", for a client to send back.
+     */
+    @Override
+    public String toString() {
+        return id + "," + createdAt;
+    }
+}
@@ -0,0 +1,297 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+
+/**
+ * Catalog of the monthly partitions of the deployment history.
+ *
+ * Deployments recorded in a month, and their custom column values, live in
+ * that month's env_dashboard_yyyymm and env_dashboard_value_yyyymm tables;
+ * a deployment updated in a later month moves to the later partition, so
+ * every row of a partition was created in its month. Retention drops whole
+ * months instead of deleting row by row.
+ *
+ * The env_dashboard and env_dashboard_value views union every partition,
+ * for ad-hoc SQL. H2 materializes a union before it aggregates or sorts
+ * it, so the dashboard queries are routed to the partitions instead, newest
+ * month first. The month of the current time always has a partition.
+ */
+public final class HistoryPartitions {
+
+    // Partition catalog query, newest first
+    private static String monthsQuery = "SELECT month FROM env_dashboard_partition ORDER BY month DESC;";
+
+    // Record partition query
+    private static String addMonthQuery = "MERGE INTO env_dashboard_partition (month) KEY(month) VALUES (?);";
+
+    // Forget partition query
+    private static String removeMonthQuery = "DELETE FROM env_dashboard_partition WHERE month = ?;";
+
+    // Empty deployment history query, with the columns of a partition
+    private static String noHistoryQuery = "SELECT CAST(NULL AS VARCHAR(255)) AS envComp, "
+            + "CAST(NULL AS VARCHAR(255)) AS jobUrl, CAST(NULL AS VARCHAR(255)) AS buildNum, "
+            + "CAST(NULL AS VARCHAR(255)) AS buildStatus, CAST(NULL AS VARCHAR(255)) AS envName, "
+            + "CAST(NULL AS VARCHAR(255)) AS compName, CAST(NULL AS TIMESTAMP) AS created_at, "
+            + "CAST(NULL AS VARCHAR(255)) AS buildJobUrl, CAST(NULL AS VARCHAR(255)) AS packageName, "
+            + "CAST(NULL AS BIGINT) AS id FROM DUAL WHERE FALSE";
+
+    // Empty custom column value query, with the columns of a partition
+    private static String noValuesQuery = "SELECT CAST(NULL AS BIGINT) AS deploymentId, "
+            + "CAST(NULL AS INT) AS columnId, CAST(NULL AS VARCHAR) AS value FROM DUAL WHERE FALSE";
+
+    /* The view names as whole words, env_dashboard_latest is not a view */
+    private static final Pattern HISTORY_VIEW = Pattern.compile("\\benv_dashboard\\b");
+
+    private static final Pattern VALUE_VIEW = Pattern.compile("\\benv_dashboard_value\\b");
+
+    /* Partition months, yyyymm, newest first. Null until loaded. */
+    private static volatile int[] months = null;
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private HistoryPartitions() {
+
+    }
+
+    /**
+     * @return the month of a time, as yyyymm in the JVM time zone like H2
+     *         timestamps.
+     */
+    public static int month(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+    }
+
+    /**
+     * @return the first instant of a month.
+     */
+    static Timestamp start(int month) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(month / 100, month % 100 - 1, 1);
+        return new Timestamp(calendar.getTimeInMillis());
+    }
+
+    /**
+     * @return the first instant of the month after a month.
+     */
+    static Timestamp end(int month) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(month / 100, month % 100 - 1, 1);
+        calendar.add(Calendar.MONTH, 1);
+        return new Timestamp(calendar.getTimeInMillis());
+    }
+
+    /**
+     * @return the deployment table of a month.
+     */
+    public static String historyTable(int month) {
+        return "env_dashboard_" + month;
+    }
+
+    /**
+     * @return the custom column value table of a month.
+     */
+    public static String valueTable(int month) {
+        return "env_dashboard_value_" + month;
+    }
+
+    /**
+     * Point a query written against the env_dashboard and
+     * env_dashboard_value views at the tables of one month.
+     */
+    static String route(String sql, int month) {
+        String routed = VALUE_VIEW.matcher(sql).replaceAll(valueTable(month));
+        return HISTORY_VIEW.matcher(routed).replaceAll(historyTable(month));
+    }
+
+    /**
+     * @return the partition months, yyyymm, newest first. The array is
+     *         shared and must not be modified.
+     * @throws SQLException
+     *             if the catalog had to be loaded and could not be.
+     */
+    public static int[] newestFirst() throws SQLException {
+        int[] current = months;
+        if (current != null) {
+            return current;
+        }
+        return load();
+    }
+
+    /**
+     * @return true if the month has a partition.
+     * @throws SQLException
+     *             if the catalog had to be loaded and could not be.
+     */
+    public static boolean contains(int month) throws SQLException {
+        for (int partition : newestFirst()) {
+            if (partition == month) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create the partition of a month unless it exists. This is DDL, which
+     * commits the connection's transaction, so call it before starting one.
+     *
+     * @param conn
+     *            a write connection.
+     * @param month
+     *            the month, yyyymm.
+     * @throws SQLException
+     *             if unable to create the partition.
+     */
+    public static void ensure(Connection conn, int month) throws SQLException {
+        if (contains(month)) {
+            return;
+        }
+        synchronized (HistoryPartitions.class) {
+            String history = historyTable(month);
+            Statement stat = conn.createStatement();
+            try {
+                stat.execute("CREATE TABLE IF NOT EXISTS " + history + " (envComp VARCHAR(255), jobUrl VARCHAR(255), "
+                        + "buildNum VARCHAR(255), buildStatus VARCHAR(255), envName VARCHAR(255), compName VARCHAR(255), "
+                        + "created_at TIMESTAMP, buildJobUrl VARCHAR(255), packageName VARCHAR(255), "
+                        + "id BIGINT DEFAULT NEXT VALUE FOR env_dashboard_id_seq PRIMARY KEY);");
+                stat.execute("CREATE INDEX IF NOT EXISTS " + history + "_env_comp_created_idx ON " + history
+                        + " (envName, compName, created_at);");
+                stat.execute("CREATE INDEX IF NOT EXISTS " + history + "_comp_created_idx ON " + history
+                        + " (compName, created_at);");
+                stat.execute("CREATE INDEX IF NOT EXISTS " + history + "_env_created_idx ON " + history
+                        + " (envName, created_at);");
+                stat.execute("CREATE INDEX IF NOT EXISTS " + history + "_created_idx ON " + history + " (created_at);");
+                stat.execute("CREATE INDEX IF NOT EXISTS " + history + "_env_comp_job_idx ON " + history
+                        + " (envComp, jobUrl);");
+                stat.execute("CREATE TABLE IF NOT EXISTS " + valueTable(month) + " (deploymentId BIGINT NOT NULL, "
+                        + "columnId INT NOT NULL, value VARCHAR, PRIMARY KEY (deploymentId, columnId));");
+            } finally {
+                stat.close();
+            }
+            changeCatalog(conn, addMonthQuery, month);
+        }
+    }
+
+    /**
+     * Drop the partition of a month with all of its deployments. The
+     * partition leaves the catalog before its tables are dropped, so a
+     * query that still read the old catalog and then fails to find the
+     * tables can tell the month was dropped.
+     *
+     * @param conn
+     *            a write connection, not in a transaction.
+     * @param month
+     *            the month, yyyymm.
+     * @throws SQLException
+     *             if unable to drop the partition.
+     */
+    static synchronized void drop(Connection conn, int month) throws SQLException {
+        changeCatalog(conn, removeMonthQuery, month);
+        Statement stat = conn.createStatement();
+        try {
+            stat.execute("DROP TABLE IF EXISTS " + valueTable(month) + ";");
+            stat.execute("DROP TABLE IF EXISTS " + historyTable(month) + ";");
+        } finally {
+            stat.close();
+        }
+    }
+
+    /**
+     * Discard the cached catalog, call after changing it other than through
+     * this class.
+     */
+    public static synchronized void invalidate() {
+        months = null;
+    }
+
+    private static void changeCatalog(Connection conn, String query, int month) throws SQLException {
+        PreparedStatement stat = conn.prepareStatement(query);
+        try {
+            DashboardDAO.setValues(stat, month);
+            stat.execute();
+        } finally {
+            stat.close();
+        }
+        months = read(conn);
+        createViews(conn, months);
+    }
+
+    /**
+     * Union the partitions into the env_dashboard and env_dashboard_value
+     * views. Without partitions the views select no rows with the columns
+     * of the partition tables, so they no longer read dropped tables.
+     */
+    private static void createViews(Connection conn, int[] partitions) throws SQLException {
+        StringBuilder history = new StringBuilder("CREATE OR REPLACE VIEW env_dashboard AS ");
+        StringBuilder values = new StringBuilder("CREATE OR REPLACE VIEW env_dashboard_value AS ");
+        if (partitions.length == 0) {
+            history.append(noHistoryQuery);
+            values.append(noValuesQuery);
+        }
+        for (int i = 0; i < partitions.length; i++) {
+            if (i > 0) {
+                history.append(" UNION ALL ");
+                values.append(" UNION ALL ");
+            }
+            history.append("SELECT * FROM ").append(historyTable(partitions[i]));
+            values.append("SELECT * FROM ").append(valueTable(partitions[i]));
+        }
+        Statement stat = conn.createStatement();
+        try {
+            stat.execute(history.append(';').toString());
+            stat.execute(values.append(';').toString());
+        } finally {
+            stat.close();
+        }
+    }
+
+    private static synchronized int[] load() throws SQLException {
+        // Another thread may have loaded it while we waited.
+        if (months != null) {
+            return months;
+        }
+
+        // Get DB connection
+        Connection conn = DBConnection.getConnection();
+        try {
+            months = read(conn);
+            return months;
+        } finally {
+            DBConnection.closeConnection(conn);
+        }
+    }
+
+    private static int[] read(Connection conn) throws SQLException {
+        List<Integer> read = new ArrayList<Integer>();
+        Statement stat = conn.createStatement();
+        try {
+            ResultSet rs = stat.executeQuery(HistoryPartitions.monthsQuery);
+            while (rs.next()) {
+                read.add(rs.getInt(1));
+            }
+        } finally {
+            stat.close();
+        }
+        int[] partitions = new int[read.size()];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = read.get(i);
+        }
+        return partitions;
+    }
+}
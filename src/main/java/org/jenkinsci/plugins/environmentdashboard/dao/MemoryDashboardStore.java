@@ -0,0 +1,356 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.jenkinsci.plugins.environmentdashboard.entity.BuildStatus;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+
+/**
+ * The dashboard held in memory only, for tests and benchmarks that run
+ * without Jenkins or a database. It records and reads deployments as the
+ * H2 stores do, but everything is lost when it is closed and it has no
+ * archive. Reads and writes are serialised by the store lock, visitors and
+ * the read model are called without it.
+ */
+public class MemoryDashboardStore extends DashboardStore {
+
+    /* Newest deployment first */
+    private static final Comparator<Row> NEWEST_FIRST = new Comparator<Row>() {
+        public int compare(Row a, Row b) {
+            int created = b.createdAt.compareTo(a.createdAt);
+            if (created != 0) {
+                return created;
+            }
+            return b.deployment.getId() < a.deployment.getId() ? -1
+                    : (b.deployment.getId() == a.deployment.getId() ? 0 : 1);
+        }
+    };
+
+    /* Deployments of each cell, newest first, by env=comp */
+    private final Map<String, List<Row>> cells = new HashMap<String, List<Row>>();
+
+    /* Custom columns, lower cased, in the order they were added */
+    private final List<String> columns = new ArrayList<String>();
+
+    private long lastId = 0;
+
+    /**
+     * A recorded deployment with the envComp key and custom values it was
+     * recorded with.
+     */
+    private static final class Row {
+
+        private final String envComp;
+
+        private final Timestamp createdAt;
+
+        private final Deployment deployment;
+
+        private final Map<String, String> values;
+
+        Row(String envComp, Timestamp createdAt, Deployment deployment, Map<String, String> values) {
+            this.envComp = envComp;
+            this.createdAt = createdAt;
+            this.deployment = deployment;
+            this.values = values;
+        }
+    }
+
+    @Override
+    public String getType() {
+        return MEMORY;
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public synchronized void close() {
+        cells.clear();
+        columns.clear();
+    }
+
+    @Override
+    public void write(List<DashboardWriteQueue.Event> events) throws SQLException {
+        synchronized (this) {
+            for (DashboardWriteQueue.Event event : events) {
+                Build b = event.getBuild();
+                Timestamp time = new Timestamp(event.getTime());
+                switch (event.getType()) {
+                case ADD:
+                    add(event.getEnvComp(), b, time);
+                    break;
+                case UPDATE:
+                    update(event.getEnvComp(), b, time);
+                    break;
+                case DELETE:
+                    delete(event.getEnvComp(), b);
+                    break;
+                default:
+                    throw new SQLException("Unknown dashboard update " + event.getType());
+                }
+            }
+        }
+        DashboardDAO.dataChanged();
+    }
+
+    @Override
+    public synchronized List<Deployment> getLatest() {
+        List<Deployment> latest = new ArrayList<Deployment>(cells.size());
+        for (List<Row> cell : cells.values()) {
+            latest.add(cell.get(0).deployment);
+        }
+        return latest;
+    }
+
+    @Override
+    public synchronized List<String> getEnvs() {
+        TreeSet<String> envs = new TreeSet<String>();
+        for (List<Row> cell : cells.values()) {
+            envs.add(cell.get(0).deployment.getEnv());
+        }
+        return new ArrayList<String>(envs);
+    }
+
+    @Override
+    public synchronized List<String> getComps() {
+        TreeSet<String> comps = new TreeSet<String>();
+        for (List<Row> cell : cells.values()) {
+            comps.add(cell.get(0).deployment.getComp());
+        }
+        return new ArrayList<String>(comps);
+    }
+
+    @Override
+    public synchronized List<String> getCustomColumns() {
+        return new ArrayList<String>(columns);
+    }
+
+    @Override
+    public synchronized boolean dropColumn(String column) {
+        String name = column.toLowerCase();
+        if (!columns.remove(name)) {
+            return false;
+        }
+        for (List<Row> cell : cells.values()) {
+            for (Row row : cell) {
+                row.values.remove(name);
+            }
+        }
+        DashboardDAO.dataChanged();
+        return true;
+    }
+
+    @Override
+    public synchronized List<Deployment> getRecent(String env, String comp, int limit, List<String> customColumns) {
+        List<Deployment> recent = new ArrayList<Deployment>();
+        String[] names = lowerCase(customColumns);
+        for (Row row : scope(env, comp)) {
+            if (recent.size() == limit) {
+                break;
+            }
+            recent.add(withValues(row, names));
+        }
+        return recent;
+    }
+
+    @Override
+    public synchronized Map<String, List<Deployment>> getRecentByCell(int perCell, int limit,
+            List<String> customColumns) {
+        Map<String, List<Deployment>> recent = new HashMap<String, List<Deployment>>();
+        String[] names = lowerCase(customColumns);
+        int count = 0;
+        for (Map.Entry<String, List<Row>> cell : cells.entrySet()) {
+            List<Deployment> deployments = new ArrayList<Deployment>();
+            for (Row row : cell.getValue()) {
+                if (deployments.size() == perCell) {
+                    break;
+                }
+                deployments.add(withValues(row, names));
+            }
+            count += deployments.size();
+            if (count > limit) {
+                return null;
+            }
+            recent.put(cell.getKey(), deployments);
+        }
+        return recent;
+    }
+
+    /**
+     * The page is copied out under the lock, the visitor is called without
+     * it.
+     */
+    @Override
+    public boolean readHistory(String env, String comp, HistoryCursor before, int limit,
+            List<String> customColumns, DashboardQuery.DeploymentVisitor visitor) {
+        List<Deployment> page = new ArrayList<Deployment>();
+        synchronized (this) {
+            String[] names = lowerCase(customColumns);
+            for (Row row : scope(env, comp)) {
+                if (page.size() == limit) {
+                    break;
+                }
+                if (before.isBefore(row.createdAt, row.deployment.getId())) {
+                    page.add(withValues(row, names));
+                }
+            }
+        }
+        for (Deployment deployment : page) {
+            if (!visitor.visit(deployment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int purge(int daysOld, int chunkSize) {
+        Timestamp cutOff = new Timestamp(System.currentTimeMillis() - daysOld * 24L * 60 * 60 * 1000);
+        int purged;
+        synchronized (this) {
+            purged = 0;
+            for (Iterator<List<Row>> cellIterator = cells.values().iterator(); cellIterator.hasNext();) {
+                List<Row> cell = cellIterator.next();
+                for (Iterator<Row> rows = cell.iterator(); rows.hasNext();) {
+                    if (!rows.next().createdAt.after(cutOff)) {
+                        rows.remove();
+                        purged++;
+                    }
+                }
+                if (cell.isEmpty()) {
+                    cellIterator.remove();
+                }
+            }
+        }
+        DashboardDAO.dataChanged();
+        // Reloaded without the store lock, the model reads the store.
+        if (purged > 0) {
+            DashboardReadModel.reload();
+        }
+        return purged;
+    }
+
+    /**
+     * @return 0, there is no archive.
+     */
+    @Override
+    public int archive(int daysHot) {
+        return 0;
+    }
+
+    private void add(String envComp, Build b, Timestamp now) {
+        Map<String, String> values = new HashMap<String, String>();
+        for (Map.Entry<String, String> column : b.getCustomColumns().entrySet()) {
+            String name = column.getKey().toLowerCase();
+            if (!columns.contains(name)) {
+                columns.add(name);
+            }
+            values.put(name, column.getValue());
+        }
+        Deployment deployment = new Deployment(++lastId, b.getEnvironment(), b.getComponantName(),
+                BuildStatus.parse(b.getResult()), b.getId(), b.getUrl(), b.getUrl(), now.toString(), b.getPackages());
+        insert(new Row(envComp, now, deployment, values));
+    }
+
+    private void update(String envComp, Build b, Timestamp now) {
+        List<Row> cell = cells.get(b.getEnvironment() + '=' + b.getComponantName());
+        if (cell == null) {
+            return;
+        }
+        List<Row> updated = new ArrayList<Row>();
+        for (Iterator<Row> rows = cell.iterator(); rows.hasNext();) {
+            Row row = rows.next();
+            if (row.envComp.equals(envComp) && row.deployment.getJobUrl().equals(b.getUrl())) {
+                rows.remove();
+                Deployment d = row.deployment;
+                updated.add(new Row(envComp, now, new Deployment(d.getId(), d.getEnv(), d.getComp(),
+                        BuildStatus.parse(b.getResult()), d.getBuildNum(), d.getJobUrl(), d.getBuildJobUrl(),
+                        now.toString(), d.getPackageName()), row.values));
+            }
+        }
+        for (Row row : updated) {
+            insert(row);
+        }
+    }
+
+    private void delete(String envComp, Build b) {
+        String key = b.getEnvironment() + '=' + b.getComponantName();
+        List<Row> cell = cells.get(key);
+        if (cell == null) {
+            return;
+        }
+        for (Iterator<Row> rows = cell.iterator(); rows.hasNext();) {
+            Row row = rows.next();
+            if (row.envComp.equals(envComp) && row.deployment.getJobUrl().equals(b.getUrl())) {
+                rows.remove();
+            }
+        }
+        if (cell.isEmpty()) {
+            cells.remove(key);
+        }
+    }
+
+    private void insert(Row row) {
+        String key = row.deployment.getEnv() + '=' + row.deployment.getComp();
+        List<Row> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<Row>();
+            cells.put(key, cell);
+        }
+        int position = Collections.binarySearch(cell, row, NEWEST_FIRST);
+        cell.add(position < 0 ? -position - 1 : position, row);
+    }
+
+    /**
+     * @return the deployments of a scope, newest first.
+     */
+    private List<Row> scope(String env, String comp) {
+        if (env != null && comp != null) {
+            List<Row> cell = cells.get(env + '=' + comp);
+            return cell == null ? Collections.<Row>emptyList() : cell;
+        }
+        if (env == null && comp == null) {
+            throw new IllegalArgumentException("The history of an environment or component is read.");
+        }
+        List<Row> rows = new ArrayList<Row>();
+        for (List<Row> cell : cells.values()) {
+            Deployment latest = cell.get(0).deployment;
+            if ((env == null || env.equals(latest.getEnv())) && (comp == null || comp.equals(latest.getComp()))) {
+                rows.addAll(cell);
+            }
+        }
+        Collections.sort(rows, NEWEST_FIRST);
+        return rows;
+    }
+
+    private static String[] lowerCase(List<String> customColumns) {
+        String[] names = new String[customColumns == null ? 0 : customColumns.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = customColumns.get(i).toLowerCase();
+        }
+        return names;
+    }
+
+    private static Deployment withValues(Row row, String[] names) {
+        if (names.length == 0 || row.values.isEmpty()) {
+            return row.deployment;
+        }
+        String[] values = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = row.values.get(names[i]);
+        }
+        return row.deployment.withCustomValues(names, values);
+    }
+}
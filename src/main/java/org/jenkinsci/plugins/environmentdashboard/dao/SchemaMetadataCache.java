@@ -0,0 +1,174 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+
+/**
+ * Process wide cache of the dashboard schema metadata: the env_dashboard
+ * column types and the dictionary of custom column names. Both only change
+ * when a custom column is added or dropped, so they are read once and reused
+ * until one of those changes invalidates them.
+ */
+public class SchemaMetadataCache {
+
+    // Column metadata query
+    private static String columnsQuery = "SELECT COLUMN_NAME, TYPE_NAME FROM INFORMATION_SCHEMA.COLUMNS "
+            + "WHERE TABLE_NAME = 'ENV_DASHBOARD' ORDER BY ORDINAL_POSITION;";
+
+    // Custom column dictionary query
+    private static String customColumnsQuery = "SELECT id, name FROM env_dashboard_column ORDER BY id;";
+
+    private static final AtomicLong HITS = new AtomicLong();
+
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    /**
+     * Immutable view of the schema at the time it was loaded.
+     */
+    private static final class Snapshot {
+
+        /* Lower cased column name to type name. */
+        private final Map<String, String> columnTypes;
+
+        /* Lower cased custom column name to its dictionary id. */
+        private final Map<String, Integer> customColumnIds;
+
+        Snapshot(Map<String, String> columnTypes, Map<String, Integer> customColumnIds) {
+            this.columnTypes = Collections.unmodifiableMap(columnTypes);
+            this.customColumnIds = Collections.unmodifiableMap(customColumnIds);
+        }
+    }
+
+    /* Null until loaded. */
+    private static volatile Snapshot snapshot = null;
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private SchemaMetadataCache() {
+
+    }
+
+    /**
+     * @return the custom column names, lower cased, in the order they were
+     *         first recorded. The list is a copy the caller may modify.
+     * @throws SQLException
+     *             if the metadata had to be loaded and could not be.
+     */
+    public static ArrayList<String> getCustomColumns() throws SQLException {
+        return new ArrayList<String>(get().customColumnIds.keySet());
+    }
+
+    /**
+     * @return the custom column names, lower cased, mapped to their
+     *         dictionary ids.
+     * @throws SQLException
+     *             if the metadata had to be loaded and could not be.
+     */
+    public static Map<String, Integer> getCustomColumnIds() throws SQLException {
+        return get().customColumnIds;
+    }
+
+    /**
+     * @return true if env_dashboard has the column or it is a recorded custom
+     *         column.
+     * @throws SQLException
+     *             if the metadata had to be loaded and could not be.
+     */
+    public static boolean hasColumn(String column) throws SQLException {
+        Snapshot current = get();
+        String name = column.toLowerCase();
+        return current.columnTypes.containsKey(name) || current.customColumnIds.containsKey(name);
+    }
+
+    /**
+     * @return every env_dashboard column, lower cased, mapped to its type
+     *         name.
+     * @throws SQLException
+     *             if the metadata had to be loaded and could not be.
+     */
+    public static Map<String, String> getColumnTypes() throws SQLException {
+        return get().columnTypes;
+    }
+
+    /**
+     * Discard the cached metadata, call after changing the schema or the
+     * custom column dictionary.
+     */
+    public static synchronized void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * @return the number of lookups served from the cache.
+     */
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    /**
+     * @return the number of lookups that had to query the database.
+     */
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    private static Snapshot get() throws SQLException {
+        Snapshot current = snapshot;
+        if (current != null) {
+            HITS.incrementAndGet();
+            return current;
+        }
+        return load();
+    }
+
+    private static synchronized Snapshot load() throws SQLException {
+        // Another thread may have loaded it while we waited.
+        if (snapshot != null) {
+            HITS.incrementAndGet();
+            return snapshot;
+        }
+        MISSES.incrementAndGet();
+
+        Map<String, String> types = new LinkedHashMap<String, String>();
+        Map<String, Integer> customColumnIds = new LinkedHashMap<String, Integer>();
+
+        // Get DB connection
+        Connection conn = DBConnection.getConnection();
+        try {
+            Statement stat = conn.createStatement();
+            try {
+                ResultSet rs = stat.executeQuery(SchemaMetadataCache.columnsQuery);
+                while (rs.next()) {
+                    String column = rs.getString("COLUMN_NAME").toLowerCase();
+                    if (!types.containsKey(column)) {
+                        types.put(column, rs.getString("TYPE_NAME"));
+                    }
+                }
+                rs.close();
+
+                rs = stat.executeQuery(SchemaMetadataCache.customColumnsQuery);
+                while (rs.next()) {
+                    customColumnIds.put(rs.getString("name"), rs.getInt("id"));
+                }
+                rs.close();
+            } finally {
+                stat.close();
+            }
+        } finally {
+            DBConnection.closeConnection(conn);
+        }
+
+        snapshot = new Snapshot(types, customColumnIds);
+        return snapshot;
+    }
+}
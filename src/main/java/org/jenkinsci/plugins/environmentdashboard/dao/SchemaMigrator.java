@@ -0,0 +1,352 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+
+/**
+ * Brings the dashboard schema up to date by applying ordered, versioned
+ * migration steps. Applied versions are recorded in env_dashboard_schema so
+ * that every step runs exactly once per database. Runs once at plugin
+ * start, keeping DDL off the per-build write path.
+ */
+public class SchemaMigrator {
+
+    private static final Logger LOGGER = Logger.getLogger(SchemaMigrator.class.getName());
+
+    // Create schema version table query
+    private static String createSchemaTblQuery = "CREATE TABLE IF NOT EXISTS env_dashboard_schema (version INT PRIMARY KEY, "
+            + "description VARCHAR(255), applied_at TIMESTAMP);";
+
+    // Current schema version query
+    private static String currentVersionQuery = "SELECT COALESCE(MAX(version), 0) FROM env_dashboard_schema;";
+
+    // Record applied migration query
+    private static String recordVersionQuery = "INSERT INTO env_dashboard_schema VALUES (?, ?, CURRENT_TIMESTAMP);";
+
+    /**
+     * A single schema change. Steps must be idempotent, so a step that was
+     * interrupted before its version was recorded can safely run again.
+     */
+    public abstract static class Migration {
+
+        private final int version;
+
+        private final String description;
+
+        protected Migration(int version, String description) {
+            this.version = version;
+            this.description = description;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * Apply the change within the migrator's transaction.
+         */
+        public abstract void apply(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Migration made of plain SQL statements.
+     */
+    private static class SqlMigration extends Migration {
+
+        private final String[] statements;
+
+        SqlMigration(int version, String description, String... statements) {
+            super(version, description);
+            this.statements = statements;
+        }
+
+        @Override
+        public void apply(Connection conn) throws SQLException {
+            Statement stat = conn.createStatement();
+            try {
+                for (String statement : statements) {
+                    stat.execute(statement);
+                }
+            } finally {
+                stat.close();
+            }
+        }
+    }
+
+    /**
+     * Moves the values of the dynamic custom columns added to env_dashboard
+     * into the env_dashboard_value side table, then drops the columns.
+     */
+    private static class CustomColumnMigration extends Migration {
+
+        /* Columns created by the plugin itself, every other column is custom. */
+        private static final List<String> PRESET_COLUMNS = Arrays.asList("envcomp", "compname", "envname",
+                "buildstatus", "buildjoburl", "joburl", "buildnum", "created_at", "packagename", "id");
+
+        CustomColumnMigration(int version, String description) {
+            super(version, description);
+        }
+
+        @Override
+        public void apply(Connection conn) throws SQLException {
+            Statement stat = conn.createStatement();
+            try {
+                stat.execute("CREATE TABLE IF NOT EXISTS env_dashboard_column (id INT AUTO_INCREMENT PRIMARY KEY, "
+                        + "name VARCHAR(255) NOT NULL UNIQUE);");
+                stat.execute("CREATE TABLE IF NOT EXISTS env_dashboard_value (deploymentId BIGINT NOT NULL, "
+                        + "columnId INT NOT NULL, value VARCHAR, PRIMARY KEY (deploymentId, columnId));");
+
+                List<String> customColumns = new ArrayList<String>();
+                ResultSet rs = stat.executeQuery("SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS "
+                        + "WHERE TABLE_NAME = 'ENV_DASHBOARD' ORDER BY ORDINAL_POSITION;");
+                while (rs.next()) {
+                    String column = rs.getString("COLUMN_NAME");
+                    if (!PRESET_COLUMNS.contains(column.toLowerCase()) && !customColumns.contains(column)) {
+                        customColumns.add(column);
+                    }
+                }
+                rs.close();
+
+                for (String column : customColumns) {
+                    PreparedStatement addName = conn.prepareStatement(
+                            "MERGE INTO env_dashboard_column (name) KEY(name) VALUES (?);");
+                    DashboardDAO.setValues(addName, column.toLowerCase());
+                    addName.execute();
+                    addName.close();
+
+                    PreparedStatement findId = conn.prepareStatement("SELECT id FROM env_dashboard_column WHERE name = ?;");
+                    DashboardDAO.setValues(findId, column.toLowerCase());
+                    rs = findId.executeQuery();
+                    rs.next();
+                    int columnId = rs.getInt(1);
+                    findId.close();
+
+                    stat.execute("MERGE INTO env_dashboard_value (deploymentId, columnId, value) KEY(deploymentId, columnId) "
+                            + "SELECT id, " + columnId + ", \"" + column + "\" FROM env_dashboard WHERE \"" + column + "\" IS NOT NULL;");
+                    stat.execute("ALTER TABLE env_dashboard DROP COLUMN \"" + column + "\";");
+                }
+            } finally {
+                stat.close();
+            }
+        }
+    }
+
+    /**
+     * Moves the deployment history into monthly partitions, see
+     * {@link HistoryPartitions}. The history tables are renamed out of the
+     * way first, then copied month by month and dropped, and the
+     * env_dashboard and env_dashboard_value views take their place.
+     */
+    private static class PartitionMigration extends Migration {
+
+        private static final String COLUMNS = "envComp, jobUrl, buildNum, buildStatus, envName, compName, created_at, "
+                + "buildJobUrl, packageName, id";
+
+        PartitionMigration(int version, String description) {
+            super(version, description);
+        }
+
+        @Override
+        public void apply(Connection conn) throws SQLException {
+            Statement stat = conn.createStatement();
+            try {
+                stat.execute("CREATE SEQUENCE IF NOT EXISTS env_dashboard_id_seq;");
+                stat.execute("CREATE TABLE IF NOT EXISTS env_dashboard_partition (month INT PRIMARY KEY);");
+                HistoryPartitions.invalidate();
+                if (isTable(conn, "ENV_DASHBOARD")) {
+                    stat.execute("ALTER TABLE env_dashboard RENAME TO env_dashboard_unpartitioned;");
+                }
+                if (isTable(conn, "ENV_DASHBOARD_VALUE")) {
+                    stat.execute("ALTER TABLE env_dashboard_value RENAME TO env_dashboard_value_unpartitioned;");
+                }
+                boolean values = isTable(conn, "ENV_DASHBOARD_VALUE_UNPARTITIONED");
+
+                if (isTable(conn, "ENV_DASHBOARD_UNPARTITIONED")) {
+                    ResultSet rs = stat.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM env_dashboard_unpartitioned;");
+                    rs.next();
+                    stat.execute("ALTER SEQUENCE env_dashboard_id_seq RESTART WITH " + rs.getLong(1) + ";");
+                    rs.close();
+
+                    List<Integer> months = new ArrayList<Integer>();
+                    rs = stat.executeQuery("SELECT DISTINCT YEAR(created_at) * 100 + MONTH(created_at) "
+                            + "FROM env_dashboard_unpartitioned WHERE created_at IS NOT NULL ORDER BY 1;");
+                    while (rs.next()) {
+                        months.add(rs.getInt(1));
+                    }
+                    rs.close();
+                    if (months.isEmpty()) {
+                        months.add(HistoryPartitions.month(System.currentTimeMillis()));
+                    }
+
+                    for (int i = 0; i < months.size(); i++) {
+                        int month = months.get(i);
+                        HistoryPartitions.ensure(conn, month);
+                        // Deployments without a time sort last, they go with the oldest month.
+                        PreparedStatement copy = conn.prepareStatement("MERGE INTO " + HistoryPartitions.historyTable(month)
+                                + " (" + COLUMNS + ") KEY(id) SELECT " + COLUMNS + " FROM env_dashboard_unpartitioned "
+                                + "WHERE (created_at >= ? AND created_at < ?)" + (i == 0 ? " OR created_at IS NULL;" : ";"));
+                        DashboardDAO.setValues(copy, HistoryPartitions.start(month), HistoryPartitions.end(month));
+                        copy.execute();
+                        copy.close();
+                        conn.commit();
+
+                        if (values) {
+                            stat.execute("MERGE INTO " + HistoryPartitions.valueTable(month) + " KEY(deploymentId, columnId) "
+                                    + "SELECT v.deploymentId, v.columnId, v.value FROM env_dashboard_value_unpartitioned v "
+                                    + "INNER JOIN " + HistoryPartitions.historyTable(month) + " d ON d.id = v.deploymentId;");
+                            conn.commit();
+                        }
+                    }
+                }
+
+                // The current month always has a partition, this also creates the views.
+                HistoryPartitions.ensure(conn, HistoryPartitions.month(System.currentTimeMillis()));
+                stat.execute("DROP TABLE IF EXISTS env_dashboard_value_unpartitioned;");
+                stat.execute("DROP TABLE IF EXISTS env_dashboard_unpartitioned;");
+            } finally {
+                stat.close();
+            }
+        }
+
+        private static boolean isTable(Connection conn, String table) throws SQLException {
+            PreparedStatement stat = conn.prepareStatement("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES "
+                    + "WHERE TABLE_NAME = ? AND TABLE_TYPE = 'TABLE';");
+            try {
+                DashboardDAO.setValues(stat, table);
+                ResultSet rs = stat.executeQuery();
+                rs.next();
+                return rs.getInt(1) > 0;
+            } finally {
+                stat.close();
+            }
+        }
+    }
+
+    /* Ordered migration steps, append new steps to the end and never change an applied one. */
+    private static final List<Migration> MIGRATIONS = Arrays.<Migration>asList(
+            new SqlMigration(1, "Create env_dashboard table",
+                    "CREATE TABLE IF NOT EXISTS env_dashboard (envComp VARCHAR(255), jobUrl VARCHAR(255), "
+                    + "buildNum VARCHAR(255), buildStatus VARCHAR(255), envName VARCHAR(255), compName "
+                    + "VARCHAR(255), created_at TIMESTAMP,  buildJobUrl VARCHAR(255), packageName VARCHAR(255));"),
+            new SqlMigration(2, "Add packageName column",
+                    "ALTER TABLE env_dashboard ADD IF NOT EXISTS packageName VARCHAR(255);"),
+            new SqlMigration(3, "Add surrogate deployment id",
+                    "ALTER TABLE env_dashboard ADD IF NOT EXISTS id BIGINT AUTO_INCREMENT;",
+                    "ALTER TABLE env_dashboard ADD CONSTRAINT IF NOT EXISTS env_dashboard_pk PRIMARY KEY (id);"),
+            new SqlMigration(4, "Index deployment history",
+                    "CREATE INDEX IF NOT EXISTS env_dashboard_env_comp_created_idx ON env_dashboard (envName, compName, created_at);",
+                    "CREATE INDEX IF NOT EXISTS env_dashboard_comp_created_idx ON env_dashboard (compName, created_at);",
+                    "CREATE INDEX IF NOT EXISTS env_dashboard_env_created_idx ON env_dashboard (envName, created_at);",
+                    "CREATE INDEX IF NOT EXISTS env_dashboard_created_idx ON env_dashboard (created_at);",
+                    "CREATE INDEX IF NOT EXISTS env_dashboard_env_comp_job_idx ON env_dashboard (envComp, jobUrl);"),
+            new SqlMigration(5, "Create env_dashboard_latest table",
+                    "CREATE TABLE IF NOT EXISTS env_dashboard_latest (envComp VARCHAR(255) PRIMARY KEY, "
+                    + "jobUrl VARCHAR(255), buildNum VARCHAR(255), buildStatus VARCHAR(255), envName VARCHAR(255), "
+                    + "compName VARCHAR(255), created_at TIMESTAMP, buildJobUrl VARCHAR(255), packageName VARCHAR(255));",
+                    "ALTER TABLE env_dashboard_latest ADD IF NOT EXISTS id BIGINT;",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS env_dashboard_latest_env_comp_idx ON env_dashboard_latest (envName, compName);",
+                    "TRUNCATE TABLE env_dashboard_latest;",
+                    // The rebuild as this version shipped it, applied migrations never change.
+                    "MERGE INTO env_dashboard_latest (envComp, jobUrl, buildNum, buildStatus, envName, compName, "
+                    + "created_at, buildJobUrl, packageName, id) KEY(envComp) SELECT d.envComp, d.jobUrl, "
+                    + "d.buildNum, d.buildStatus, d.envName, d.compName, d.created_at, d.buildJobUrl, d.packageName, "
+                    + "d.id FROM env_dashboard d INNER JOIN (SELECT envName, compName, MAX(created_at) AS last_created "
+                    + "FROM env_dashboard GROUP BY envName, compName) l ON d.envName = l.envName "
+                    + "AND d.compName = l.compName AND d.created_at = l.last_created;"),
+            new CustomColumnMigration(6, "Move custom columns to env_dashboard_value"),
+            new PartitionMigration(7, "Partition deployment history by month")
+            );
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private SchemaMigrator() {
+
+    }
+
+    /**
+     * @return the schema version this plugin expects.
+     */
+    public static int getLatestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).getVersion();
+    }
+
+    /**
+     * Apply every migration newer than the database's schema version, each in
+     * its own transaction.
+     *
+     * @return the number of migrations applied.
+     * @throws SQLException
+     *             if a migration fails, later migrations are not applied.
+     */
+    public static synchronized int migrate() throws SQLException {
+        int applied = 0;
+
+        // Get DB connection
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            PreparedStatement create = conn.prepareStatement(SchemaMigrator.createSchemaTblQuery);
+            try {
+                create.execute();
+            } finally {
+                create.close();
+            }
+            int current = currentVersion(conn);
+
+            conn.setAutoCommit(false);
+            for (Migration migration : MIGRATIONS) {
+                if (migration.getVersion() <= current) {
+                    continue;
+                }
+                LOGGER.info("Applying dashboard schema migration " + migration.getVersion()
+                        + ": " + migration.getDescription());
+                try {
+                    migration.apply(conn);
+                    PreparedStatement stat = conn.prepareStatement(SchemaMigrator.recordVersionQuery);
+                    DashboardDAO.setValues(stat, migration.getVersion(), migration.getDescription());
+                    stat.execute();
+                    stat.close();
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+                applied++;
+            }
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                // Connection is unusable, closing it discards it.
+            }
+            DBConnection.closeConnection(conn);
+            SchemaMetadataCache.invalidate();
+        }
+
+        return applied;
+    }
+
+    private static int currentVersion(Connection conn) throws SQLException {
+        Statement stat = conn.createStatement();
+        try {
+            ResultSet rs = stat.executeQuery(SchemaMigrator.currentVersionQuery);
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            stat.close();
+        }
+    }
+}
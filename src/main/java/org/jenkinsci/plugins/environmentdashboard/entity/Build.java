@@ -1,5 +1,8 @@
 package org.jenkinsci.plugins.environmentdashboard.entity;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * This class represents a build object.
  * 
@@ -28,6 +31,9 @@ public class Build {
     /* A space delimited set of packages the build belongs to */
     private String packages;
 
+    /* Custom column values, keyed by column name */
+    private Map<String, String> customColumns = new LinkedHashMap<String, String>();
+
     /**
      * Create an object of type Build.
      * 
@@ -68,6 +74,24 @@ public class Build {
         this.packages += packages;
     }
 
+    /**
+     * @return the custom column values, keyed by column name.
+     */
+    public Map<String, String> getCustomColumns() {
+        return customColumns;
+    }
+
+    /**
+     * @param column
+     *            the custom column name, column names are not case
+     *            sensitive.
+     * @param value
+     *            the value to record for the column.
+     */
+    public void addCustomColumn(String column, String value) {
+        this.customColumns.put(column.toLowerCase(), value);
+    }
+
     /**
      * @return the id
      */
@@ -82,6 +106,13 @@ public class Build {
         return result;
     }
 
+    /**
+     * @return the result as a status, UNKNOWN if it is not a known one.
+     */
+    public BuildStatus getStatus() {
+        return BuildStatus.parse(result);
+    }
+
     /**
      * @param result
      *            the result to set
@@ -0,0 +1,27 @@
+package org.jenkinsci.plugins.environmentdashboard.entity;
+
+/**
+ * Status of a deployment as shown on the dashboard.
+ */
+public enum BuildStatus {
+    SUCCESS, FAILURE, UNSTABLE, ABORTED, NOT_BUILT, RUNNING, UNKNOWN;
+
+    /* values() copies the array on every call */
+    private static final BuildStatus[] VALUES = values();
+
+    /**
+     * @param status
+     *            the recorded build status.
+     * @return the matching status, UNKNOWN if there is none.
+     */
+    public static BuildStatus parse(String status) {
+        if (status != null) {
+            for (BuildStatus value : VALUES) {
+                if (value.name().equals(status)) {
+                    return value;
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,198 @@
+package org.jenkinsci.plugins.environmentdashboard.entity;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable recorded deployment, as read back for the dashboard.
+ *
+ * Kept compact as a render holds one per grid cell and history row:
+ * environment and component names are interned, the status is an enum, a
+ * build job URL equal to the job URL shares its instance and custom column
+ * values are a plain array next to column names shared by a whole result.
+ */
+public final class Deployment {
+
+    private static final String[] NO_CUSTOM_VALUES = new String[0];
+
+    /* Database id */
+    private final long id;
+
+    /* Environment deployed to */
+    private final String env;
+
+    /* Component deployed */
+    private final String comp;
+
+    /* Status of the deployment */
+    private final BuildStatus status;
+
+    /* Build number */
+    private final String buildNum;
+
+    /* URL of the deployment build */
+    private final String jobUrl;
+
+    /* URL of the build job */
+    private final String buildJobUrl;
+
+    /* Time the deployment was recorded */
+    private final String createdAt;
+
+    /* A space delimited set of packages deployed */
+    private final String packageName;
+
+    /* Custom column names, shared by all deployments read together */
+    private final String[] customColumns;
+
+    /* Custom column values, in the order of customColumns */
+    private final String[] customValues;
+
+    /**
+     * Create a deployment without custom column values.
+     */
+    public Deployment(long id, String env, String comp, BuildStatus status, String buildNum, String jobUrl,
+            String buildJobUrl, String createdAt, String packageName) {
+        this(id, env, comp, status, buildNum, jobUrl, buildJobUrl, createdAt, packageName,
+                NO_CUSTOM_VALUES, NO_CUSTOM_VALUES);
+    }
+
+    private Deployment(long id, String env, String comp, BuildStatus status, String buildNum, String jobUrl,
+            String buildJobUrl, String createdAt, String packageName, String[] customColumns, String[] customValues) {
+        this.id = id;
+        this.env = env == null ? null : env.intern();
+        this.comp = comp == null ? null : comp.intern();
+        this.status = status == null ? BuildStatus.UNKNOWN : status;
+        this.buildNum = buildNum;
+        this.jobUrl = jobUrl;
+        this.buildJobUrl = buildJobUrl != null && buildJobUrl.equals(jobUrl) ? jobUrl : buildJobUrl;
+        this.createdAt = createdAt;
+        this.packageName = packageName;
+        this.customColumns = customColumns;
+        this.customValues = customValues;
+    }
+
+    /**
+     * @param columns
+     *            the custom column names, lower cased, shared by the
+     *            deployments read together.
+     * @param values
+     *            the values of this deployment in the order of columns, null
+     *            for none.
+     * @return a copy of this deployment with the custom column values.
+     */
+    public Deployment withCustomValues(String[] columns, String[] values) {
+        if (columns.length != values.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " custom values, got " + values.length);
+        }
+        return new Deployment(id, env, comp, status, buildNum, jobUrl, buildJobUrl, createdAt, packageName,
+                columns, values);
+    }
+
+    /**
+     * @return the database id.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the environment deployed to.
+     */
+    public String getEnv() {
+        return env;
+    }
+
+    /**
+     * @return the component deployed.
+     */
+    public String getComp() {
+        return comp;
+    }
+
+    /**
+     * @return the status of the deployment.
+     */
+    public BuildStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the build number.
+     */
+    public String getBuildNum() {
+        return buildNum;
+    }
+
+    /**
+     * @return the URL of the deployment build.
+     */
+    public String getJobUrl() {
+        return jobUrl;
+    }
+
+    /**
+     * @return the URL of the build job.
+     */
+    public String getBuildJobUrl() {
+        return buildJobUrl;
+    }
+
+    /**
+     * @return the time the deployment was recorded.
+     */
+    public String getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the packages deployed, possibly empty.
+     */
+    public String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     * @return true if packages were recorded for the deployment.
+     */
+    public boolean hasPackage() {
+        return packageName != null && !packageName.equals("");
+    }
+
+    /**
+     * @return the packages deployed, or the build number if none were
+     *         recorded.
+     */
+    public String getLabel() {
+        return hasPackage() ? packageName : buildNum;
+    }
+
+    /**
+     * @param column
+     *            the custom column name, lower cased.
+     * @return the value of the column, or null if there is none.
+     */
+    public String getCustomValue(String column) {
+        for (int i = 0; i < customColumns.length; i++) {
+            if (customColumns[i].equals(column)) {
+                return customValues[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the custom column values, keyed by lower cased column name.
+     *         Columns without a value are left out.
+     */
+    public Map<String, String> getCustomValues() {
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (int i = 0; i < customColumns.length; i++) {
+            if (customValues[i] != null) {
+                values.put(customColumns[i], customValues[i]);
+            }
+        }
+        return Collections.unmodifiableMap(values);
+    }
+}
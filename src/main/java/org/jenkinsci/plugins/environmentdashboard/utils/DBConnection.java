@@ -2,15 +2,25 @@ package org.jenkinsci.plugins.environmentdashboard.utils;
 
 import java.io.File;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.logging.Logger;
 
 import jenkins.model.Jenkins;
 
+import org.h2.jdbcx.JdbcConnectionPool;
+
 /**
- * Singleton class to represent a single DB connection.
- * 
+ * Manages the pooled connections to the dashboard H2 database, embedded
+ * next to JENKINS_HOME or on an H2 server.
+ *
+ * Connections are handed out from two bounded pools that live for the whole
+ * plugin lifecycle: a read pool shared by view renders and a single
+ * connection write pool so that builds recording to the dashboard are
+ * serialised instead of overwriting each other's connection. Callers must
+ * return every connection with {@link #closeConnection(Connection)}.
+ *
  * @author robertnorthard
  * @date 18/10/2014, 01/03/2015
  */
@@ -18,7 +28,34 @@ public class DBConnection {
 
     private static final Logger LOGGER = Logger.getLogger(DBConnection.class.getName());
 
-    private static Connection con = null;
+    /* Maximum number of concurrent read connections */
+    private static final int MAX_READ_CONNECTIONS = Integer.getInteger(
+            DBConnection.class.getName() + ".maxReadConnections", 8);
+
+    /* Maximum number of concurrent write connections */
+    private static final int MAX_WRITE_CONNECTIONS = 1;
+
+    /* Seconds to wait for a free connection before giving up */
+    private static final int ACQUIRE_TIMEOUT = Integer.getInteger(
+            DBConnection.class.getName() + ".acquireTimeout", 30);
+
+    /* Directory holding the database, JENKINS_HOME if not set */
+    private static final String DIRECTORY = System.getProperty(
+            DBConnection.class.getName() + ".directory");
+
+    /* Number of parsed statements H2 keeps per connection */
+    private static final int QUERY_CACHE_SIZE = Integer.getInteger(
+            DBConnection.class.getName() + ".queryCacheSize", 64);
+
+    /* Directory configured for the database, overrides DIRECTORY */
+    private static volatile File configuredDirectory = null;
+
+    /* JDBC URL of an H2 server holding the database, null for embedded */
+    private static volatile String serverUrl = null;
+
+    private static JdbcConnectionPool readPool = null;
+
+    private static JdbcConnectionPool writePool = null;
 
     /**
      * Added explicit private constructor as this is a utility class.
@@ -28,41 +65,51 @@ public class DBConnection {
     }
 
     /**
-     * Return a database connection object.
-     * 
+     * Return a pooled connection for reading from the database.
+     *
      * @return a database connection object
+     * @throws SQLException
+     *             if no connection could be acquired in time.
      */
-    public static Connection getConnection() {
-
-        // Generate connection String for DB driver.
-        String dbConnectionString = "jdbc:h2:"
-                + Jenkins.getInstance().root.toString() + File.separator
-                + "jenkins_dashboard" + ";MVCC=true";
+    public static Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return getReadPool().getConnection();
+        } finally {
+            DashboardMetrics.CONNECTION_ACQUIRE.observeSince("read", start);
+        }
+    }
 
-        // Load driver and connect to DB
+    /**
+     * Return a pooled connection for writing to the database.
+     *
+     * @return a database connection object
+     * @throws SQLException
+     *             if no connection could be acquired in time.
+     */
+    public static Connection getWriteConnection() throws SQLException {
+        long start = System.nanoTime();
         try {
-            Class.forName("org.h2.Driver");
-            DBConnection.con = DriverManager.getConnection(dbConnectionString);
-        } catch (ClassNotFoundException e) {
-            LOGGER.info("WARN: Could not acquire Class org.h2.Driver." + e);
-        } catch (SQLException e) {
-            LOGGER.info("WARN: Could not acquire connection to H2 DB." + e);
+            return getWritePool().getConnection();
+        } finally {
+            DashboardMetrics.CONNECTION_ACQUIRE.observeSince("write", start);
         }
-        return con;
     }
 
     /**
-     * Close Database Connection
-     * 
+     * Return a connection to its pool.
+     *
+     * @param conn
+     *            the connection to release, may be null.
      * @return true if database connection closed successful, else false if
      *         connection not closed or SQLException.
      */
-    public static boolean closeConnection() {
+    public static boolean closeConnection(Connection conn) {
 
         // Prevent unchecked NullPointerException
-        if (DBConnection.con != null) {
+        if (conn != null) {
             try {
-                DBConnection.con.close();
+                conn.close();
                 return true;
             } catch (SQLException e) {
                 LOGGER.info("E5: " + e);
@@ -72,4 +119,111 @@ public class DBConnection {
         // default - failed to close
         return false;
     }
+
+    /**
+     * Close a result set together with the statement and connection that
+     * produced it.
+     *
+     * @param rs
+     *            the result set to close, may be null.
+     */
+    public static void closeQuietly(ResultSet rs) {
+        if (rs == null) {
+            return;
+        }
+        Connection conn = null;
+        try {
+            Statement stat = rs.getStatement();
+            if (stat != null) {
+                conn = stat.getConnection();
+                stat.close();
+            }
+            rs.close();
+        } catch (SQLException e) {
+            LOGGER.info("E5: " + e);
+        } finally {
+            closeConnection(conn);
+        }
+    }
+
+    /**
+     * Dispose of both pools, closing every idle connection. Connections
+     * still in use are closed when they are returned.
+     */
+    public static synchronized void shutdown() {
+        if (readPool != null) {
+            readPool.dispose();
+            readPool = null;
+        }
+        if (writePool != null) {
+            writePool.dispose();
+            writePool = null;
+        }
+    }
+
+    /**
+     * Point the pools at another database, disposing of the current pools.
+     *
+     * @param directory
+     *            the directory of the embedded database, null for the
+     *            default.
+     * @param url
+     *            the JDBC URL of an H2 server, null for the embedded
+     *            database.
+     */
+    public static synchronized void configure(File directory, String url) {
+        shutdown();
+        configuredDirectory = directory == null ? null : directory.getAbsoluteFile();
+        serverUrl = url;
+    }
+
+    private static synchronized JdbcConnectionPool getReadPool() {
+        if (readPool == null) {
+            readPool = createPool(MAX_READ_CONNECTIONS);
+        }
+        return readPool;
+    }
+
+    private static synchronized JdbcConnectionPool getWritePool() {
+        if (writePool == null) {
+            writePool = createPool(MAX_WRITE_CONNECTIONS);
+        }
+        return writePool;
+    }
+
+    private static JdbcConnectionPool createPool(int maxConnections) {
+        // Load driver so the pool can open connections.
+        try {
+            Class.forName("org.h2.Driver");
+        } catch (ClassNotFoundException e) {
+            LOGGER.info("WARN: Could not acquire Class org.h2.Driver." + e);
+        }
+
+        JdbcConnectionPool pool = JdbcConnectionPool.create(getConnectionString(), "", "");
+        pool.setMaxConnections(maxConnections);
+        pool.setLoginTimeout(ACQUIRE_TIMEOUT);
+        return pool;
+    }
+
+    /**
+     * @return the directory holding the dashboard database.
+     */
+    public static File getDirectory() {
+        File directory = configuredDirectory;
+        if (directory != null) {
+            return directory;
+        }
+        return DIRECTORY != null ? new File(DIRECTORY).getAbsoluteFile() : Jenkins.getInstance().root;
+    }
+
+    /**
+     * @return the JDBC connection string for the dashboard database.
+     */
+    public static String getConnectionString() {
+        String url = serverUrl;
+        if (url == null) {
+            url = "jdbc:h2:" + getDirectory() + File.separator + "jenkins_dashboard";
+        }
+        return url + ";MVCC=true" + ";QUERY_CACHE_SIZE=" + QUERY_CACHE_SIZE;
+    }
 }
@@ -0,0 +1,327 @@
+package org.jenkinsci.plugins.environmentdashboard.utils;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and counters of the dashboard database and renders, written in the
+ * Prometheus text exposition format.
+ *
+ * Metrics are kept in memory from plugin start, each metric has at most one
+ * label and a series per label value. Lines always end with \n, as the
+ * format requires.
+ */
+public class DashboardMetrics {
+
+    /* Upper bounds of the latency buckets, in seconds */
+    private static final double[] SECONDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+            1, 2.5, 5, 10, 30};
+
+    /* Upper bounds of the query count buckets */
+    private static final double[] COUNTS = {0, 1, 2, 5, 10, 20, 50, 100, 200, 500};
+
+    /* Nanoseconds in a second */
+    private static final double NANOS = 1e9;
+
+    /** Time taken by dashboard database operations and renders. */
+    public static final Histogram OPERATIONS = new Histogram("environment_dashboard_operation_seconds",
+            "Time taken by dashboard database operations and renders.", "operation", SECONDS);
+
+    /** Time taken by each named read query. */
+    public static final Histogram QUERIES = new Histogram("environment_dashboard_query_seconds",
+            "Time taken by dashboard read queries.", "query", SECONDS);
+
+    /** Time waited for a pooled connection. */
+    public static final Histogram CONNECTION_ACQUIRE = new Histogram(
+            "environment_dashboard_connection_acquire_seconds",
+            "Time waited for a pooled dashboard database connection.", "pool", SECONDS);
+
+    /** Queries run to build each dashboard grid. */
+    public static final Histogram RENDER_QUERIES = new Histogram("environment_dashboard_render_queries",
+            "Database queries run to build a dashboard grid.", null, COUNTS);
+
+    /** Deployments deleted by retention. */
+    public static final Counter PURGED_ROWS = new Counter("environment_dashboard_purged_rows_total",
+            "Deployments deleted by the retention purge.", null);
+
+    /** Deployments moved to the archive. */
+    public static final Counter ARCHIVED_ROWS = new Counter("environment_dashboard_archived_rows_total",
+            "Deployments moved from the database to the history archive.", null);
+
+    /** File space given back by compaction. */
+    public static final Counter COMPACTED_BYTES = new Counter("environment_dashboard_compacted_bytes_total",
+            "Bytes of the dashboard database file reclaimed by compaction.", null);
+
+    /** Dashboard failures by error code. */
+    public static final Counter ERRORS = new Counter("environment_dashboard_errors_total",
+            "Dashboard failures by error code.", "code");
+
+    /**
+     * Added explicit private constructor as this is a utility class.
+     */
+    private DashboardMetrics() {
+
+    }
+
+    /**
+     * Write every histogram and counter.
+     *
+     * @param out
+     *            the writer of the exposition.
+     */
+    public static void write(PrintWriter out) {
+        OPERATIONS.write(out);
+        QUERIES.write(out);
+        CONNECTION_ACQUIRE.write(out);
+        RENDER_QUERIES.write(out);
+        PURGED_ROWS.write(out);
+        ARCHIVED_ROWS.write(out);
+        COMPACTED_BYTES.write(out);
+        ERRORS.write(out);
+    }
+
+    /**
+     * Write a metric sampled when scraped.
+     *
+     * @param out
+     *            the writer of the exposition.
+     * @param name
+     *            the metric name.
+     * @param help
+     *            the metric description.
+     * @param type
+     *            gauge or counter.
+     * @param label
+     *            the label name, or null if the metric has a single series.
+     * @param values
+     *            the value of each label value, a single entry of any key if
+     *            unlabelled.
+     */
+    public static void writeSampled(PrintWriter out, String name, String help, String type, String label,
+            Map<String, ? extends Number> values) {
+        header(out, name, help, type);
+        for (Map.Entry<String, ? extends Number> value : values.entrySet()) {
+            out.print(name);
+            out.print(labels(label, value.getKey(), null));
+            out.print(' ');
+            out.print(value.getValue());
+            out.print('\n');
+        }
+    }
+
+    private static void header(PrintWriter out, String name, String help, String type) {
+        out.print("# HELP ");
+        out.print(name);
+        out.print(' ');
+        out.print(help);
+        out.print('\n');
+        out.print("# TYPE ");
+        out.print(name);
+        out.print(' ');
+        out.print(type);
+        out.print('\n');
+    }
+
+    private static String labels(String label, String value, String le) {
+        StringBuilder labels = new StringBuilder();
+        if (label != null) {
+            labels.append(label).append("=\"").append(escape(value)).append('"');
+        }
+        if (le != null) {
+            if (labels.length() > 0) {
+                labels.append(',');
+            }
+            labels.append("le=\"").append(le).append('"');
+        }
+        return labels.length() == 0 ? "" : "{" + labels + "}";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        if (value == (long) value) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * A distribution of observed values in fixed buckets.
+     */
+    public static final class Histogram {
+
+        private final String name;
+
+        private final String help;
+
+        private final String label;
+
+        private final double[] bounds;
+
+        private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<String, Series>();
+
+        private Histogram(String name, String help, String label, double[] bounds) {
+            this.name = name;
+            this.help = help;
+            this.label = label;
+            this.bounds = bounds;
+        }
+
+        /**
+         * Record the time since an operation started.
+         *
+         * @param labelValue
+         *            the label value, null if the histogram has no label.
+         * @param startNanos
+         *            the {@link System#nanoTime()} the operation started at.
+         */
+        public void observeSince(String labelValue, long startNanos) {
+            observe(labelValue, (System.nanoTime() - startNanos) / NANOS);
+        }
+
+        /**
+         * Record a value.
+         *
+         * @param labelValue
+         *            the label value, null if the histogram has no label.
+         * @param value
+         *            the observed value.
+         */
+        public void observe(String labelValue, double value) {
+            series(labelValue).observe(bounds, value);
+        }
+
+        /**
+         * @return the number of values recorded for a label value.
+         */
+        public long getCount(String labelValue) {
+            Series recorded = series.get(labelValue == null ? "" : labelValue);
+            return recorded == null ? 0 : recorded.snapshot()[bounds.length];
+        }
+
+        private Series series(String labelValue) {
+            String key = labelValue == null ? "" : labelValue;
+            Series recorded = series.get(key);
+            if (recorded == null) {
+                Series created = new Series(bounds.length);
+                recorded = series.putIfAbsent(key, created);
+                if (recorded == null) {
+                    recorded = created;
+                }
+            }
+            return recorded;
+        }
+
+        private void write(PrintWriter out) {
+            header(out, name, help, "histogram");
+            for (Map.Entry<String, Series> entry : new TreeMap<String, Series>(series).entrySet()) {
+                String value = entry.getKey();
+                Series recorded = entry.getValue();
+                long[] counts;
+                double sum;
+                synchronized (recorded) {
+                    counts = recorded.snapshot();
+                    sum = recorded.sum;
+                }
+                long cumulative = 0;
+                for (int i = 0; i < bounds.length; i++) {
+                    cumulative += counts[i];
+                    out.print(name + "_bucket" + labels(label, value, format(bounds[i])) + " " + cumulative + "\n");
+                }
+                out.print(name + "_bucket" + labels(label, value, "+Inf") + " " + counts[bounds.length] + "\n");
+                out.print(name + "_sum" + labels(label, value, null) + " " + sum + "\n");
+                out.print(name + "_count" + labels(label, value, null) + " " + counts[bounds.length] + "\n");
+            }
+        }
+    }
+
+    /**
+     * Bucket counts of one label value. The last slot holds the total count.
+     */
+    private static final class Series {
+
+        private final long[] counts;
+
+        private double sum = 0;
+
+        Series(int buckets) {
+            counts = new long[buckets + 1];
+        }
+
+        synchronized void observe(double[] bounds, double value) {
+            for (int i = 0; i < bounds.length; i++) {
+                if (value <= bounds[i]) {
+                    counts[i]++;
+                    break;
+                }
+            }
+            counts[bounds.length]++;
+            sum += value;
+        }
+
+        synchronized long[] snapshot() {
+            return counts.clone();
+        }
+    }
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static final class Counter {
+
+        private final String name;
+
+        private final String help;
+
+        private final String label;
+
+        private final ConcurrentMap<String, AtomicLong> values = new ConcurrentHashMap<String, AtomicLong>();
+
+        private Counter(String name, String help, String label) {
+            this.name = name;
+            this.help = help;
+            this.label = label;
+        }
+
+        /**
+         * @param labelValue
+         *            the label value, null if the counter has no label.
+         * @param amount
+         *            the amount to add.
+         */
+        public void increment(String labelValue, long amount) {
+            String key = labelValue == null ? "" : labelValue;
+            AtomicLong value = values.get(key);
+            if (value == null) {
+                AtomicLong created = new AtomicLong();
+                value = values.putIfAbsent(key, created);
+                if (value == null) {
+                    value = created;
+                }
+            }
+            value.addAndGet(amount);
+        }
+
+        /**
+         * @return the count of a label value.
+         */
+        public long get(String labelValue) {
+            AtomicLong value = values.get(labelValue == null ? "" : labelValue);
+            return value == null ? 0 : value.get();
+        }
+
+        private void write(PrintWriter out) {
+            Map<String, AtomicLong> sorted = new TreeMap<String, AtomicLong>(values);
+            if (label == null && sorted.isEmpty()) {
+                sorted.put("", new AtomicLong());
+            }
+            writeSampled(out, name, help, "counter", label, sorted);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.jenkinsci.plugins.environmentdashboard.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Environment or component name filter of a dashboard view, compiled once
+ * when the view configuration is saved.
+ *
+ * The filter is a comma separated list of patterns. A pattern is a glob,
+ * where * matches any characters and ? one, or a regular expression between
+ * slashes. Patterns starting with ! exclude the names they match. A name is
+ * kept if it matches any include pattern, or there are none, and no exclude
+ * pattern: "team-a-*, !*-legacy" keeps team-a-web but not team-a-legacy.
+ *
+ * The filtered list of the last names filtered is remembered, so views
+ * filter the shared name lists again only when they change.
+ */
+public class NameFilter {
+
+    /** Keeps every name. */
+    public static final NameFilter ALL = new NameFilter("", null, null);
+
+    private final String spec;
+
+    /* Names kept, null to keep all */
+    private final Pattern include;
+
+    /* Names dropped, null to drop none */
+    private final Pattern exclude;
+
+    /* The last names filtered and what was kept of them */
+    private volatile List<String>[] last = null;
+
+    private NameFilter(String spec, Pattern include, Pattern exclude) {
+        this.spec = spec;
+        this.include = include;
+        this.exclude = exclude;
+    }
+
+    /**
+     * @param spec
+     *            the comma separated patterns, may be null or blank to keep
+     *            every name.
+     * @return the compiled filter.
+     * @throws PatternSyntaxException
+     *             if a regular expression is not valid.
+     */
+    public static NameFilter compile(String spec) {
+        if (spec == null || spec.trim().equals("")) {
+            return ALL;
+        }
+        StringBuilder include = new StringBuilder();
+        StringBuilder exclude = new StringBuilder();
+        for (String pattern : spec.split(",")) {
+            pattern = pattern.trim();
+            StringBuilder target = include;
+            if (pattern.startsWith("!")) {
+                target = exclude;
+                pattern = pattern.substring(1).trim();
+            }
+            if (pattern.equals("")) {
+                continue;
+            }
+            String regex;
+            if (pattern.length() > 1 && pattern.startsWith("/") && pattern.endsWith("/")) {
+                regex = pattern.substring(1, pattern.length() - 1);
+                // Fail on the pattern at fault rather than the combined one.
+                Pattern.compile(regex);
+            } else {
+                regex = glob(pattern);
+            }
+            target.append(target.length() == 0 ? "" : "|").append("(?:").append(regex).append(')');
+        }
+        return new NameFilter(spec.trim(), include.length() == 0 ? null : Pattern.compile(include.toString()),
+                exclude.length() == 0 ? null : Pattern.compile(exclude.toString()));
+    }
+
+    private static String glob(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        int literal = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal < i) {
+                    regex.append(Pattern.quote(pattern.substring(literal, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literal = i + 1;
+            }
+        }
+        if (literal < pattern.length()) {
+            regex.append(Pattern.quote(pattern.substring(literal)));
+        }
+        return regex.toString();
+    }
+
+    /**
+     * @return true if the filter keeps every name.
+     */
+    public boolean isAll() {
+        return include == null && exclude == null;
+    }
+
+    /**
+     * @param name
+     *            the environment or component name.
+     * @return true if the name is kept.
+     */
+    public boolean matches(String name) {
+        return (include == null || include.matcher(name).matches())
+                && (exclude == null || !exclude.matcher(name).matches());
+    }
+
+    /**
+     * @param names
+     *            the names, not changed afterwards.
+     * @return the names kept, in the same order. Unmodifiable.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> filter(List<String> names) {
+        if (isAll()) {
+            return names;
+        }
+        List<String>[] filtered = last;
+        if (filtered != null && filtered[0] == names) {
+            return filtered[1];
+        }
+        List<String> kept = new ArrayList<String>();
+        for (String name : names) {
+            if (matches(name)) {
+                kept.add(name);
+            }
+        }
+        kept = Collections.unmodifiableList(kept);
+        last = new List[] {names, kept};
+        return kept;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Keeps an open dashboard current by patching the grid cells reported by
+ * the view's change stream, instead of reloading the page.
+ * Expects dashboardUrl to be set to the URL of the view and history.js to
+ * be loaded.
+ */
+
+var cellStyles = {
+    SUCCESS: {background: "#DAF5DA", clss: "notused", extn: ""},
+    FAILURE: {background: "#FF6666", clss: "notused", extn: ""},
+    RUNNING: {background: "#ffffff", clss: "deploying", extn: "console"}
+};
+
+function watchDashboard(since) {
+    if (!window.EventSource) {
+        return;
+    }
+    // The browser reconnects with the Last-Event-ID header when the response ends.
+    var source = new EventSource(dashboardUrl + "changes?since=" + encodeURIComponent(since));
+    source.addEventListener("cell", function (e) {
+        since = e.lastEventId;
+        patchCell(JSON.parse(e.data));
+    });
+    source.addEventListener("reset", function () {
+        source.close();
+        location.reload();
+    });
+    source.onerror = function () {
+        // Refused, for example while Jenkins restarts, the browser does not retry by itself.
+        if (source.readyState == EventSource.CLOSED) {
+            setTimeout(function () {
+                watchDashboard(since);
+            }, 30000);
+        }
+    };
+}
+
+function patchCell(cell) {
+    var td = $("td[data-env]").filter(function () {
+        return $(this).attr("data-env") == cell.env && $(this).attr("data-comp") == cell.comp;
+    });
+    if (td.length == 0) {
+        // A new environment or component, the grid has to be rebuilt.
+        location.reload();
+        return;
+    }
+    td.empty().removeAttr("class").removeAttr("style").removeAttr("align");
+    if (!cell.deployed) {
+        td.append($("<div align='center' style='font-size:15px;'/>").append($("<strong/>").text("---")));
+        return;
+    }
+
+    var style = cellStyles[cell.buildstatus] || {background: "#eccf97", clss: "notused", extn: "console"};
+    td.attr("class", style.clss).attr("align", "center")
+        .css({"background-color": style.background, "padding": "1.5% 1.5%"});
+
+    var popup = $("<a style='text-decoration:none; color:blue; font-size:medium;' title='View'/>")
+        .attr("href", "#")
+        .click(function () {
+            showCellHistory(cell.comp, cell.env);
+            return false;
+        });
+    popup.append($("<strong/>").text(cell.packageName ? cell.packageName : cell.buildNum)
+        .append(" ").append(statusIcon(cell.buildstatus)));
+    td.append(popup);
+
+    var time = $("<a style='font-size:small; text-decoration:none;' title='View Deployment'/>")
+        .attr("href", (cell.jobUrl || "") + style.extn).text("[" + cell.time + "]");
+    td.append($("<div align='right'/>").append($("<code/>").append(time)));
+}
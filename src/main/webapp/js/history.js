@@ -0,0 +1,111 @@
+/*
+ * History popups of the environment dashboard. The history is fetched from
+ * the view when a popup is opened rather than rendered into every page.
+ * Expects dashboardUrl to be set to the URL of the view.
+ */
+
+var statusIcons = {
+    SUCCESS: {color: "green", icon: "\u2714"},
+    FAILURE: {color: "darkred", icon: "\u2716"},
+    RUNNING: {color: "blue", icon: "\u25BA"}
+};
+
+function showEnvHistory(env) {
+    showHistory("envHistory", {env: env});
+}
+
+function showCellHistory(comp, env) {
+    showHistory("cellHistory", {comp: comp, env: env});
+}
+
+function showComponentHistory(comp) {
+    showHistory("componentHistory", {comp: comp});
+}
+
+/* The open popup: its method, parameters, columns and next page cursor */
+var historyPage = null;
+
+function showHistory(method, params) {
+    hideAll();
+    var page = historyPage = {method: method, params: params};
+    $("#history_Title").text("Loading...");
+    $("#history_Table").empty();
+    $("#history_More").hide();
+    document.getElementById("history_Popup").style.display = "block";
+    fetchHistory(page, params)
+        .done(function (history) {
+            if (page == historyPage) {
+                renderHistory(history);
+            }
+        })
+        .fail(function () {
+            $("#history_Title").text("Could not load the deployment history.");
+        });
+}
+
+/* Appends the next page of the open popup, older than the last row shown. */
+function loadMoreHistory() {
+    var page = historyPage;
+    $("#history_More").hide();
+    fetchHistory(page, $.extend({before: page.next}, page.params))
+        .done(function (history) {
+            if (page == historyPage) {
+                appendHistory(history);
+            }
+        })
+        .fail(function () {
+            $("#history_More").show();
+        });
+}
+
+function fetchHistory(page, params) {
+    return $.ajax({url: dashboardUrl + page.method, data: params, dataType: "json", cache: false});
+}
+
+function renderHistory(history) {
+    $("#history_Title").text(history.title);
+    var header = $("<tr/>");
+    $.each(history.columns, function (i, column) {
+        header.append($("<th style='text-align:center'/>").text(column.label));
+    });
+    $("#history_Table").append($("<tbody/>").append(header));
+
+    // Later pages keep the columns of the first.
+    historyPage.columns = history.columns;
+    appendHistory(history);
+}
+
+function appendHistory(history) {
+    var table = $("#history_Table");
+    $.each(history.deployments, function (i, deployment) {
+        var row = $("<tr/>");
+        $.each(historyPage.columns, function (j, column) {
+            row.append(renderCell(column, deployment));
+        });
+        table.append(row);
+    });
+    historyPage.next = history.next;
+    $("#history_More").toggle(history.next != null);
+}
+
+function renderCell(column, deployment) {
+    var cell = $("<td style='max-width:20em;word-wrap:break-word'/>");
+    var value = deployment[column.field];
+    if (column.type == "status") {
+        return cell.append(statusIcon(value));
+    }
+    if (column.type == "link" || column.type == "build") {
+        cell.append($("<a title='View Deployment'/>").attr("href", deployment[column.link] || "").text(value || ""));
+    } else {
+        cell.text(value || "");
+    }
+    if (column.type == "build") {
+        cell.append(" ").append(statusIcon(deployment.buildstatus));
+    }
+    return cell;
+}
+
+function statusIcon(status) {
+    var icon = statusIcons[status] || {color: "orange", icon: "?"};
+    return $("<span/>").attr("title", statusIcons[status] ? status : "UNKNOWN").css("color", icon.color).text(icon.icon);
+}
@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.environmentdashboard;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.BuildStatus;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DashboardMatrixTest {
+
+    private DashboardMatrix matrix;
+
+    @Before
+    public void setUp() throws Exception {
+        Deployment deployment = new Deployment(1, "DEV", "WEBAPP", BuildStatus.SUCCESS, "42",
+                "job/deploy/42/", "job/deploy/42/", "2015-03-01 12:00:00.0", "");
+
+        List<Deployment> cells = Arrays.asList(deployment);
+
+        List<String> envs = Arrays.asList("DEV", "PROD");
+        List<String> comps = Arrays.asList("WEBAPP");
+        matrix = new DashboardMatrix(envs, comps, Collections.<String>emptyList(), cells);
+    }
+
+    @Test
+    public void testGetCell() throws Exception {
+        assertEquals("42", matrix.getCell("DEV", "WEBAPP").getBuildNum());
+        assertEquals(BuildStatus.SUCCESS, matrix.getCell("DEV", "WEBAPP").getStatus());
+    }
+
+    @Test
+    public void testGetCellNeverDeployed() throws Exception {
+        assertNull(matrix.getCell("PROD", "WEBAPP"));
+        assertNull(matrix.getCell("TEST", "WEBAPP"));
+    }
+
+    @Test
+    public void testSize() throws Exception {
+        assertEquals(1, matrix.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCellIsImmutable() throws Exception {
+        matrix.getCell("DEV", "WEBAPP").getCustomValues().put("ver", "43");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testEnvsAreImmutable() throws Exception {
+        matrix.getEnvs().add("TEST");
+    }
+}
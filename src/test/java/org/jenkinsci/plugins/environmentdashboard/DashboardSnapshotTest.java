@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.environmentdashboard;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.dao.DashboardWriteQueue;
+import org.jenkinsci.plugins.environmentdashboard.dao.MemoryDashboardStore;
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DashboardSnapshotTest {
+
+    private DashboardStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new MemoryDashboardStore();
+        DashboardStore.use(store);
+        deploy("DEV", "WEBAPP", 1);
+        deploy("QA", "WEBAPP", 2);
+        deploy("DEV", "API", 3);
+    }
+
+    private void deploy(String env, String comp, int number) throws Exception {
+        String url = "job/deploy-" + comp + "/" + number + "/";
+        store.write(Collections.singletonList(new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.ADD,
+                env + "=" + comp, new Build(String.valueOf(number), url, "SUCCESS", env, comp, url, ""))));
+    }
+
+    @Test
+    public void testSharedUntilDataChanges() throws Exception {
+        long builds = DashboardSnapshot.getBuilds();
+        DashboardSnapshot snapshot = DashboardSnapshot.get();
+        assertSame(snapshot, DashboardSnapshot.get());
+        assertEquals(builds + 1, DashboardSnapshot.getBuilds());
+
+        deploy("PROD", "WEBAPP", 4);
+        DashboardSnapshot changed = DashboardSnapshot.get();
+        assertNotSame(snapshot, changed);
+        assertEquals(Arrays.asList("DEV", "PROD", "QA"), changed.getEnvs());
+        assertEquals(4, changed.size());
+    }
+
+    @Test
+    public void testNameOrder() throws Exception {
+        DashboardSnapshot snapshot = DashboardSnapshot.get();
+        assertEquals(Arrays.asList("DEV", "QA"), snapshot.getEnvs());
+        assertEquals(Arrays.asList("API", "WEBAPP"), snapshot.getComps());
+        assertEquals(3, snapshot.size());
+    }
+
+    @Test
+    public void testViewProjections() throws Exception {
+        DashboardSnapshot snapshot = DashboardSnapshot.get();
+        DashboardMatrix qa = new DashboardMatrix(Arrays.asList("QA"), Arrays.asList("WEBAPP", "API"), snapshot);
+        DashboardMatrix dev = new DashboardMatrix(Arrays.asList("DEV"), Arrays.asList("API"), snapshot);
+
+        assertEquals(Arrays.asList("WEBAPP", "API"), qa.getComps());
+        assertEquals("2", qa.getCell("QA", "WEBAPP").getBuildNum());
+        assertNull(qa.getCell("QA", "API"));
+        assertEquals("3", dev.getCell("DEV", "API").getBuildNum());
+        assertEquals(Arrays.asList("API"), dev.getComps());
+    }
+
+    @Test
+    public void testNamesKeptWhileCellsAreUnchanged() throws Exception {
+        DashboardSnapshot snapshot = DashboardSnapshot.get();
+        deploy("DEV", "WEBAPP", 4);
+        DashboardSnapshot redeployed = DashboardSnapshot.get();
+        assertNotSame(snapshot, redeployed);
+        assertSame(snapshot.getEnvs(), redeployed.getEnvs());
+        assertSame(snapshot.getComps(), redeployed.getComps());
+    }
+}
@@ -0,0 +1,227 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.jenkinsci.plugins.environmentdashboard.entity.BuildStatus;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DashboardReadModelTest {
+
+    /**
+     * A memory store that records a deployment, as the writer would, while
+     * the model is being read from it.
+     */
+    private static class WritingStore extends MemoryDashboardStore {
+
+        volatile Build during = null;
+
+        @Override
+        public Map<String, List<Deployment>> getRecentByCell(int perCell, int limit, List<String> customColumns)
+                throws SQLException {
+            Map<String, List<Deployment>> recent = super.getRecentByCell(perCell, limit, customColumns);
+            Build build = during;
+            if (build != null) {
+                during = null;
+                List<DashboardWriteQueue.Event> events = Collections.singletonList(new DashboardWriteQueue.Event(
+                        DashboardWriteQueue.Event.Type.ADD, build.getEnvironment() + '=' + build.getComponantName(),
+                        build));
+                write(events);
+                DashboardReadModel.refresh(events);
+            }
+            return recent;
+        }
+    }
+
+    private WritingStore store;
+
+    private int maxDeployments;
+
+    @Before
+    public void useStore() throws Exception {
+        maxDeployments = DashboardReadModel.getMaxDeployments();
+        store = new WritingStore();
+        DashboardStore.use(store);
+    }
+
+    @After
+    public void clearModel() {
+        DashboardReadModel.setMaxDeployments(maxDeployments);
+        DashboardReadModel.clear();
+    }
+
+    private static Build build(String env, String comp, int number, String result) {
+        return new Build(String.valueOf(number), "job/deploy-" + comp + "/" + number + "/", result, env, comp, "",
+                comp.toLowerCase() + "-" + number + ".war");
+    }
+
+    private void write(DashboardWriteQueue.Event.Type type, Build... builds) throws Exception {
+        List<DashboardWriteQueue.Event> events = new ArrayList<DashboardWriteQueue.Event>();
+        for (Build build : builds) {
+            events.add(new DashboardWriteQueue.Event(type, build.getEnvironment() + '=' + build.getComponantName(),
+                    build));
+        }
+        store.write(events);
+        DashboardReadModel.refresh(events);
+    }
+
+    private static List<String> buildNums(List<Deployment> deployments) {
+        List<String> buildNums = new ArrayList<String>();
+        for (Deployment deployment : deployments) {
+            buildNums.add(deployment.getBuildNum());
+        }
+        return buildNums;
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "SUCCESS"),
+                build("DEV", "WEBAPP", 2, "SUCCESS"), build("QA", "API", 3, "SUCCESS"));
+        assertFalse(DashboardReadModel.isLoaded());
+
+        assertTrue(DashboardReadModel.load());
+        assertEquals(3, DashboardReadModel.size());
+        assertEquals(Arrays.asList("DEV", "QA"), DashboardReadModel.getEnvs());
+        assertEquals(Arrays.asList("API", "WEBAPP"), DashboardReadModel.getComps());
+        assertEquals(Arrays.asList("2", "1"), buildNums(DashboardReadModel.getHistory("DEV", "WEBAPP", 10)));
+        assertEquals(Arrays.asList("3", "2", "1"), buildNums(DashboardReadModel.getHistory(null, null, 10)));
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "RUNNING"));
+        assertTrue(DashboardReadModel.load());
+
+        write(DashboardWriteQueue.Event.Type.UPDATE, build("DEV", "WEBAPP", 1, "SUCCESS"));
+        write(DashboardWriteQueue.Event.Type.ADD, build("QA", "WEBAPP", 2, "RUNNING"));
+        assertEquals(2, DashboardReadModel.size());
+        assertEquals(BuildStatus.SUCCESS, DashboardReadModel.getHistory("DEV", "WEBAPP", 1).get(0).getStatus());
+        assertEquals(Arrays.asList("2"), buildNums(DashboardReadModel.getHistory("QA", "WEBAPP", 10)));
+
+        write(DashboardWriteQueue.Event.Type.DELETE, build("QA", "WEBAPP", 2, "NODEPLOY"));
+        assertEquals(1, DashboardReadModel.size());
+        assertEquals(Arrays.asList("DEV"), DashboardReadModel.getEnvs());
+        assertTrue(DashboardReadModel.getHistory("QA", "WEBAPP", 10).isEmpty());
+    }
+
+    @Test
+    public void testRefreshKeepsHistorySize() throws Exception {
+        int size = DashboardReadModel.getHistorySize();
+        assertTrue(DashboardReadModel.load());
+        for (int i = 1; i <= size + 2; i++) {
+            write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", i, "SUCCESS"));
+        }
+        assertEquals(size, DashboardReadModel.size());
+        assertEquals(String.valueOf(size + 2), DashboardReadModel.getHistory("DEV", "WEBAPP", 1).get(0).getBuildNum());
+        assertNull(DashboardReadModel.getHistory("DEV", "WEBAPP", size + 1));
+    }
+
+    @Test
+    public void testLoadOverBudget() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "SUCCESS"),
+                build("QA", "WEBAPP", 2, "SUCCESS"), build("QA", "API", 3, "SUCCESS"));
+        assertTrue(DashboardReadModel.load());
+
+        DashboardReadModel.setMaxDeployments(2);
+        assertFalse(DashboardReadModel.load());
+        assertFalse(DashboardReadModel.isLoaded());
+        assertEquals(0, DashboardReadModel.size());
+        assertNull(DashboardReadModel.getLatest());
+        assertNull(DashboardReadModel.getHistory("DEV", "WEBAPP", 1));
+    }
+
+    @Test
+    public void testRefreshOverBudget() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "SUCCESS"));
+        DashboardReadModel.setMaxDeployments(2);
+        assertTrue(DashboardReadModel.load());
+
+        write(DashboardWriteQueue.Event.Type.ADD, build("QA", "WEBAPP", 2, "SUCCESS"));
+        assertTrue(DashboardReadModel.isLoaded());
+        write(DashboardWriteQueue.Event.Type.ADD, build("QA", "API", 3, "SUCCESS"));
+        assertFalse(DashboardReadModel.isLoaded());
+
+        // Writes while not loaded are left to the next load.
+        write(DashboardWriteQueue.Event.Type.DELETE, build("QA", "API", 3, "NODEPLOY"));
+        assertFalse(DashboardReadModel.isLoaded());
+        assertTrue(DashboardReadModel.load());
+        assertEquals(2, DashboardReadModel.size());
+    }
+
+    @Test
+    public void testWritesDuringLoadAreKept() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "SUCCESS"));
+        assertTrue(DashboardReadModel.load());
+
+        store.during = build("QA", "WEBAPP", 2, "SUCCESS");
+        assertTrue(DashboardReadModel.load());
+        assertNull(store.during);
+        assertEquals(2, DashboardReadModel.size());
+        assertEquals(Arrays.asList("2"), buildNums(DashboardReadModel.getHistory("QA", "WEBAPP", 10)));
+    }
+
+    @Test
+    public void testReconcile() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "SUCCESS"),
+                build("QA", "WEBAPP", 2, "SUCCESS"));
+        assertEquals(0, DashboardReadModel.reconcile());
+        assertTrue(DashboardReadModel.isLoaded());
+        assertEquals(0, DashboardReadModel.reconcile());
+
+        // Writes the model did not see: one changed cell, one new, one gone.
+        store.write(Arrays.asList(
+                new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.ADD, "DEV=WEBAPP",
+                        build("DEV", "WEBAPP", 3, "SUCCESS")),
+                new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.ADD, "DEV=API",
+                        build("DEV", "API", 4, "SUCCESS")),
+                new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.DELETE, "QA=WEBAPP",
+                        build("QA", "WEBAPP", 2, "NODEPLOY"))));
+        assertEquals(3, DashboardReadModel.reconcile());
+        assertEquals(Arrays.asList("API", "WEBAPP"), DashboardReadModel.getComps());
+        assertEquals(Arrays.asList("DEV"), DashboardReadModel.getEnvs());
+        assertEquals("3", DashboardReadModel.getHistory("DEV", "WEBAPP", 1).get(0).getBuildNum());
+        assertEquals(0, DashboardReadModel.reconcile());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "SUCCESS"));
+        assertTrue(DashboardReadModel.load());
+
+        DashboardReadModel.clear();
+        assertFalse(DashboardReadModel.isLoaded());
+        assertEquals(0, DashboardReadModel.size());
+        DashboardReadModel.reload();
+        assertFalse(DashboardReadModel.isLoaded());
+    }
+
+    @Test
+    public void testDeploymentsWithoutATimeSortLast() throws Exception {
+        final Map<String, List<Deployment>> recent = new HashMap<String, List<Deployment>>();
+        recent.put("DEV=WEBAPP", Collections.singletonList(new Deployment(2, "DEV", "WEBAPP", BuildStatus.SUCCESS,
+                "2", "job/deploy-WEBAPP/2/", "", null, "")));
+        recent.put("DEV=API", Collections.singletonList(new Deployment(1, "DEV", "API", BuildStatus.SUCCESS, "1",
+                "job/deploy-API/1/", "", "2015-03-01 12:00:00.0", "")));
+        DashboardStore.use(new MemoryDashboardStore() {
+            @Override
+            public synchronized Map<String, List<Deployment>> getRecentByCell(int perCell, int limit,
+                    List<String> customColumns) {
+                return recent;
+            }
+        });
+
+        assertTrue(DashboardReadModel.load());
+        assertEquals(Arrays.asList("1", "2"), buildNums(DashboardReadModel.getHistory("DEV", null, 10)));
+    }
+}
@@ -0,0 +1,245 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.jenkinsci.plugins.environmentdashboard.entity.BuildStatus;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * What every dashboard store must do, run against each of them by a
+ * subclass.
+ */
+public abstract class DashboardStoreContract {
+
+    protected DashboardStore store;
+
+    /**
+     * @return a new, empty store, not yet opened.
+     */
+    protected abstract DashboardStore createStore() throws Exception;
+
+    @Before
+    public void openStore() throws Exception {
+        store = createStore();
+        store.open();
+    }
+
+    @After
+    public void closeStore() throws Exception {
+        store.close();
+    }
+
+    private static Build build(String env, String comp, int number, String result) {
+        return new Build(String.valueOf(number), "job/deploy-" + comp + "/" + number + "/", result, env, comp, "",
+                comp.toLowerCase() + "-" + number + ".war");
+    }
+
+    private void write(DashboardWriteQueue.Event.Type type, Build... builds) throws Exception {
+        List<DashboardWriteQueue.Event> events = new ArrayList<DashboardWriteQueue.Event>();
+        for (Build build : builds) {
+            events.add(new DashboardWriteQueue.Event(type, build.getEnvironment() + '=' + build.getComponantName(),
+                    build));
+        }
+        store.write(events);
+    }
+
+    private Deployment latest(String env, String comp) throws Exception {
+        for (Deployment deployment : store.getLatest()) {
+            if (deployment.getEnv().equals(env) && deployment.getComp().equals(comp)) {
+                return deployment;
+            }
+        }
+        return null;
+    }
+
+    private List<String> buildNums(List<Deployment> deployments) {
+        List<String> buildNums = new ArrayList<String>();
+        for (Deployment deployment : deployments) {
+            buildNums.add(deployment.getBuildNum());
+        }
+        return buildNums;
+    }
+
+    private List<Deployment> page(String env, String comp, HistoryCursor before, int limit) throws Exception {
+        final List<Deployment> page = new ArrayList<Deployment>();
+        store.readHistory(env, comp, before, limit, null, new DashboardQuery.DeploymentVisitor() {
+            @Override
+            public boolean visit(Deployment deployment) {
+                page.add(deployment);
+                return true;
+            }
+        });
+        return page;
+    }
+
+    @Test
+    public void testRecordAndLatest() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "RUNNING"));
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 2, "RUNNING"),
+                build("QA", "WEBAPP", 3, "RUNNING"), build("QA", "API", 4, "RUNNING"));
+
+        assertEquals(3, store.getLatest().size());
+        Deployment latest = latest("DEV", "WEBAPP");
+        assertEquals("2", latest.getBuildNum());
+        assertEquals(BuildStatus.RUNNING, latest.getStatus());
+        assertEquals("job/deploy-WEBAPP/2/", latest.getJobUrl());
+        assertEquals("webapp-2.war", latest.getPackageName());
+        assertNotNull(latest.getCreatedAt());
+        assertEquals(Arrays.asList("DEV", "QA"), store.getEnvs());
+        assertEquals(Arrays.asList("API", "WEBAPP"), store.getComps());
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "RUNNING"));
+        long id = latest("DEV", "WEBAPP").getId();
+
+        write(DashboardWriteQueue.Event.Type.UPDATE, build("DEV", "WEBAPP", 1, "FAILURE"));
+        Deployment updated = latest("DEV", "WEBAPP");
+        assertEquals(id, updated.getId());
+        assertEquals(BuildStatus.FAILURE, updated.getStatus());
+        assertEquals(1, store.getRecent("DEV", "WEBAPP", 10, null).size());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "SUCCESS"),
+                build("DEV", "WEBAPP", 2, "RUNNING"));
+
+        write(DashboardWriteQueue.Event.Type.DELETE, build("DEV", "WEBAPP", 2, "NODEPLOY"));
+        assertEquals("1", latest("DEV", "WEBAPP").getBuildNum());
+
+        write(DashboardWriteQueue.Event.Type.DELETE, build("DEV", "WEBAPP", 1, "NODEPLOY"));
+        assertTrue(store.getLatest().isEmpty());
+        assertTrue(store.getEnvs().isEmpty());
+        assertTrue(store.getRecent("DEV", "WEBAPP", 10, null).isEmpty());
+    }
+
+    @Test
+    public void testUpdateAndDeleteOnlyTheirCell() throws Exception {
+        // Both cells are deployed by the same job, so their rows share a jobUrl.
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "RUNNING"),
+                build("QA", "WEBAPP", 1, "RUNNING"));
+
+        write(DashboardWriteQueue.Event.Type.UPDATE, build("DEV", "WEBAPP", 1, "SUCCESS"));
+        assertEquals(BuildStatus.SUCCESS, latest("DEV", "WEBAPP").getStatus());
+        assertEquals(BuildStatus.RUNNING, latest("QA", "WEBAPP").getStatus());
+
+        write(DashboardWriteQueue.Event.Type.DELETE, build("QA", "WEBAPP", 1, "NODEPLOY"));
+        assertNull(latest("QA", "WEBAPP"));
+        assertEquals(BuildStatus.SUCCESS, latest("DEV", "WEBAPP").getStatus());
+    }
+
+    @Test
+    public void testRecent() throws Exception {
+        for (int i = 1; i <= 4; i++) {
+            write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", i, "SUCCESS"));
+        }
+        write(DashboardWriteQueue.Event.Type.ADD, build("QA", "WEBAPP", 5, "SUCCESS"));
+
+        assertEquals(Arrays.asList("4", "3"), buildNums(store.getRecent("DEV", "WEBAPP", 2, null)));
+        assertEquals(Arrays.asList("4", "3", "2", "1"), buildNums(store.getRecent("DEV", null, 10, null)));
+        assertEquals(Arrays.asList("5", "4", "3"), buildNums(store.getRecent(null, "WEBAPP", 3, null)));
+    }
+
+    @Test
+    public void testRecentByCell() throws Exception {
+        for (int i = 1; i <= 4; i++) {
+            write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", i, "SUCCESS"));
+        }
+        Build custom = build("QA", "WEBAPP", 5, "SUCCESS");
+        custom.addCustomColumn("Branch", "release/1.0");
+        write(DashboardWriteQueue.Event.Type.ADD, custom);
+
+        Map<String, List<Deployment>> recent = store.getRecentByCell(3, 10, Collections.singletonList("branch"));
+        assertEquals(2, recent.size());
+        assertEquals(Arrays.asList("4", "3", "2"), buildNums(recent.get("DEV=WEBAPP")));
+        assertEquals("release/1.0", recent.get("QA=WEBAPP").get(0).getCustomValue("branch"));
+
+        assertNotNull(store.getRecentByCell(3, 4, null));
+        assertNull(store.getRecentByCell(3, 3, null));
+    }
+
+    @Test
+    public void testHistoryPages() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", i, "SUCCESS"));
+        }
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "API", 6, "SUCCESS"));
+
+        List<Deployment> first = page("DEV", "WEBAPP", HistoryCursor.FIRST, 3);
+        assertEquals(Arrays.asList("5", "4", "3"), buildNums(first));
+        List<Deployment> second = page("DEV", "WEBAPP", HistoryCursor.after(first.get(2)), 3);
+        assertEquals(Arrays.asList("2", "1"), buildNums(second));
+
+        assertEquals(Arrays.asList("6", "5"), buildNums(page("DEV", null, HistoryCursor.FIRST, 2)));
+        assertEquals(Arrays.asList("6"), buildNums(page(null, "API", HistoryCursor.FIRST, 10)));
+        assertTrue(page("PROD", null, HistoryCursor.FIRST, 10).isEmpty());
+    }
+
+    @Test
+    public void testHistoryVisitorStops() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", i, "SUCCESS"));
+        }
+        final List<Deployment> read = new ArrayList<Deployment>();
+        assertFalse(store.readHistory("DEV", "WEBAPP", HistoryCursor.FIRST, 10, null,
+                new DashboardQuery.DeploymentVisitor() {
+                    @Override
+                    public boolean visit(Deployment deployment) {
+                        read.add(deployment);
+                        return false;
+                    }
+                }));
+        assertEquals(1, read.size());
+    }
+
+    @Test
+    public void testCustomColumns() throws Exception {
+        Build build = build("DEV", "WEBAPP", 1, "SUCCESS");
+        build.addCustomColumn("Branch", "release/1.0");
+        write(DashboardWriteQueue.Event.Type.ADD, build);
+
+        assertTrue(store.getCustomColumns().contains("branch"));
+        List<String> columns = Collections.singletonList("branch");
+        assertEquals("release/1.0", store.getRecent("DEV", "WEBAPP", 1, columns).get(0).getCustomValue("branch"));
+        final List<Deployment> read = new ArrayList<Deployment>();
+        store.readHistory("DEV", "WEBAPP", HistoryCursor.FIRST, 1, columns, new DashboardQuery.DeploymentVisitor() {
+            @Override
+            public boolean visit(Deployment deployment) {
+                read.add(deployment);
+                return true;
+            }
+        });
+        assertEquals("release/1.0", read.get(0).getCustomValue("branch"));
+
+        assertTrue(store.dropColumn("branch"));
+        assertFalse(store.getCustomColumns().contains("branch"));
+        assertNull(store.getRecent("DEV", "WEBAPP", 1, columns).get(0).getCustomValue("branch"));
+        assertFalse(store.dropColumn("branch"));
+    }
+
+    @Test
+    public void testPurge() throws Exception {
+        write(DashboardWriteQueue.Event.Type.ADD, build("DEV", "WEBAPP", 1, "SUCCESS"),
+                build("QA", "WEBAPP", 2, "SUCCESS"));
+
+        assertEquals(0, store.purge(1, 100));
+        assertEquals(2, store.getLatest().size());
+
+        Thread.sleep(10);
+        assertEquals(2, store.purge(0, 1));
+        assertTrue(store.getLatest().isEmpty());
+        assertTrue(store.getRecent("DEV", "WEBAPP", 10, null).isEmpty());
+    }
+}
@@ -0,0 +1,279 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.jenkinsci.plugins.environmentdashboard.entity.BuildStatus;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DashboardWriteQueueTest {
+
+    /**
+     * A memory store that logs the size of every batch it is given, can
+     * hold the writer inside a write and fails batches holding a BROKEN
+     * build.
+     */
+    private static class TestStore extends MemoryDashboardStore {
+
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+
+        final CountDownLatch entered = new CountDownLatch(1);
+
+        volatile CountDownLatch gate = null;
+
+        @Override
+        public void write(List<DashboardWriteQueue.Event> events) throws SQLException {
+            batches.add(events.size());
+            entered.countDown();
+            CountDownLatch current = gate;
+            if (current != null) {
+                try {
+                    current.await();
+                } catch (InterruptedException e) {
+                    throw new SQLException(e);
+                }
+            }
+            for (DashboardWriteQueue.Event event : events) {
+                if (event.getBuild().getResult().equals("BROKEN")) {
+                    throw new SQLException("Broken build " + event.getBuild().getId());
+                }
+            }
+            super.write(events);
+        }
+    }
+
+    private TestStore store;
+
+    @Before
+    public void useStore() throws Exception {
+        DashboardWriteQueue.reset(2, 10, DashboardWriteQueue.Overflow.DROP, 0);
+        store = new TestStore();
+        DashboardStore.use(store);
+    }
+
+    @After
+    public void resetQueue() throws Exception {
+        CountDownLatch gate = store.gate;
+        if (gate != null) {
+            gate.countDown();
+        }
+        DashboardWriteQueue.reset(2, 10, DashboardWriteQueue.Overflow.DROP, 0);
+    }
+
+    private static DashboardWriteQueue.Event event(DashboardWriteQueue.Event.Type type, String comp, int number,
+            String result) {
+        Build build = new Build(String.valueOf(number), "job/deploy-" + comp + "/" + number + "/", result, "DEV", comp,
+                "", comp.toLowerCase() + "-" + number + ".war");
+        return new DashboardWriteQueue.Event(type, "DEV=" + comp, build);
+    }
+
+    private static DashboardWriteQueue.Event add(String comp, int number) {
+        return event(DashboardWriteQueue.Event.Type.ADD, comp, number, "SUCCESS");
+    }
+
+    /* Wait for the writer to take every queued event. */
+    private static void awaitTaken() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (DashboardWriteQueue.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, DashboardWriteQueue.size());
+    }
+
+    /* Hold the writer inside the write of a first event. */
+    private void holdWriter() throws Exception {
+        store.gate = new CountDownLatch(1);
+        assertTrue(DashboardWriteQueue.enqueue(add("HOLD", 1)));
+        assertTrue(store.entered.await(5, TimeUnit.SECONDS));
+    }
+
+    private Deployment latest(String comp) throws Exception {
+        for (Deployment deployment : store.getLatest()) {
+            if (deployment.getComp().equals(comp)) {
+                return deployment;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testUpdatesOfACellStayInOrder() throws Exception {
+        DashboardWriteQueue.reset(100, 2, DashboardWriteQueue.Overflow.DROP, 0);
+        DashboardWriteQueue.enqueue(event(DashboardWriteQueue.Event.Type.ADD, "WEBAPP", 1, "RUNNING"));
+        DashboardWriteQueue.enqueue(event(DashboardWriteQueue.Event.Type.UPDATE, "WEBAPP", 1, "SUCCESS"));
+        DashboardWriteQueue.enqueue(event(DashboardWriteQueue.Event.Type.ADD, "WEBAPP", 2, "RUNNING"));
+        DashboardWriteQueue.enqueue(event(DashboardWriteQueue.Event.Type.UPDATE, "WEBAPP", 2, "FAILURE"));
+        DashboardWriteQueue.enqueue(event(DashboardWriteQueue.Event.Type.DELETE, "WEBAPP", 2, "NODEPLOY"));
+        assertTrue(DashboardWriteQueue.shutdown(5000));
+
+        Deployment latest = latest("WEBAPP");
+        assertEquals("1", latest.getBuildNum());
+        assertEquals(BuildStatus.SUCCESS, latest.getStatus());
+        assertEquals(5, DashboardWriteQueue.getWritten());
+    }
+
+    @Test
+    public void testEventsKeepTheTimeTheyWereQueued() throws Exception {
+        DashboardWriteQueue.Event event = add("WEBAPP", 1);
+        Thread.sleep(50);
+        DashboardWriteQueue.enqueue(event);
+        assertTrue(DashboardWriteQueue.shutdown(5000));
+
+        assertEquals(new Timestamp(event.getTime()).toString(), latest("WEBAPP").getCreatedAt());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        holdWriter();
+        assertTrue(DashboardWriteQueue.enqueue(add("WEBAPP", 2)));
+        assertTrue(DashboardWriteQueue.enqueue(add("WEBAPP", 3)));
+        assertFalse(DashboardWriteQueue.enqueue(add("WEBAPP", 4)));
+        assertEquals(1, DashboardWriteQueue.getDropped());
+
+        store.gate.countDown();
+        assertTrue(DashboardWriteQueue.shutdown(5000));
+        assertEquals(3, DashboardWriteQueue.getWritten());
+        assertEquals("3", latest("WEBAPP").getBuildNum());
+    }
+
+    @Test
+    public void testBlockWaitsForRoom() throws Exception {
+        DashboardWriteQueue.reset(2, 10, DashboardWriteQueue.Overflow.BLOCK, 5000);
+        holdWriter();
+        assertTrue(DashboardWriteQueue.enqueue(add("WEBAPP", 2)));
+        assertTrue(DashboardWriteQueue.enqueue(add("WEBAPP", 3)));
+
+        final boolean[] queued = new boolean[1];
+        Thread build = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queued[0] = DashboardWriteQueue.enqueue(add("WEBAPP", 4));
+                } catch (InterruptedException e) {
+                    queued[0] = false;
+                }
+            }
+        };
+        build.start();
+        build.join(200);
+        assertTrue(build.isAlive());
+
+        store.gate.countDown();
+        build.join(5000);
+        assertTrue(queued[0]);
+        assertTrue(DashboardWriteQueue.shutdown(5000));
+        assertEquals(0, DashboardWriteQueue.getDropped());
+        assertEquals("4", latest("WEBAPP").getBuildNum());
+    }
+
+    @Test
+    public void testBlockDropsAfterTimeout() throws Exception {
+        DashboardWriteQueue.reset(2, 10, DashboardWriteQueue.Overflow.BLOCK, 100);
+        holdWriter();
+        assertTrue(DashboardWriteQueue.enqueue(add("WEBAPP", 2)));
+        assertTrue(DashboardWriteQueue.enqueue(add("WEBAPP", 3)));
+
+        long start = System.currentTimeMillis();
+        assertFalse(DashboardWriteQueue.enqueue(add("WEBAPP", 4)));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertEquals(1, DashboardWriteQueue.getDropped());
+    }
+
+    @Test
+    public void testFailedBatchIsRetriedOneAtATime() throws Exception {
+        DashboardWriteQueue.reset(100, 10, DashboardWriteQueue.Overflow.DROP, 0);
+        holdWriter();
+        DashboardWriteQueue.enqueue(add("WEBAPP", 2));
+        DashboardWriteQueue.enqueue(event(DashboardWriteQueue.Event.Type.ADD, "WEBAPP", 3, "BROKEN"));
+        DashboardWriteQueue.enqueue(add("API", 4));
+
+        store.gate.countDown();
+        assertTrue(DashboardWriteQueue.shutdown(5000));
+
+        // The held event, the batch of three, then each of them alone.
+        assertEquals(Arrays.asList(1, 3, 1, 1, 1), store.batches);
+        assertEquals(3, DashboardWriteQueue.getWritten());
+        assertEquals(1, DashboardWriteQueue.getFailed());
+        assertEquals("2", latest("WEBAPP").getBuildNum());
+        assertEquals("4", latest("API").getBuildNum());
+    }
+
+    @Test
+    public void testShutdownFlushesQueuedEvents() throws Exception {
+        DashboardWriteQueue.reset(100, 2, DashboardWriteQueue.Overflow.DROP, 0);
+        for (int i = 1; i <= 9; i++) {
+            assertTrue(DashboardWriteQueue.enqueue(add("COMP" + i, i)));
+        }
+        assertTrue(DashboardWriteQueue.shutdown(5000));
+
+        assertEquals(0, DashboardWriteQueue.size());
+        assertEquals(9, DashboardWriteQueue.getWritten());
+        assertEquals(9, store.getLatest().size());
+
+        assertFalse(DashboardWriteQueue.enqueue(add("WEBAPP", 10)));
+        assertEquals(1, DashboardWriteQueue.getDropped());
+    }
+
+    @Test
+    public void testPauseHoldsTheWriter() throws Exception {
+        assertTrue(DashboardWriteQueue.pause(1000));
+        try {
+            assertTrue(DashboardWriteQueue.enqueue(add("WEBAPP", 1)));
+            awaitTaken();
+            Thread.sleep(100);
+            assertTrue(store.batches.isEmpty());
+            assertEquals(0, DashboardWriteQueue.getWritten());
+        } finally {
+            DashboardWriteQueue.resume();
+        }
+
+        assertTrue(DashboardWriteQueue.shutdown(5000));
+        assertEquals(1, DashboardWriteQueue.getWritten());
+        assertEquals("1", latest("WEBAPP").getBuildNum());
+    }
+
+    @Test
+    public void testPauseTimesOutDuringABatch() throws Exception {
+        holdWriter();
+        assertFalse(DashboardWriteQueue.pause(50));
+
+        store.gate.countDown();
+        assertTrue(DashboardWriteQueue.shutdown(5000));
+        assertEquals(1, DashboardWriteQueue.getWritten());
+    }
+
+    @Test
+    public void testWriterRestartsAfterInterrupt() throws Exception {
+        assertTrue(DashboardWriteQueue.pause(1000));
+        Thread writer;
+        try {
+            assertTrue(DashboardWriteQueue.enqueue(add("WEBAPP", 1)));
+            awaitTaken();
+            writer = DashboardWriteQueue.getWriter();
+            writer.interrupt();
+            writer.join(5000);
+        } finally {
+            DashboardWriteQueue.resume();
+        }
+        assertFalse(writer.isAlive());
+        assertNull(DashboardWriteQueue.getWriter());
+
+        // The interrupted batch is lost, later events are still written.
+        assertTrue(DashboardWriteQueue.enqueue(add("WEBAPP", 2)));
+        assertTrue(DashboardWriteQueue.shutdown(5000));
+        assertEquals(1, DashboardWriteQueue.getWritten());
+        assertEquals("2", latest("WEBAPP").getBuildNum());
+    }
+}
@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class DatabaseCompactionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DashboardStore store;
+
+    @Before
+    public void recordDeployments() throws Exception {
+        store = new H2DashboardStore(folder.getRoot(), null);
+        DashboardStore.use(store);
+        // Each deployment is recorded running, then updated, as builds do.
+        for (int batch = 0; batch < 4; batch++) {
+            List<DashboardWriteQueue.Event> added = new ArrayList<DashboardWriteQueue.Event>();
+            List<DashboardWriteQueue.Event> updated = new ArrayList<DashboardWriteQueue.Event>();
+            for (int i = 0; i < 250; i++) {
+                int number = batch * 250 + i;
+                added.add(event(DashboardWriteQueue.Event.Type.ADD, number, "RUNNING"));
+                updated.add(event(DashboardWriteQueue.Event.Type.UPDATE, number, "SUCCESS"));
+            }
+            store.write(added);
+            store.write(updated);
+        }
+    }
+
+    @After
+    public void closeStore() {
+        store.close();
+    }
+
+    private static DashboardWriteQueue.Event event(DashboardWriteQueue.Event.Type type, int number, String result) {
+        String env = "ENV-" + number / 40 % 5;
+        String comp = "COMP-" + number % 40;
+        String url = "job/deploy-" + comp + "/" + number + "/";
+        return new DashboardWriteQueue.Event(type, env + "=" + comp,
+                new Build(String.valueOf(number), url, result, env, comp, url, comp.toLowerCase() + ".war"));
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        DatabaseCompaction.Report report = DatabaseCompaction.report();
+        assertEquals(Long.valueOf(1000), report.getRows().get("env_dashboard"));
+        assertEquals(Long.valueOf(200), report.getRows().get("env_dashboard_latest"));
+        assertTrue(report.getLiveRows() >= 1200);
+        assertTrue(report.getFileBytes() > 0);
+        assertTrue(report.getFillRate() > 0 && report.getFillRate() <= 1);
+    }
+
+    @Test
+    public void testCompactReclaimsSpace() throws Exception {
+        DatabaseCompaction.Report[] reports = DatabaseCompaction.compact();
+        assertTrue(reports[1].getFileBytes() < reports[0].getFileBytes());
+        assertEquals(reports[0].getRows(), reports[1].getRows());
+
+        // The store is usable again straight away.
+        assertEquals(200, store.getLatest().size());
+        assertEquals(5, store.getRecent("ENV-0", "COMP-0", 10, null).size());
+        store.write(Collections.singletonList(event(DashboardWriteQueue.Event.Type.ADD, 1000, "RUNNING")));
+        assertEquals(Long.valueOf(1001), DatabaseCompaction.report().getRows().get("env_dashboard"));
+    }
+
+    @Test
+    public void testOnlyTheEmbeddedDatabaseIsCompacted() throws Exception {
+        DashboardStore.use(new MemoryDashboardStore());
+        try {
+            DatabaseCompaction.compact();
+            fail("Compacted the memory store.");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("memory"));
+        } finally {
+            DashboardStore.use(store);
+        }
+    }
+
+    @Test
+    public void testNotDueWhenSmall() throws Exception {
+        assertFalse(DatabaseCompaction.isDue(1));
+    }
+
+    @Test
+    public void testPauseHoldsQueuedWrites() throws Exception {
+        long written = DashboardWriteQueue.getWritten();
+        assertTrue(DashboardWriteQueue.pause(1000));
+        try {
+            assertTrue(DashboardWriteQueue.enqueue(event(DashboardWriteQueue.Event.Type.ADD, 1000, "RUNNING")));
+            Thread.sleep(200);
+            assertEquals(written, DashboardWriteQueue.getWritten());
+        } finally {
+            DashboardWriteQueue.resume();
+        }
+        for (int i = 0; i < 100 && DashboardWriteQueue.getWritten() == written; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(written + 1, DashboardWriteQueue.getWritten());
+    }
+}
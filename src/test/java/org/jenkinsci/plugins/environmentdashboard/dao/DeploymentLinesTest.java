@@ -0,0 +1,44 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeploymentLinesTest {
+
+    @Test
+    public void testParse() throws Exception {
+        Map<String, Object> json = DeploymentLines.parse("{\"id\":42,\"envName\":\"DEV\",\"packageName\":null,"
+                + "\"buildNum\":\"\\\"1\\\"\\n\\u00e9<\\/a>\",\"values\":{\"branch\":\"[master]\",\"owner\":null}}", "test");
+        assertEquals(42L, json.get("id"));
+        assertEquals("DEV", json.get("envName"));
+        assertTrue(json.containsKey("packageName"));
+        assertNull(json.get("packageName"));
+        assertEquals("\"1\"\né</a>", json.get("buildNum"));
+        assertEquals("[master]", DeploymentLines.values(json).get("branch"));
+        assertNull(DeploymentLines.values(json).get("owner"));
+    }
+
+    @Test
+    public void testNoValues() throws Exception {
+        assertNull(DeploymentLines.values(DeploymentLines.parse("{\"id\":1}", "test")));
+    }
+
+    @Test
+    public void testCorruptLines() throws Exception {
+        for (String line : new String[] {"", "{", "{\"id\":1", "{\"id\":\"1\"}", "{\"envName\":\"DEV\"}",
+                "{\"id\":1,\"envName\":DEV}", "[1]", "{\"id\":1,\"created_at\":20150301}",
+                "{\"id\":1,\"envName\":{}}", "{\"id\":1,\"values\":\"master\"}",
+                "{\"id\":1,\"values\":{\"branch\":1}}"}) {
+            try {
+                DeploymentLines.parse(line, "test");
+                fail("Parsed " + line);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Corrupt line in test"));
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.Build;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.jenkinsci.plugins.environmentdashboard.utils.DBConnection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class H2DashboardStoreTest extends DashboardStoreContract {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    protected DashboardStore createStore() {
+        return new H2DashboardStore(folder.getRoot(), null);
+    }
+
+    @Test
+    public void testRebuildLatestBreaksTiesOnId() throws Exception {
+        long time = System.currentTimeMillis();
+        Build first = new Build("1", "job/deploy-WEBAPP/1/", "SUCCESS", "DEV", "WEBAPP", "", "webapp-1.war");
+        Build second = new Build("2", "job/deploy-WEBAPP/2/", "SUCCESS", "DEV", "WEBAPP", "", "webapp-2.war");
+        store.write(Arrays.asList(
+                new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.ADD, "DEV=WEBAPP", first, time),
+                new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.ADD, "DEV=WEBAPP", second, time)));
+
+        DashboardDAO dao = new DashboardDAO();
+        dao.rebuildLatestTable();
+
+        Deployment latest = store.getLatest().get(0);
+        assertEquals("2", latest.getBuildNum());
+        assertEquals(0, dao.checkLatestTable());
+    }
+
+    @Test
+    public void testQueuedUpdatesGoToThePartitionOfTheirTime() throws Exception {
+        long now = System.currentTimeMillis();
+        long lastMonth = HistoryPartitions.start(HistoryPartitions.month(now)).getTime() - 1000;
+        Build old = new Build("1", "job/deploy-WEBAPP/1/", "SUCCESS", "DEV", "WEBAPP", "", "webapp-1.war");
+        Build current = new Build("2", "job/deploy-WEBAPP/2/", "SUCCESS", "DEV", "WEBAPP", "", "webapp-2.war");
+        store.write(Arrays.asList(
+                new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.ADD, "DEV=WEBAPP", old, lastMonth),
+                new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.ADD, "DEV=WEBAPP", current, now)));
+
+        assertTrue(HistoryPartitions.contains(HistoryPartitions.month(lastMonth)));
+        assertTrue(HistoryPartitions.contains(HistoryPartitions.month(now)));
+        assertEquals("2", store.getLatest().get(0).getBuildNum());
+        assertEquals(2, store.getRecent("DEV", "WEBAPP", 10, null).size());
+    }
+
+    @Test
+    public void testViewsOutliveTheLastPartition() throws Exception {
+        Build build = new Build("1", "job/deploy-WEBAPP/1/", "SUCCESS", "DEV", "WEBAPP", "", "webapp-1.war");
+        build.addCustomColumn("Branch", "release/1.0");
+        store.write(Arrays.asList(new DashboardWriteQueue.Event(DashboardWriteQueue.Event.Type.ADD, "DEV=WEBAPP",
+                build)));
+
+        Connection conn = DBConnection.getWriteConnection();
+        try {
+            for (int month : HistoryPartitions.newestFirst().clone()) {
+                HistoryPartitions.drop(conn, month);
+            }
+            assertEquals(0, HistoryPartitions.newestFirst().length);
+            ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*), MAX(created_at), MAX(id) "
+                    + "FROM env_dashboard d LEFT OUTER JOIN env_dashboard_value v ON v.deploymentId = d.id;");
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+            rs.close();
+        } finally {
+            DBConnection.closeConnection(conn);
+        }
+    }
+
+    @Test
+    public void testImportRejectsALineWithItsNumber() throws Exception {
+        DashboardDAO dao = new DashboardDAO();
+        assertFalse(dao.hasBuilds());
+        try {
+            dao.importBuilds(Arrays.asList("{\"id\":7,\"envComp\":\"DEV=WEBAPP\",\"envName\":\"DEV\"}", "",
+                    "{\"id\":8,\"created_at\":20150301}"), 11);
+            fail("Imported a corrupt line");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt line in import, line 13:"));
+        }
+        assertFalse(dao.hasBuilds());
+
+        assertEquals(1, dao.importBuilds(Arrays.asList("{\"id\":7,\"envComp\":\"DEV=WEBAPP\",\"envName\":\"DEV\","
+                + "\"compName\":\"WEBAPP\",\"buildNum\":\"1\",\"created_at\":null}"), 1));
+        assertTrue(dao.hasBuilds());
+    }
+}
@@ -0,0 +1,32 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.net.ServerSocket;
+
+import org.h2.tools.Server;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+public class H2ServerDashboardStoreTest extends DashboardStoreContract {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Server server;
+
+    @Override
+    protected DashboardStore createStore() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        server = Server.createTcpServer("-tcpPort", String.valueOf(port), "-baseDir",
+                folder.newFolder("server").getPath()).start();
+        // The archive stays in a local directory.
+        return new H2DashboardStore(folder.getRoot(), "jdbc:h2:tcp://localhost:" + port + "/jenkins_dashboard");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+}
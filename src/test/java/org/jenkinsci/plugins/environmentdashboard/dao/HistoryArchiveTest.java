@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.BuildStatus;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class HistoryArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection conn;
+
+    private File segment;
+
+    @Before
+    public void archiveMonth() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:archive", "", "");
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE env_dashboard_201503 (envComp VARCHAR(255), jobUrl VARCHAR(255), "
+                + "buildNum VARCHAR(255), buildStatus VARCHAR(255), envName VARCHAR(255), compName VARCHAR(255), "
+                + "created_at TIMESTAMP, buildJobUrl VARCHAR(255), packageName VARCHAR(255), id BIGINT PRIMARY KEY);");
+        stat.execute("CREATE TABLE env_dashboard_value_201503 (deploymentId BIGINT, columnId INT, value VARCHAR);");
+        stat.execute("CREATE TABLE env_dashboard_column (id INT PRIMARY KEY, name VARCHAR(255));");
+        stat.execute("INSERT INTO env_dashboard_column VALUES (1, 'branch'), (2, 'owner');");
+        stat.execute("INSERT INTO env_dashboard_201503 VALUES "
+                + "('DEV=WEBAPP', 'job/deploy/1/', '1', 'SUCCESS', 'DEV', 'WEBAPP', '2015-03-01 10:00:00.0', NULL, NULL, 1), "
+                + "('QA=WEBAPP', 'job/deploy/2/', '2', 'FAILURE', 'QA', 'WEBAPP', '2015-03-02 10:00:00.0', NULL, '', 2), "
+                + "('DEV=WEBAPP', 'job/deploy/3/', '3', 'SUCCESS', 'DEV', 'WEBAPP', '2015-03-03 10:00:00.0', "
+                + "'job/build/3/', 'webapp-1.3.war', 3);");
+        stat.execute("INSERT INTO env_dashboard_value_201503 VALUES (3, 1, 'release/\"1.3\"\n'), (3, 2, 'null'), "
+                + "(1, 2, '[ops]');");
+        stat.close();
+        segment = new File(folder.getRoot(), "201503.ndjson.gz");
+        assertEquals(3, HistoryArchive.write(conn, 201503, segment));
+    }
+
+    @After
+    public void closeDatabase() throws Exception {
+        conn.createStatement().execute("DROP ALL OBJECTS;");
+        conn.close();
+    }
+
+    private List<Deployment> read(String env, String comp, HistoryCursor cursor, int limit) throws Exception {
+        final List<Deployment> read = new ArrayList<Deployment>();
+        final int max = limit;
+        HistoryArchive.read(segment, env, comp, cursor, new String[] {"branch", "owner"},
+                new DashboardQuery.DeploymentVisitor() {
+                    @Override
+                    public boolean visit(Deployment deployment) {
+                        read.add(deployment);
+                        return read.size() < max;
+                    }
+                });
+        return read;
+    }
+
+    private List<Long> ids(List<Deployment> deployments) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Deployment deployment : deployments) {
+            ids.add(deployment.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<Deployment> read = read(null, null, HistoryCursor.FIRST, 10);
+        assertEquals(Arrays.asList(3L, 2L, 1L), ids(read));
+
+        Deployment newest = read.get(0);
+        assertEquals("DEV", newest.getEnv());
+        assertEquals("WEBAPP", newest.getComp());
+        assertEquals(BuildStatus.SUCCESS, newest.getStatus());
+        assertEquals("3", newest.getBuildNum());
+        assertEquals("job/deploy/3/", newest.getJobUrl());
+        assertEquals("job/build/3/", newest.getBuildJobUrl());
+        assertEquals("2015-03-03 10:00:00.0", newest.getCreatedAt());
+        assertEquals("webapp-1.3.war", newest.getPackageName());
+        assertEquals("release/\"1.3\"\n", newest.getCustomValue("branch"));
+        assertEquals("null", newest.getCustomValue("owner"));
+
+        assertEquals("", read.get(1).getPackageName());
+        assertNull(read.get(1).getCustomValue("branch"));
+        assertNull(read.get(2).getPackageName());
+        assertEquals("[ops]", read.get(2).getCustomValue("owner"));
+    }
+
+    @Test
+    public void testScope() throws Exception {
+        assertEquals(Arrays.asList(3L, 1L), ids(read("DEV", null, HistoryCursor.FIRST, 10)));
+        assertEquals(Arrays.asList(2L), ids(read("QA", "WEBAPP", HistoryCursor.FIRST, 10)));
+        assertEquals(Arrays.asList(3L, 2L, 1L), ids(read(null, "WEBAPP", HistoryCursor.FIRST, 10)));
+        assertTrue(read("PROD", null, HistoryCursor.FIRST, 10).isEmpty());
+    }
+
+    @Test
+    public void testCursorAndEarlyStop() throws Exception {
+        List<Deployment> first = read(null, null, HistoryCursor.FIRST, 2);
+        assertEquals(Arrays.asList(3L, 2L), ids(first));
+        assertEquals(Arrays.asList(1L), ids(read(null, null, HistoryCursor.after(first.get(1)), 10)));
+    }
+}
@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.Timestamp;
+
+import org.jenkinsci.plugins.environmentdashboard.entity.BuildStatus;
+import org.jenkinsci.plugins.environmentdashboard.entity.Deployment;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistoryCursorTest {
+
+    private Deployment deployment(long id, String createdAt) {
+        return new Deployment(id, "DEV", "WEBAPP", BuildStatus.SUCCESS, "1", "job/deploy/1/", "", createdAt, "");
+    }
+
+    @Test
+    public void testCursorRoundTrips() throws Exception {
+        HistoryCursor cursor = HistoryCursor.after(deployment(42, "2015-03-01 12:00:00.123"));
+        assertEquals("42,2015-03-01 12:00:00.123", cursor.toString());
+        assertEquals(cursor.toString(), HistoryCursor.parse(cursor.toString()).toString());
+    }
+
+    @Test
+    public void testInvalidCursors() throws Exception {
+        assertNull(HistoryCursor.parse(null));
+        assertNull(HistoryCursor.parse(""));
+        assertNull(HistoryCursor.parse("42"));
+        assertNull(HistoryCursor.parse("x,2015-03-01 12:00:00.0"));
+        assertNull(HistoryCursor.parse("42,yesterday"));
+    }
+
+    @Test
+    public void testParams() throws Exception {
+        HistoryCursor cursor = HistoryCursor.after(deployment(42, "2015-03-01 12:00:00.0"));
+        Object[] params = cursor.params(new Object[] {"WEBAPP", "DEV"}, 11);
+        Timestamp createdAt = Timestamp.valueOf("2015-03-01 12:00:00.0");
+        assertArrayEquals(new Object[] {"WEBAPP", "DEV", createdAt, createdAt, 42L, 11}, params);
+    }
+
+    @Test
+    public void testFirstIsBeforeEverything() throws Exception {
+        Object[] params = HistoryCursor.FIRST.params(new Object[] {"DEV"}, 11);
+        assertTrue(((Timestamp) params[1]).after(new Timestamp(System.currentTimeMillis())));
+        assertEquals(Long.MAX_VALUE, params[3]);
+    }
+}
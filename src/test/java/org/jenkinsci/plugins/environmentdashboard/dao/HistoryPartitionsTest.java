@@ -0,0 +1,40 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+import java.sql.Timestamp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistoryPartitionsTest {
+
+    @Test
+    public void testMonth() throws Exception {
+        assertEquals(201503, HistoryPartitions.month(Timestamp.valueOf("2015-03-01 00:00:00.0").getTime()));
+        assertEquals(201503, HistoryPartitions.month(Timestamp.valueOf("2015-03-31 23:59:59.999").getTime()));
+        assertEquals(201512, HistoryPartitions.month(Timestamp.valueOf("2015-12-15 12:00:00.0").getTime()));
+    }
+
+    @Test
+    public void testMonthBounds() throws Exception {
+        assertEquals(Timestamp.valueOf("2015-03-01 00:00:00.0"), HistoryPartitions.start(201503));
+        assertEquals(Timestamp.valueOf("2015-04-01 00:00:00.0"), HistoryPartitions.end(201503));
+        assertEquals(Timestamp.valueOf("2016-01-01 00:00:00.0"), HistoryPartitions.end(201512));
+    }
+
+    @Test
+    public void testRoute() throws Exception {
+        assertEquals("SELECT d.id, v.value FROM env_dashboard_201503 d LEFT OUTER JOIN env_dashboard_value_201503 v "
+                + "ON v.deploymentId = d.id;",
+                HistoryPartitions.route("SELECT d.id, v.value FROM env_dashboard d LEFT OUTER JOIN env_dashboard_value v "
+                        + "ON v.deploymentId = d.id;", 201503));
+        assertEquals("TRUNCATE TABLE env_dashboard_201503;",
+                HistoryPartitions.route("TRUNCATE TABLE env_dashboard;", 201503));
+    }
+
+    @Test
+    public void testRouteLeavesOtherTables() throws Exception {
+        String sql = "DELETE FROM env_dashboard_latest WHERE envName IN (SELECT name FROM env_dashboard_column);";
+        assertEquals(sql, HistoryPartitions.route(sql, 201503));
+    }
+}
@@ -0,0 +1,9 @@
+package org.jenkinsci.plugins.environmentdashboard.dao;
+
+public class MemoryDashboardStoreTest extends DashboardStoreContract {
+
+    @Override
+    protected DashboardStore createStore() {
+        return new MemoryDashboardStore();
+    }
+}
@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.environmentdashboard.entity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeploymentTest {
+
+    private static final String[] COLUMNS = {"ver", "owner"};
+
+    private Deployment deployment(int i) {
+        return new Deployment(i, new String("DEV"), new String("WEBAPP"), BuildStatus.SUCCESS, String.valueOf(i),
+                "job/deploy/" + i + "/", "job/deploy/" + i + "/", "2015-03-01 12:00:00.0", "");
+    }
+
+    @Test
+    public void testParseStatus() throws Exception {
+        assertEquals(BuildStatus.SUCCESS, BuildStatus.parse("SUCCESS"));
+        assertEquals(BuildStatus.RUNNING, BuildStatus.parse("RUNNING"));
+        assertEquals(BuildStatus.UNKNOWN, BuildStatus.parse("success"));
+        assertEquals(BuildStatus.UNKNOWN, BuildStatus.parse(null));
+    }
+
+    @Test
+    public void testNamesAreInterned() throws Exception {
+        assertSame(deployment(1).getEnv(), deployment(2).getEnv());
+        assertSame(deployment(1).getComp(), deployment(2).getComp());
+    }
+
+    @Test
+    public void testEqualUrlsAreShared() throws Exception {
+        Deployment deployment = deployment(1);
+        assertSame(deployment.getJobUrl(), deployment.getBuildJobUrl());
+    }
+
+    @Test
+    public void testLabel() throws Exception {
+        assertEquals("1", deployment(1).getLabel());
+        Deployment packaged = new Deployment(1, "DEV", "WEBAPP", BuildStatus.SUCCESS, "1", "job/deploy/1/",
+                "job/deploy/", "2015-03-01 12:00:00.0", "webapp-1.0.war");
+        assertEquals("webapp-1.0.war", packaged.getLabel());
+        assertEquals("job/deploy/", packaged.getBuildJobUrl());
+    }
+
+    @Test
+    public void testCustomValues() throws Exception {
+        Deployment deployment = deployment(1);
+        Deployment withValues = deployment.withCustomValues(COLUMNS, new String[] {"1.0", null});
+        assertEquals("1.0", withValues.getCustomValue("ver"));
+        assertNull(withValues.getCustomValue("owner"));
+        assertNull(withValues.getCustomValue("missing"));
+        assertEquals(1, withValues.getCustomValues().size());
+        assertNull(deployment.getCustomValue("ver"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCustomValuesMustMatchColumns() throws Exception {
+        deployment(1).withCustomValues(COLUMNS, new String[] {"1.0"});
+    }
+}
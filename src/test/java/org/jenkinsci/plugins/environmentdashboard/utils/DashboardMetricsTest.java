@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.environmentdashboard.utils;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DashboardMetricsTest {
+
+    private String exposition() {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        DashboardMetrics.write(out);
+        out.flush();
+        return text.toString();
+    }
+
+    @Test
+    public void testHistogramBucketsAreCumulative() throws Exception {
+        DashboardMetrics.OPERATIONS.observe("testBuckets", 0.002);
+        DashboardMetrics.OPERATIONS.observe("testBuckets", 0.2);
+        DashboardMetrics.OPERATIONS.observe("testBuckets", 60);
+
+        String text = exposition();
+        assertTrue(text.contains("# TYPE environment_dashboard_operation_seconds histogram\n"));
+        assertTrue(text.contains("environment_dashboard_operation_seconds_bucket{operation=\"testBuckets\",le=\"0.001\"} 0\n"));
+        assertTrue(text.contains("environment_dashboard_operation_seconds_bucket{operation=\"testBuckets\",le=\"0.0025\"} 1\n"));
+        assertTrue(text.contains("environment_dashboard_operation_seconds_bucket{operation=\"testBuckets\",le=\"0.25\"} 2\n"));
+        assertTrue(text.contains("environment_dashboard_operation_seconds_bucket{operation=\"testBuckets\",le=\"30\"} 2\n"));
+        assertTrue(text.contains("environment_dashboard_operation_seconds_bucket{operation=\"testBuckets\",le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("environment_dashboard_operation_seconds_count{operation=\"testBuckets\"} 3\n"));
+        assertEquals(3, DashboardMetrics.OPERATIONS.getCount("testBuckets"));
+    }
+
+    @Test
+    public void testUnlabelledHistogram() throws Exception {
+        DashboardMetrics.RENDER_QUERIES.observe(null, 3);
+
+        String text = exposition();
+        assertTrue(text.contains("environment_dashboard_render_queries_bucket{le=\"+Inf\"} "));
+        assertTrue(text.contains("environment_dashboard_render_queries_count "));
+    }
+
+    @Test
+    public void testCounter() throws Exception {
+        DashboardMetrics.ERRORS.increment("testCounter", 1);
+        DashboardMetrics.ERRORS.increment("testCounter", 2);
+
+        assertEquals(3, DashboardMetrics.ERRORS.get("testCounter"));
+        assertTrue(exposition().contains("environment_dashboard_errors_total{code=\"testCounter\"} 3\n"));
+        assertTrue(exposition().contains("\nenvironment_dashboard_purged_rows_total "));
+    }
+
+    @Test
+    public void testLabelValuesAreEscaped() throws Exception {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        DashboardMetrics.writeSampled(out, "test_gauge", "A test gauge.", "gauge", "name",
+                Collections.singletonMap("a \"b\"\\c\nd", 1));
+        out.flush();
+
+        assertEquals("# HELP test_gauge A test gauge.\n# TYPE test_gauge gauge\n"
+                + "test_gauge{name=\"a \\\"b\\\"\\\\c\\nd\"} 1\n", text.toString());
+    }
+}
@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.environmentdashboard.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NameFilterTest {
+
+    private static final List<String> COMPS = Arrays.asList("billing-api", "billing-web", "team-a-legacy",
+            "team-a-web", "team-b-web");
+
+    @Test
+    public void testBlankKeepsAll() throws Exception {
+        assertSame(NameFilter.ALL, NameFilter.compile(null));
+        assertSame(NameFilter.ALL, NameFilter.compile(" "));
+        assertSame(COMPS, NameFilter.compile("").filter(COMPS));
+    }
+
+    @Test
+    public void testGlobs() throws Exception {
+        assertEquals(Arrays.asList("team-a-legacy", "team-a-web"), NameFilter.compile("team-a-*").filter(COMPS));
+        assertEquals(Arrays.asList("team-a-web", "team-b-web"), NameFilter.compile("team-?-web").filter(COMPS));
+        assertTrue(NameFilter.compile("billing.api").filter(COMPS).isEmpty());
+    }
+
+    @Test
+    public void testRegexAndExclude() throws Exception {
+        assertEquals(Arrays.asList("billing-api", "team-a-web"),
+                NameFilter.compile("/billing-(api|gw)/, team-a-*, !*-legacy").filter(COMPS));
+        assertEquals(Arrays.asList("billing-api", "billing-web"), NameFilter.compile("!team-*").filter(COMPS));
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void testInvalidRegex() throws Exception {
+        NameFilter.compile("/billing-(api/");
+    }
+
+    @Test
+    public void testFilteredOnceForTheSameNames() throws Exception {
+        NameFilter filter = NameFilter.compile("*-web");
+        List<String> kept = filter.filter(COMPS);
+        assertSame(kept, filter.filter(COMPS));
+        assertEquals(Arrays.asList("billing-web"), filter.filter(Arrays.asList("billing-web", "billing-api")));
+    }
+}